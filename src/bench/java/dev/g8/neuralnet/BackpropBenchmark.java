@@ -0,0 +1,112 @@
+package dev.g8.neuralnet;
+
+import dev.g8.neuralnet.functions.activation.ActivationFunction;
+import dev.g8.neuralnet.functions.loss.LossFunction;
+import dev.g8.neuralnet.initializations.WeightInitialization;
+import dev.g8.neuralnet.layers.impl.DenseHiddenLayer;
+import dev.g8.neuralnet.layers.impl.InputLayer;
+import dev.g8.neuralnet.layers.impl.OutputLayer;
+import dev.g8.neuralnet.network.impl.FeedForwardNeuralNetwork;
+import dev.g8.neuralnet.optimizations.OptimizationAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sweeps the width of a network and times the backward pass, the hidden errors are a transposed mat-vec over the
+ * weights (errors of the previous layer = weights^T * deltas) so a step should grow with width squared
+ * <p>
+ * times a whole training step (forward, backward and update) and the transposed mat-vec on its own
+ * <p>
+ * mvn -Pbench test -Dbench=Backprop, widths can be picked with -Dbench.args="-p width=256,1024"
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--add-modules", "jdk.incubator.vector"})
+public class BackpropBenchmark {
+
+	@Param({"16", "64", "256", "1024", "2048"})
+	private int width;
+
+	private FeedForwardNeuralNetwork network;
+
+	private DenseHiddenLayer hidden;
+
+	private double[] input, output, deltas, errors;
+
+	@Setup
+	public void setup() {
+		hidden = new DenseHiddenLayer(width, 1,
+				ActivationFunction.TANH,
+				WeightInitialization.XAVIER);
+
+		//input(w) -> dense(w) -> dense(w) -> output(1), the second dense layer backprops through a w x w matrix
+		network = (FeedForwardNeuralNetwork) new FeedForwardNeuralNetwork.NetworkBuilder(FeedForwardNeuralNetwork.class)
+				.withLearningRate(0.01)
+				.withOptimizationAlgorithm(OptimizationAlgorithm.STOCHASTIC_GRADIENT_DESCENT)
+				.withSeed(1)
+				.withLayers(
+						new InputLayer(width, width,
+								WeightInitialization.XAVIER),
+						new DenseHiddenLayer(width, width,
+								ActivationFunction.TANH,
+								WeightInitialization.XAVIER),
+						hidden,
+						new OutputLayer(1, 1,
+								ActivationFunction.LOGISTIC_SIGMOID,
+								LossFunction.MEAN_SQUARED_ERROR,
+								WeightInitialization.XAVIER)
+				)
+				.build();
+
+		network.setup();
+
+		final Random random = new Random(1);
+
+		input = new double[width];
+		output = new double[]{1};
+		deltas = new double[width];
+		errors = new double[width];
+
+		for (int i = 0; i < width; i++) {
+			input[i] = random.nextGaussian();
+			deltas[i] = random.nextGaussian();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		network.close();
+	}
+
+	@Benchmark
+	public void step() {
+		network.iterate(input, output);
+	}
+
+	@Benchmark
+	public double[] transposedMatVec() {
+		hidden.computeInputErrors(deltas, errors, 1);
+
+		return errors;
+	}
+
+}
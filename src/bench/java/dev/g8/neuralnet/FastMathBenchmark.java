@@ -0,0 +1,73 @@
+package dev.g8.neuralnet;
+
+import dev.g8.neuralnet.functions.activation.ActivationFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * time per element of the bulk activate calls with the exact functions and with the lookup tables of fast math mode
+ * <p>
+ * only the functions that have a table, the others are the exact function in both modes. the accuracy side is checked
+ * by LookupTablesTest against the errors documented in LookupTables
+ * <p>
+ * mvn -Pbench test -Dbench=FastMath
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(FastMathBenchmark.LENGTH)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--add-modules", "jdk.incubator.vector"})
+public class FastMathBenchmark {
+
+	static final int LENGTH = 1 << 16;
+
+	@Param({"LOGISTIC_SIGMOID", "TANH", "SOFTPLUS", "BIPOLAR_SIGMOID", "SELU"})
+	private ActivationFunction function;
+
+	private double[] src, dst;
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(1);
+
+		//weighted sums mostly land in the steep part of the functions
+		src = new double[LENGTH];
+		dst = new double[LENGTH];
+
+		for (int i = 0; i < LENGTH; i++)
+			src[i] = random.nextGaussian() * 4;
+	}
+
+	@Benchmark
+	public double[] exact() {
+		function.activate(src, dst, 0, LENGTH);
+
+		return dst;
+	}
+
+	@Benchmark
+	public double[] fast() {
+		function.activateApproximate(src, dst, 0, LENGTH);
+
+		return dst;
+	}
+
+}
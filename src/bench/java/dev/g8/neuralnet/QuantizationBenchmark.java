@@ -0,0 +1,146 @@
+package dev.g8.neuralnet;
+
+import dev.g8.neuralnet.functions.activation.ActivationFunction;
+import dev.g8.neuralnet.functions.loss.LossFunction;
+import dev.g8.neuralnet.initializations.WeightInitialization;
+import dev.g8.neuralnet.layers.impl.DenseHiddenLayer;
+import dev.g8.neuralnet.layers.impl.InputLayer;
+import dev.g8.neuralnet.layers.impl.OutputLayer;
+import dev.g8.neuralnet.network.impl.CompiledNetwork;
+import dev.g8.neuralnet.network.impl.FeedForwardNeuralNetwork;
+import dev.g8.neuralnet.network.impl.QuantizedNetwork;
+import dev.g8.neuralnet.optimizations.OptimizationAlgorithm;
+import dev.g8.neuralnet.utils.objects.DataSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * trains a small classifier on random clusters, quantizes it and compares the speed of a prediction with the double
+ * precision network
+ * <p>
+ * the accuracy of the quantized network against the double one is printed once per fork before the measurements
+ * <p>
+ * mvn -Pbench test -Dbench=Quantization
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--add-modules", "jdk.incubator.vector"})
+public class QuantizationBenchmark {
+
+	private static final int NUM_INPUT = 256, HIDDEN = 1024, NUM_CLASSES = 10;
+
+	@Param({"1", "64"})
+	private int batchSize;
+
+	private CompiledNetwork compiled;
+
+	private QuantizedNetwork quantized;
+
+	private double[] inputs, outputs;
+
+	@Setup
+	public void setup() {
+		final FeedForwardNeuralNetwork network = (FeedForwardNeuralNetwork) new FeedForwardNeuralNetwork.NetworkBuilder(FeedForwardNeuralNetwork.class)
+				.withLearningRate(0.05)
+				.withOptimizationAlgorithm(OptimizationAlgorithm.MINI_BATCH_GRADIENT_DESCENT)
+				.withSeed(1)
+				.withLayers(
+						new InputLayer(NUM_INPUT, HIDDEN,
+								WeightInitialization.XAVIER),
+						new DenseHiddenLayer(HIDDEN, HIDDEN,
+								ActivationFunction.TANH,
+								WeightInitialization.XAVIER),
+						new DenseHiddenLayer(HIDDEN, NUM_CLASSES,
+								ActivationFunction.TANH,
+								WeightInitialization.XAVIER),
+						new OutputLayer(NUM_CLASSES, NUM_CLASSES,
+								ActivationFunction.LOGISTIC_SIGMOID,
+								LossFunction.MEAN_SQUARED_ERROR,
+								WeightInitialization.XAVIER)
+				)
+				.build();
+
+		final DataSet train = clusters(2000, 1);
+		final DataSet test = clusters(500, 2);
+
+		network.setup();
+		network.train(train, 3, 32);
+		network.close();
+
+		compiled = network.compile();
+		quantized = network.quantize(train);
+
+		System.out.println("accuracy: " + quantized.evaluate(compiled, test));
+
+		inputs = new double[batchSize * NUM_INPUT];
+		outputs = new double[batchSize * NUM_CLASSES];
+
+		test.copyInputs(0, batchSize, inputs, 0);
+	}
+
+	@Benchmark
+	public double[] compiledDouble() {
+		compiled.predict(inputs, outputs, batchSize);
+
+		return outputs;
+	}
+
+	@Benchmark
+	public double[] quantizedInt8() {
+		quantized.predict(inputs, outputs, batchSize);
+
+		return outputs;
+	}
+
+	/**
+	 * one cluster center per class, samples are the center plus noise
+	 */
+	private static DataSet clusters(final int size, final long seed) {
+		final Random centers = new Random(0);
+		final Random random = new Random(seed);
+
+		final double[][] center = new double[NUM_CLASSES][NUM_INPUT];
+
+		for (int c = 0; c < NUM_CLASSES; c++) {
+			for (int i = 0; i < NUM_INPUT; i++)
+				center[c][i] = centers.nextGaussian();
+		}
+
+		final DataSet dataSet = new DataSet();
+
+		for (int s = 0; s < size; s++) {
+			final int label = random.nextInt(NUM_CLASSES);
+
+			final double[] input = new double[NUM_INPUT];
+			final double[] output = new double[NUM_CLASSES];
+
+			for (int i = 0; i < NUM_INPUT; i++)
+				input[i] = center[label][i] + random.nextGaussian();
+
+			output[label] = 1;
+
+			dataSet.add(input, output);
+		}
+
+		return dataSet;
+	}
+
+}
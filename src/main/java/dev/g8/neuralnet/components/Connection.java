@@ -1,29 +1,28 @@
 package dev.g8.neuralnet.components;
 
-import java.util.Random;
-
 /**
+ * view of a single weight inside a {@link ParameterStore}
+ *
  * @author G8LOL
  * @since 3/31/2023
  */
 public final class Connection {
 
-    private double weight;
+    private final double[] weights;
 
-    public Connection() {
-        this.weight = (new Random()).nextDouble() - 0.5;
-    }
+    private final int index;
 
-    public Connection(final double weight) {
-        this.weight = weight;
+    public Connection(final double[] weights, final int index) {
+        this.weights = weights;
+        this.index = index;
     }
 
     public final double getWeight() {
-        return weight;
+        return weights[index];
     }
 
     public final void setWeight(final double weight) {
-        this.weight = weight;
+        weights[index] = weight;
     }
 
 }
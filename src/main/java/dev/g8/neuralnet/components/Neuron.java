@@ -1,7 +1,7 @@
 package dev.g8.neuralnet.components;
 
 import dev.g8.neuralnet.functions.activation.ActivationFunction;
-import dev.g8.neuralnet.initializations.WeightInitialization;
+import dev.g8.neuralnet.math.Kernels;
 
 /**
  * @author G8LOL
@@ -9,25 +9,31 @@ import dev.g8.neuralnet.initializations.WeightInitialization;
  */
 public final class Neuron {
 
-	private double input, output, error, bias;
+	private double input, output, error;
+
+	private final ParameterStore parameterStore;
+
+	private final int index;
 
 	private Connection[] connections;
 
 	private boolean inputNeuron = false;
 
-	public Neuron(final int numConnections, final int numOutput, final WeightInitialization weightInitialization) {
+	/**
+	 * neuron is a view over column index of the parameter store of its layer
+	 * @param parameterStore
+	 * @param index
+	 */
+	public Neuron(final ParameterStore parameterStore, final int index) {
 		this.output = 0;
 		this.error = 0;
-		this.bias = Math.random();
-
-		this.connections = new Connection[numOutput];
 
-		for (int i = 0; i < numOutput; i++)
-			this.connections[i] = new Connection(weightInitialization.initializeWeight(numConnections, numOutput));
+		this.parameterStore = parameterStore;
+		this.index = index;
 	}
 
-	public Neuron(final int numConnections, final int numOutput, final WeightInitialization weightInitialization, final boolean inputNeuron) {
-		this(numConnections, numOutput, weightInitialization);
+	public Neuron(final ParameterStore parameterStore, final int index, final boolean inputNeuron) {
+		this(parameterStore, index);
 
 		this.inputNeuron = inputNeuron;
 	}
@@ -85,7 +91,7 @@ public final class Neuron {
 	 * @return
 	 */
 	public final double getBias() {
-		return bias;
+		return parameterStore.getBias()[index];
 	}
 
 	/**
@@ -93,7 +99,7 @@ public final class Neuron {
 	 * @param bias
 	 */
 	public final void setBias(final double bias) {
-		this.bias = bias;
+		parameterStore.getBias()[index] = bias;
 	}
 
 	/**
@@ -101,15 +107,24 @@ public final class Neuron {
 	 * @return
 	 */
 	public final Connection[] getConnections() {
+		//connections are only created when asked for
+		if (connections == null) {
+			connections = new Connection[parameterStore.getRows()];
+
+			for (int i = 0; i < connections.length; i++)
+				connections[i] = new Connection(parameterStore.getWeights(), i * parameterStore.getColumns() + index);
+		}
+
 		return connections;
 	}
 
 	/**
-	 * set connections
+	 * set connections (copies the weights into the parameter store)
 	 * @param connections
 	 */
 	public final void setConnections(final Connection[] connections) {
-		this.connections = connections;
+		for (int i = 0; i < connections.length; i++)
+			parameterStore.setWeight(i, index, connections[i].getWeight());
 	}
 
 	/**
@@ -117,10 +132,10 @@ public final class Neuron {
 	 * @return
 	 */
 	public final double[] getWeights() {
-		final double[] weights = new double[connections.length];
+		final double[] weights = new double[parameterStore.getRows()];
 
-		for (int i = 0; i < connections.length; i++)
-			weights[i] = connections[i].getWeight();
+		for (int i = 0; i < weights.length; i++)
+			weights[i] = parameterStore.getWeight(i, index);
 
 		return weights;
 	}
@@ -133,14 +148,10 @@ public final class Neuron {
 	 * @return
 	 */
 	public final double computeFeedforward(final double[] input, final double[] weights, final ActivationFunction activationFunction) {
-		double weightedSum = 0;
-
-		for (int i = 0; i < weights.length; i++) {
-			weightedSum += input[i] * weights[i];
-		}
+		double weightedSum = Kernels.get().dot(input, 0, weights, 0, weights.length);
 
 		//add bias
-		weightedSum += bias;
+		weightedSum += getBias();
 
 		//apply the activation function
 		output = activationFunction.calculateActivation(weightedSum);
@@ -0,0 +1,202 @@
+package dev.g8.neuralnet.components;
+
+import dev.g8.neuralnet.initializations.WeightInitialization;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * contiguous storage for the parameters of a layer
+ * <p>
+ * weights are the weights between a layer and the next layer, stored row-major in the shape of [numOutput][numInput]
+ * so weight (row, column) is at weights[row * numInput + column]
+ * <p>
+ * biases are stored per neuron of the layer (numInput)
+ * <p>
+ * gradient buffers have the same shape as the weights and biases
+ *
+ * @author G8LOL
+ * @since 4/12/2023
+ */
+public final class ParameterStore {
+
+    private final int rows, columns;
+
+    private final double[] weights, weightGradients;
+
+    private final double[] bias, biasGradients;
+
+    private final WeightInitialization weightInitialization;
+
+    /**
+     * indices of the weights that are kept at 0 (e.g. pruned ones), null if every weight trains
+     */
+    private volatile int[] mask;
+
+    public ParameterStore(final int numInput, final int numOutput, final WeightInitialization weightInitialization) {
+        this.rows = numOutput;
+        this.columns = numInput;
+
+        this.weights = new double[rows * columns];
+        this.weightGradients = new double[rows * columns];
+
+        this.bias = new double[columns];
+        this.biasGradients = new double[columns];
+
+        this.weightInitialization = weightInitialization;
+
+        initialize(new Random());
+    }
+
+    /**
+     * draw the weights and biases again, weights from the weight initialization and biases uniform in [0, 1)
+     * @param random - a seeded one gives the same parameters every time
+     */
+    public final void initialize(final Random random) {
+        for (int i = 0; i < weights.length; i++)
+            weights[i] = weightInitialization.initializeWeight(columns, rows, random);
+
+        for (int i = 0; i < bias.length; i++)
+            bias[i] = random.nextDouble();
+    }
+
+    /**
+     * get number of rows (numOutput)
+     * @return
+     */
+    public final int getRows() {
+        return rows;
+    }
+
+    /**
+     * get number of columns (numInput)
+     * @return
+     */
+    public final int getColumns() {
+        return columns;
+    }
+
+    /**
+     * get the row-major weights (not a copy)
+     * @return
+     */
+    public final double[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * get the row-major weight gradients (not a copy)
+     * @return
+     */
+    public final double[] getWeightGradients() {
+        return weightGradients;
+    }
+
+    /**
+     * get the biases (not a copy)
+     * @return
+     */
+    public final double[] getBias() {
+        return bias;
+    }
+
+    /**
+     * get the bias gradients (not a copy)
+     * @return
+     */
+    public final double[] getBiasGradients() {
+        return biasGradients;
+    }
+
+    /**
+     * get weight at row, column
+     * @param row
+     * @param column
+     * @return
+     */
+    public final double getWeight(final int row, final int column) {
+        return weights[row * columns + column];
+    }
+
+    /**
+     * set weight at row, column
+     * @param row
+     * @param column
+     * @param weight
+     */
+    public final void setWeight(final int row, final int column, final double weight) {
+        weights[row * columns + column] = weight;
+    }
+
+    /**
+     * copy weights into a new array in shape of [numOutput][numInput]
+     * @return
+     */
+    public final double[][] toMatrix() {
+        final double[][] matrix = new double[rows][columns];
+
+        for (int i = 0; i < rows; i++)
+            System.arraycopy(weights, i * columns, matrix[i], 0, columns);
+
+        return matrix;
+    }
+
+    /**
+     * copy weights from an array in shape of [numOutput][numInput]
+     * @param matrix
+     */
+    public final void fromMatrix(final double[][] matrix) {
+        for (int i = 0; i < rows; i++)
+            System.arraycopy(matrix[i], 0, weights, i * columns, columns);
+    }
+
+    /**
+     * add the gradients scaled by the learning rate to the weights and biases, then zero the gradients
+     * <p>
+     * gradients point in the direction the parameters should move (same as the errors during backprop)
+     * @param learningRate
+     */
+    public final void applyGradients(final double learningRate) {
+        for (int i = 0; i < weights.length; i++)
+            weights[i] += learningRate * weightGradients[i];
+
+        for (int i = 0; i < bias.length; i++)
+            bias[i] += learningRate * biasGradients[i];
+
+        applyMask();
+
+        clearGradients();
+    }
+
+    /**
+     * keep some of the weights at 0 while training, they are set to 0 now and again after every update
+     * @param mask - indices into the weights, null to let every weight train again
+     */
+    public final void setMask(final int[] mask) {
+        this.mask = mask;
+
+        applyMask();
+    }
+
+    /**
+     * set the masked weights back to 0, called after every update of the weights
+     */
+    public final void applyMask() {
+        final int[] mask = this.mask;
+
+        if (mask == null)
+            return;
+
+        for (final int index : mask)
+            weights[index] = 0;
+    }
+
+    /**
+     * zero the gradient buffers
+     */
+    public final void clearGradients() {
+        Arrays.fill(weightGradients, 0);
+        Arrays.fill(biasGradients, 0);
+    }
+
+}
@@ -14,7 +14,64 @@ public enum ActivationFunction {
 
         @Override
         public final double calculateDerivative(final double x) {
-            return (1 - calculateActivation(x)) * calculateActivation(x);
+            final double y = calculateActivation(x);
+
+            return (1 - y) * y;
+        }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            return y * (1 - y);
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = 1.0 / (1.0 + Math.exp(-x));
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = (float) (1.0 / (1.0 + Math.exp(-x)));
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double y = activated[i];
+
+                dst[i] = y * (1 - y);
+            }
+        }
+
+        @Override
+        public final double calculateApproximateActivation(final double x) {
+            return LookupTables.sigmoid(x);
+        }
+
+        @Override
+        public final void activateApproximate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = LookupTables.sigmoid(x);
+            }
+        }
+
+        @Override
+        public final void activateApproximate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = (float) LookupTables.sigmoid(x);
+            }
         }
     },
     TANH {
@@ -27,6 +84,61 @@ public enum ActivationFunction {
         public final double calculateDerivative(final double x) {
             return 1 - Math.pow(Math.tanh(x), 2);
         }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            return 1 - y * y;
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = Math.tanh(x);
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = (float) Math.tanh(x);
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double y = activated[i];
+
+                dst[i] = 1 - y * y;
+            }
+        }
+
+        @Override
+        public final double calculateApproximateActivation(final double x) {
+            return 2 * LookupTables.sigmoid(2 * x) - 1;
+        }
+
+        @Override
+        public final void activateApproximate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = 2 * LookupTables.sigmoid(2 * x) - 1;
+            }
+        }
+
+        @Override
+        public final void activateApproximate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = (float) (2 * LookupTables.sigmoid(2 * x) - 1);
+            }
+        }
     },
     RELU {
         @Override
@@ -38,6 +150,38 @@ public enum ActivationFunction {
         public final double calculateDerivative(final double x) {
             return x > 0 ? 1 : 0;
         }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            return x > 0 ? 1 : 0;
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = Math.max(0, x);
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final float x = src[i];
+
+                dst[i] = Math.max(0, x);
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = x > 0 ? 1 : 0;
+            }
+        }
     },
     LEAKY_RELU {
         @Override
@@ -49,6 +193,38 @@ public enum ActivationFunction {
         public final double calculateDerivative(final double x) {
             return x > 0 ? 1 : 0.01;
         }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            return x > 0 ? 1 : 0.01;
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = x > 0 ? x : 0.01 * x;
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final float x = src[i];
+
+                dst[i] = x > 0 ? x : 0.01f * x;
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = x > 0 ? 1 : 0.01;
+            }
+        }
     },
     SOFTPLUS {
         @Override
@@ -60,6 +236,62 @@ public enum ActivationFunction {
         public final double calculateDerivative(final double x) {
             return 1 / (1 + Math.exp(-x));
         }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            //derivative is the logistic sigmoid which can't be written without exp
+            return calculateDerivative(x);
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = Math.log(1 + Math.exp(x));
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = (float) Math.log(1 + Math.exp(x));
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = 1 / (1 + Math.exp(-x));
+            }
+        }
+
+        @Override
+        public final double calculateApproximateActivation(final double x) {
+            return LookupTables.softplus(x);
+        }
+
+        @Override
+        public final void activateApproximate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = LookupTables.softplus(x);
+            }
+        }
+
+        @Override
+        public final void activateApproximate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = (float) LookupTables.softplus(x);
+            }
+        }
     },
     SOFTSIGN {
         @Override
@@ -71,6 +303,41 @@ public enum ActivationFunction {
         public final double calculateDerivative(final double x) {
             return 1 / Math.pow(1 + Math.abs(x), 2);
         }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            //1 - |y| = 1 / (1 + |x|)
+            final double d = 1 - Math.abs(y);
+
+            return d * d;
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = x / (1 + Math.abs(x));
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final float x = src[i];
+
+                dst[i] = x / (1 + Math.abs(x));
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double y = activated[i];
+
+                dst[i] = (1 - Math.abs(y)) * (1 - Math.abs(y));
+            }
+        }
     },
     SINUSOID {
         @Override
@@ -82,6 +349,38 @@ public enum ActivationFunction {
         public final double calculateDerivative(final double x) {
             return Math.cos(x);
         }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            return Math.cos(x);
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = Math.sin(x);
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = (float) Math.sin(x);
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = Math.cos(x);
+            }
+        }
     },
     SINC {
         @Override
@@ -93,6 +392,38 @@ public enum ActivationFunction {
         public final double calculateDerivative(final double x) {
             return x == 0 ? 0 : (Math.cos(x) / x) - (Math.sin(x) / Math.pow(x, 2));
         }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            return x == 0 ? 0 : (Math.cos(x) - y) / x;
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = x == 0 ? 1 : Math.sin(x) / x;
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = (float) (x == 0 ? 1 : Math.sin(x) / x);
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i], y = activated[i];
+
+                dst[i] = x == 0 ? 0 : (Math.cos(x) - y) / x;
+            }
+        }
     },
     GAUSSIAN {
         @Override
@@ -104,6 +435,38 @@ public enum ActivationFunction {
         public final double calculateDerivative(final double x) {
             return -2 * x * Math.exp(-Math.pow(x, 2));
         }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            return -2 * x * y;
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = Math.exp(-x * x);
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = (float) Math.exp(-x * x);
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i], y = activated[i];
+
+                dst[i] = -2 * x * y;
+            }
+        }
     },
     BENT_IDENTITY {
         @Override
@@ -115,6 +478,39 @@ public enum ActivationFunction {
         public final double calculateDerivative(final double x) {
             return x / (2 * Math.sqrt(Math.pow(x, 2) + 1)) + 1;
         }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            //sqrt(x^2 + 1) = 2 * (y - x) + 1
+            return x / (2 * (2 * (y - x) + 1)) + 1;
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = (Math.sqrt(x * x + 1) - 1) / 2 + x;
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = (float) ((Math.sqrt(x * x + 1) - 1) / 2 + x);
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i], y = activated[i];
+
+                dst[i] = x / (2 * (2 * (y - x) + 1)) + 1;
+            }
+        }
     },
     BIPOLAR {
         @Override
@@ -126,6 +522,36 @@ public enum ActivationFunction {
         public final double calculateDerivative(final double x) {
             return 0;
         }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            return 0;
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = x >= 0 ? 1 : -1;
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final float x = src[i];
+
+                dst[i] = x >= 0 ? 1 : -1;
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                dst[i] = 0;
+            }
+        }
     },
     BIPOLAR_SIGMOID {
         @Override
@@ -137,6 +563,61 @@ public enum ActivationFunction {
         public final double calculateDerivative(final double x) {
             return (1 - Math.pow(calculateActivation(x), 2)) / 2;
         }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            return (1 - y * y) / 2;
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = (2 / (1 + Math.exp(-x))) - 1;
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = (float) ((2 / (1 + Math.exp(-x))) - 1);
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double y = activated[i];
+
+                dst[i] = (1 - y * y) / 2;
+            }
+        }
+
+        @Override
+        public final double calculateApproximateActivation(final double x) {
+            return 2 * LookupTables.sigmoid(x) - 1;
+        }
+
+        @Override
+        public final void activateApproximate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = 2 * LookupTables.sigmoid(x) - 1;
+            }
+        }
+
+        @Override
+        public final void activateApproximate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = (float) (2 * LookupTables.sigmoid(x) - 1);
+            }
+        }
     },
     HARD_TANH {
         @Override
@@ -148,6 +629,38 @@ public enum ActivationFunction {
         public final double calculateDerivative(final double x) {
             return x < -1 || x > 1 ? 0 : 1;
         }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            return x < -1 || x > 1 ? 0 : 1;
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = x < -1 ? -1 : x > 1 ? 1 : x;
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final float x = src[i];
+
+                dst[i] = x < -1 ? -1 : x > 1 ? 1 : x;
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = x < -1 || x > 1 ? 0 : 1;
+            }
+        }
     },
     ABSOLUTE {
         @Override
@@ -159,6 +672,38 @@ public enum ActivationFunction {
         public final double calculateDerivative(final double x) {
             return x < 0 ? -1 : 1;
         }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            return x < 0 ? -1 : 1;
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = Math.abs(x);
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final float x = src[i];
+
+                dst[i] = Math.abs(x);
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = x < 0 ? -1 : 1;
+            }
+        }
     },
     SELU {
         private final double ALPHA = 1.6732632423543772848170429916717;
@@ -172,10 +717,149 @@ public enum ActivationFunction {
         public final double calculateDerivative(final double x) {
             return x > 0 ? 1 : ALPHA * Math.exp(x);
         }
+
+        @Override
+        public final double calculateDerivative(final double x, final double y) {
+            //ALPHA * exp(x) = y + ALPHA
+            return x > 0 ? 1 : y + ALPHA;
+        }
+
+        @Override
+        public final void activate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = x > 0 ? x : ALPHA * (Math.exp(x) - 1);
+            }
+        }
+
+        @Override
+        public final void activate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final float x = src[i];
+
+                dst[i] = x > 0 ? x : (float) (ALPHA * (Math.exp(x) - 1));
+            }
+        }
+
+        @Override
+        public final void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i], y = activated[i];
+
+                dst[i] = x > 0 ? 1 : y + ALPHA;
+            }
+        }
+
+        @Override
+        public final double calculateApproximateActivation(final double x) {
+            return x > 0 ? x : ALPHA * (LookupTables.expNegative(x) - 1);
+        }
+
+        @Override
+        public final void activateApproximate(final double[] src, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final double x = src[i];
+
+                dst[i] = x > 0 ? x : ALPHA * (LookupTables.expNegative(x) - 1);
+            }
+        }
+
+        @Override
+        public final void activateApproximate(final float[] src, final float[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final float x = src[i];
+
+                dst[i] = x > 0 ? x : (float) (ALPHA * (LookupTables.expNegative(x) - 1));
+            }
+        }
     };
 
+    /**
+     * activation at x
+     * @param x - input (weighted sum)
+     * @return
+     */
     public abstract double calculateActivation(final double x);
 
+    /**
+     * derivative at x
+     * @param x - input (weighted sum)
+     * @return
+     */
     public abstract double calculateDerivative(final double x);
 
+    /**
+     * derivative at x, using y = calculateActivation(x) when it is cheaper
+     * (e.g. logistic sigmoid is y * (1 - y)) so backprop can reuse the values from the forward pass
+     * @param x - input (weighted sum)
+     * @param y - output of the activation function for x
+     * @return
+     */
+    public abstract double calculateDerivative(final double x, final double y);
+
+    /**
+     * dst[i] = calculateActivation(src[i]) for i in [offset, offset + length), src and dst can be the same array
+     * @param src - inputs (weighted sums)
+     * @param dst - written to
+     * @param offset
+     * @param length
+     */
+    public abstract void activate(final double[] src, final double[] dst, final int offset, final int length);
+
+    /**
+     * single precision version of {@link #activate(double[], double[], int, int)}
+     * <p>
+     * piecewise linear functions stay in float, the others are worked out in double (java has no float exp, tanh...)
+     * and rounded once per element
+     * @param src - inputs (weighted sums)
+     * @param dst - written to
+     * @param offset
+     * @param length
+     */
+    public abstract void activate(final float[] src, final float[] dst, final int offset, final int length);
+
+    /**
+     * approximation of {@link #calculateActivation(double)} using lookup tables (fast math mode)
+     * <p>
+     * functions without an approximation return the exact value, see {@link LookupTables} for the max errors
+     * @param x - input (weighted sum)
+     * @return
+     */
+    public double calculateApproximateActivation(final double x) {
+        return calculateActivation(x);
+    }
+
+    /**
+     * approximate version of {@link #activate(double[], double[], int, int)} (fast math mode)
+     * @param src - inputs (weighted sums)
+     * @param dst - written to
+     * @param offset
+     * @param length
+     */
+    public void activateApproximate(final double[] src, final double[] dst, final int offset, final int length) {
+        activate(src, dst, offset, length);
+    }
+
+    /**
+     * single precision version of {@link #activateApproximate(double[], double[], int, int)}
+     * @param src - inputs (weighted sums)
+     * @param dst - written to
+     * @param offset
+     * @param length
+     */
+    public void activateApproximate(final float[] src, final float[] dst, final int offset, final int length) {
+        activate(src, dst, offset, length);
+    }
+
+    /**
+     * dst[i] = calculateDerivative(src[i], activated[i]) for i in [offset, offset + length), dst can be the same array as src or activated
+     * @param src - inputs (weighted sums)
+     * @param activated - outputs of {@link #activate(double[], double[], int, int)} for src
+     * @param dst - written to
+     * @param offset
+     * @param length
+     */
+    public abstract void derivative(final double[] src, final double[] activated, final double[] dst, final int offset, final int length);
+
 }
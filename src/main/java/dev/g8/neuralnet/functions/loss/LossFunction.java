@@ -8,56 +8,50 @@ public enum LossFunction {
 
     MEAN_SQUARED_ERROR {
         @Override
-        public final double calculateLoss(final double[] predicted, final double[] desired) {
+        public final double calculateLoss(final double[] predicted, final double[] desired, final int offset, final int length) {
             double sum = 0;
 
-            for (int i = 0; i < predicted.length; i++) {
-                sum += Math.pow(predicted[i] - desired[i], 2);
+            for (int i = offset; i < offset + length; i++) {
+                final double difference = predicted[i] - desired[i];
+
+                sum += difference * difference;
             }
 
-            return sum / predicted.length;
+            return sum / length;
         }
 
         @Override
-        public final double[] calculateDerivative(final double[] predicted, final double[] desired) {
-            final double[] derivative = new double[predicted.length];
-
-            for (int i = 0; i < predicted.length; i++) {
-                derivative[i] = 2 * (predicted[i] - desired[i]) / predicted.length;
+        public final void calculateDerivative(final double[] predicted, final double[] desired, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                dst[i] = 2 * (predicted[i] - desired[i]) / length;
             }
-
-            return derivative;
         }
     },
     CROSS_ENTROPY {
         @Override
-        public final double calculateLoss(final double[] predicted, final double[] desired) {
+        public final double calculateLoss(final double[] predicted, final double[] desired, final int offset, final int length) {
             double sum = 0;
 
-            for (int i = 0; i < predicted.length; i++) {
+            for (int i = offset; i < offset + length; i++) {
                 sum += desired[i] * Math.log(predicted[i]) + (1 - desired[i]) * Math.log(1 - predicted[i]);
             }
 
-            return -sum / predicted.length;
+            return -sum / length;
         }
 
         @Override
-        public final double[] calculateDerivative(final double[] predicted, final double[] desired) {
-            final double[] derivative = new double[predicted.length];
-
-            for (int i = 0; i < predicted.length; i++) {
-                derivative[i] = (predicted[i] - desired[i]) / (predicted[i] * (1 - predicted[i]));
+        public final void calculateDerivative(final double[] predicted, final double[] desired, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                dst[i] = (predicted[i] - desired[i]) / (predicted[i] * (1 - predicted[i]));
             }
-
-            return derivative;
         }
     },
     BINARY_CROSS_ENTROPY {
         @Override
-        public final double calculateLoss(final double[] predicted, final double[] desired) {
+        public final double calculateLoss(final double[] predicted, final double[] desired, final int offset, final int length) {
             double sum = 0;
 
-            for (int i = 0; i < predicted.length; i++) {
+            for (int i = offset; i < offset + length; i++) {
                 sum += desired[i] * Math.log(predicted[i]) + (1 - desired[i]) * Math.log(1 - predicted[i]);
             }
 
@@ -65,68 +59,58 @@ public enum LossFunction {
         }
 
         @Override
-        public final double[] calculateDerivative(final double[] predicted, final double[] desired) {
-            final double[] derivative = new double[predicted.length];
-
-            for (int i = 0; i < predicted.length; i++) {
-                derivative[i] = (predicted[i] - desired[i]) / (predicted[i] * (1 - predicted[i]));
+        public final void calculateDerivative(final double[] predicted, final double[] desired, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                dst[i] = (predicted[i] - desired[i]) / (predicted[i] * (1 - predicted[i]));
             }
-
-            return derivative;
         }
     },
     HINGE {
         @Override
-        public final double calculateLoss(final double[] predicted, final double[] desired) {
+        public final double calculateLoss(final double[] predicted, final double[] desired, final int offset, final int length) {
             double sum = 0;
 
-            for (int i = 0; i < predicted.length; i++) {
+            for (int i = offset; i < offset + length; i++) {
                 sum += Math.max(0, 1 - desired[i] * predicted[i]);
             }
 
-            return sum / predicted.length;
+            return sum / length;
         }
 
         @Override
-        public final double[] calculateDerivative(final double[] predicted, final double[] desired) {
-            final double[] derivative = new double[predicted.length];
-
-            for (int i = 0; i < predicted.length; i++) {
-                derivative[i] = desired[i] * predicted[i] < 1 ? -desired[i] : 0;
+        public final void calculateDerivative(final double[] predicted, final double[] desired, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                dst[i] = desired[i] * predicted[i] < 1 ? -desired[i] : 0;
             }
-
-            return derivative;
         }
     },
     SQUARED_HINGE {
         @Override
-        public final double calculateLoss(final double[] predicted, final double[] desired) {
+        public final double calculateLoss(final double[] predicted, final double[] desired, final int offset, final int length) {
             double sum = 0;
 
-            for (int i = 0; i < predicted.length; i++) {
-                sum += Math.pow(Math.max(0, 1 - desired[i] * predicted[i]), 2);
+            for (int i = offset; i < offset + length; i++) {
+                final double margin = Math.max(0, 1 - desired[i] * predicted[i]);
+
+                sum += margin * margin;
             }
 
-            return sum / predicted.length;
+            return sum / length;
         }
 
         @Override
-        public final double[] calculateDerivative(final double[] predicted, final double[] desired) {
-            final double[] derivative = new double[predicted.length];
-
-            for (int i = 0; i < predicted.length; i++) {
-                derivative[i] = desired[i] * predicted[i] < 1 ? -2 * desired[i] * Math.max(0, 1 - desired[i] * predicted[i]) : 0;
+        public final void calculateDerivative(final double[] predicted, final double[] desired, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                dst[i] = desired[i] * predicted[i] < 1 ? -2 * desired[i] * Math.max(0, 1 - desired[i] * predicted[i]) : 0;
             }
-
-            return derivative;
         }
     },
     KULLBACK_LEIBLER_DIVERGENCE {
         @Override
-        public final double calculateLoss(final double[] predicted, final double[] desired) {
+        public final double calculateLoss(final double[] predicted, final double[] desired, final int offset, final int length) {
             double sum = 0;
 
-            for (int i = 0; i < predicted.length; i++) {
+            for (int i = offset; i < offset + length; i++) {
                 sum += desired[i] * Math.log(desired[i] / predicted[i]);
             }
 
@@ -134,22 +118,18 @@ public enum LossFunction {
         }
 
         @Override
-        public final double[] calculateDerivative(final double[] predicted, final double[] desired) {
-            final double[] derivative = new double[predicted.length];
-
-            for (int i = 0; i < predicted.length; i++) {
-                derivative[i] = desired[i] / predicted[i];
+        public final void calculateDerivative(final double[] predicted, final double[] desired, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                dst[i] = desired[i] / predicted[i];
             }
-
-            return derivative;
         }
     },
     POISSON {
         @Override
-        public final double calculateLoss(final double[] predicted, final double[] desired) {
+        public final double calculateLoss(final double[] predicted, final double[] desired, final int offset, final int length) {
             double sum = 0;
 
-            for (int i = 0; i < predicted.length; i++) {
+            for (int i = offset; i < offset + length; i++) {
                 sum += desired[i] * Math.log(predicted[i]) - predicted[i];
             }
 
@@ -157,52 +137,115 @@ public enum LossFunction {
         }
 
         @Override
-        public final double[] calculateDerivative(final double[] predicted, final double[] desired) {
-            final double[] derivative = new double[predicted.length];
-
-            for (int i = 0; i < predicted.length; i++) {
-                derivative[i] = desired[i] / predicted[i] - 1;
+        public final void calculateDerivative(final double[] predicted, final double[] desired, final double[] dst, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                dst[i] = desired[i] / predicted[i] - 1;
             }
-
-            return derivative;
         }
     },
     COSINE_PROXIMITY {
         @Override
-        public final double calculateLoss(final double[] predicted, final double[] desired) {
+        public final double calculateLoss(final double[] predicted, final double[] desired, final int offset, final int length) {
             double sum = 0;
 
-            for (int i = 0; i < predicted.length; i++) {
+            for (int i = offset; i < offset + length; i++) {
                 sum += predicted[i] * desired[i];
             }
 
-            return 1 - sum / (Math.sqrt(sum(predicted)) * Math.sqrt(sum(desired)));
+            return 1 - sum / (Math.sqrt(sum(predicted, offset, length)) * Math.sqrt(sum(desired, offset, length)));
         }
 
         @Override
-        public final double[] calculateDerivative(final double[] predicted, final double[] desired) {
-            final double[] derivative = new double[predicted.length];
+        public final void calculateDerivative(final double[] predicted, final double[] desired, final double[] dst, final int offset, final int length) {
+            //sums are the same for every element so only work them out once
+            final double predictedSum = sum(predicted, offset, length);
+            final double desiredSum = sum(desired, offset, length);
 
-            for (int i = 0; i < predicted.length; i++) {
-                derivative[i] = -desired[i] / (Math.sqrt(sum(predicted)) * Math.sqrt(sum(desired))) + predicted[i] * sum(desired) / (Math.pow(Math.sqrt(sum(predicted)), 3) * Math.sqrt(sum(desired)));
-            }
+            final double norm = Math.sqrt(predictedSum) * Math.sqrt(desiredSum);
+            final double cubedNorm = Math.pow(Math.sqrt(predictedSum), 3) * Math.sqrt(desiredSum);
 
-            return derivative;
+            for (int i = offset; i < offset + length; i++) {
+                dst[i] = -desired[i] / norm + predicted[i] * desiredSum / cubedNorm;
+            }
         }
     };
 
     public final double sum(final double[] array) {
+        return sum(array, 0, array.length);
+    }
+
+    public final double sum(final double[] array, final int offset, final int length) {
         double sum = 0;
 
-        for (double v : array) {
-            sum += v;
+        for (int i = offset; i < offset + length; i++) {
+            sum += array[i];
         }
 
         return sum;
     }
 
-    public abstract double calculateLoss(final double[] predicted, final double[] desired);
+    public final double calculateLoss(final double[] predicted, final double[] desired) {
+        return calculateLoss(predicted, desired, 0, predicted.length);
+    }
+
+    public final double[] calculateDerivative(final double[] predicted, final double[] desired) {
+        final double[] derivative = new double[predicted.length];
+
+        calculateDerivative(predicted, desired, derivative, 0, predicted.length);
+
+        return derivative;
+    }
+
+    /**
+     * sum of the losses of every sample in a batch
+     * @param predicted - shape of [batchSize][size]
+     * @param desired - shape of [batchSize][size]
+     * @param batchSize
+     * @param size
+     * @return
+     */
+    public final double calculateBatchLoss(final double[] predicted, final double[] desired, final int batchSize, final int size) {
+        double sum = 0;
+
+        for (int b = 0; b < batchSize; b++) {
+            sum += calculateLoss(predicted, desired, b * size, size);
+        }
+
+        return sum;
+    }
+
+    /**
+     * derivative of every sample in a batch
+     * @param predicted - shape of [batchSize][size]
+     * @param desired - shape of [batchSize][size]
+     * @param dst - shape of [batchSize][size], written to
+     * @param batchSize
+     * @param size
+     */
+    public final void calculateBatchDerivative(final double[] predicted, final double[] desired, final double[] dst, final int batchSize, final int size) {
+        for (int b = 0; b < batchSize; b++) {
+            calculateDerivative(predicted, desired, dst, b * size, size);
+        }
+    }
 
-    public abstract double[] calculateDerivative(final double[] predicted, final double[] desired);
+    /**
+     * loss of the values in [offset, offset + length)
+     * @param predicted
+     * @param desired
+     * @param offset
+     * @param length
+     * @return
+     */
+    public abstract double calculateLoss(final double[] predicted, final double[] desired, final int offset, final int length);
+
+    /**
+     * derivative of the values in [offset, offset + length), written to the same indices of dst
+     * @param predicted
+     * @param desired
+     * @param dst
+     * @param offset
+     * @param length
+     */
+    public abstract void calculateDerivative(final double[] predicted, final double[] desired, final double[] dst, final int offset, final int length);
 
 }
@@ -12,60 +12,71 @@ public enum WeightInitialization {
 
     RANDOM {
         @Override
-        public final double initializeWeight(final int numInput, final int numOutput) {
-            return RAND.nextDouble() - 0.5;
+        public final double initializeWeight(final int numInput, final int numOutput, final Random random) {
+            return random.nextDouble() - 0.5;
         }
     },
     XAVIER {
         @Override
-        public final double initializeWeight(final int numInput, final int numOutput) {
+        public final double initializeWeight(final int numInput, final int numOutput, final Random random) {
             final double variance = 2.0 / (numInput + numOutput);
             final double std_dev = Math.sqrt(variance);
 
-            return RAND.nextGaussian() * std_dev;
+            return random.nextGaussian() * std_dev;
         }
     },
     HE {
         @Override
-        public final double initializeWeight(final int numInput, final int numOutput) {
+        public final double initializeWeight(final int numInput, final int numOutput, final Random random) {
             final double variance = 2.0 / numInput;
             final double std_dev = Math.sqrt(variance);
 
-            return RAND.nextGaussian() * std_dev;
+            return random.nextGaussian() * std_dev;
         }
     },
     LECUN {
         @Override
-        public final double initializeWeight(final int numInput, final int numOutput) {
+        public final double initializeWeight(final int numInput, final int numOutput, final Random random) {
             final double variance = 1.0 / numInput;
             final double std_dev = Math.sqrt(variance);
 
-            return RAND.nextGaussian() * std_dev;
+            return random.nextGaussian() * std_dev;
         }
     },
     UNIFORM {
         @Override
-        public final double initializeWeight(final int numInput, final int numOutput) {
+        public final double initializeWeight(final int numInput, final int numOutput, final Random random) {
             final double lower_bound = -1.0 / Math.sqrt(numInput);
             final double upper_bound = 1.0 / Math.sqrt(numInput);
 
-            return RAND.nextDouble() * (upper_bound - lower_bound) + lower_bound;
+            return random.nextDouble() * (upper_bound - lower_bound) + lower_bound;
         }
     },
     IDENTITY {
         @Override
-        public final double initializeWeight(final int numInput, final int numOutput) {
+        public final double initializeWeight(final int numInput, final int numOutput, final Random random) {
             return 1.0;
         }
     },
     NORMAL {
         @Override
-        public final double initializeWeight(final int numInput, final int numOutput) {
-            return RAND.nextGaussian();
+        public final double initializeWeight(final int numInput, final int numOutput, final Random random) {
+            return random.nextGaussian();
         }
     };
 
     private final static Random RAND = new Random();
 
-    public abstract double initializeWeight(final int numInput, final int numOutput);
+    public final double initializeWeight(final int numInput, final int numOutput) {
+        return initializeWeight(numInput, numOutput, RAND);
+    }
+
+    /**
+     * draw one weight from random, so a seeded random gives the same weights every time
+     * @param numInput
+     * @param numOutput
+     * @param random
+     * @return
+     */
+    public abstract double initializeWeight(final int numInput, final int numOutput, final Random random);
 }
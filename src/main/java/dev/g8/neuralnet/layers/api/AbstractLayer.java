@@ -1,6 +1,7 @@
 package dev.g8.neuralnet.layers.api;
 
 import dev.g8.neuralnet.components.Neuron;
+import dev.g8.neuralnet.components.ParameterStore;
 import dev.g8.neuralnet.functions.activation.ActivationFunction;
 import dev.g8.neuralnet.functions.loss.LossFunction;
 import dev.g8.neuralnet.initializations.WeightInitialization;
@@ -8,6 +9,7 @@ import dev.g8.neuralnet.layers.impl.OutputLayer;
 import dev.g8.neuralnet.network.api.AbstractNetwork;
 
 import java.lang.reflect.Constructor;
+import java.util.Random;
 
 /**
  * @author G8LOL
@@ -17,15 +19,54 @@ public abstract class AbstractLayer {
 
     protected Mode mode;
 
+    protected boolean fastMath;
+
     /**
-     * forward propagation
+     * forward propagation for a batch, rows are stored one after another (row-major)
+     * @param input - shape of [batchSize][size of previous layer]
+     * @param output - shape of [batchSize][size], written to
+     * @param weights - parameter store of the previous layer
+     * @param batchSize
+     */
+    public abstract void computeForward(final double[] input, final double[] output, final ParameterStore weights, final int batchSize);
+
+    /**
+     * forward propagation for a batch that also keeps the weighted sums (before the activation function) for backprop
+     * @param input - shape of [batchSize][size of previous layer]
+     * @param preActivation - shape of [batchSize][size], written to
+     * @param output - shape of [batchSize][size], written to
+     * @param weights - parameter store of the previous layer
+     * @param batchSize
+     * @param random - source of randomness during training (e.g. dropout masks), one per thread
+     */
+    public abstract void computeForward(final double[] input, final double[] preActivation, final double[] output, final ParameterStore weights, final int batchSize, final Random random);
+
+    /**
+     * single precision version of {@link #computeForward(double[], double[], ParameterStore, int)}
+     * <p>
+     * reads a float copy of the weights taken by the network instead of the parameter stores
      * @param input
-     * @param weights
+     * @param output
+     * @param weights - float copy of the weights into this layer, null for layers without weights
+     * @param bias - float copy of the biases of this layer, null for layers without weights
+     * @param batchSize
      */
-    public abstract void computeForward(final double[] input, final double[][] weights);
+    public abstract void computeForward(final float[] input, final float[] output, final float[] weights, final float[] bias, final int batchSize);
 
     /**
-     * get weights in shape of [numOut][numIn]
+     * get the number of values this layer outputs per sample
+     * @return
+     */
+    public abstract int getSize();
+
+    /**
+     * get the parameter store holding the weights (and biases) of this layer
+     * @return
+     */
+    public abstract ParameterStore getParameterStore();
+
+    /**
+     * get a copy of the weights in shape of [numOut][numIn]
      * @return
      */
     public abstract double[][] getWeights();
@@ -43,31 +84,17 @@ public abstract class AbstractLayer {
     public abstract void setBias(final double[] outputLayerBias);
 
     /**
-     * get bias in shape of [numOut]
+     * get a copy of the bias in shape of [numOut]
      * @return
      */
     public abstract double[] getBias();
 
-    /**
-     * get output
-     * @return
-     */
-    public abstract double[] getOutput();
-
     /**
      * get neurons
      * @return
      */
     public abstract Neuron[] getNeurons();
 
-    /**
-     * get out errors
-     * @return
-     */
-    public double[] getOutputErrors() {
-        return new double[0];
-    }
-
     /**
      * get previus layer
      * @return
@@ -112,4 +139,20 @@ public abstract class AbstractLayer {
         this.mode = mode;
     }
 
+    /**
+     * is fast math (approximate activation functions) used
+     * @return
+     */
+    public boolean isFastMath() {
+        return fastMath;
+    }
+
+    /**
+     * use approximate activation functions (lookup tables) for this layer
+     * @param fastMath
+     */
+    public void setFastMath(final boolean fastMath) {
+        this.fastMath = fastMath;
+    }
+
 }
@@ -1,9 +1,13 @@
 package dev.g8.neuralnet.layers.impl;
 
 import dev.g8.neuralnet.components.Neuron;
+import dev.g8.neuralnet.components.ParameterStore;
 import dev.g8.neuralnet.functions.activation.ActivationFunction;
 import dev.g8.neuralnet.initializations.WeightInitialization;
 import dev.g8.neuralnet.layers.api.AbstractLayer;
+import dev.g8.neuralnet.math.Gemm;
+
+import java.util.Random;
 
 /**
  * fully connected layer
@@ -17,7 +21,9 @@ public final class DenseHiddenLayer extends AbstractLayer {
 
     private final Neuron[] neurons;
 
-    private double[] output, outputErrors;
+    private final ParameterStore parameterStore;
+
+    private final WeightInitialization weightInitialization;
 
     private final int numInput, numOutput;
 
@@ -29,10 +35,14 @@ public final class DenseHiddenLayer extends AbstractLayer {
         this.numInput = numInput;
         this.numOutput = numOutput;
 
+        this.weightInitialization = weightInitialization;
+
+        parameterStore = new ParameterStore(numInput, numOutput, weightInitialization);
+
         neurons = new Neuron[numInput];
 
         for (int i = 0; i < numInput; i++) {
-            final Neuron neuron = new Neuron(numInput, numOutput, weightInitialization,false);
+            final Neuron neuron = new Neuron(parameterStore, i, false);
 
             neurons[i] = neuron;
         }
@@ -71,52 +81,120 @@ public final class DenseHiddenLayer extends AbstractLayer {
         return activationFunction;
     }
 
+    /**
+     * get the weight initialization the parameters of this layer were created with
+     * @return
+     */
+    public final WeightInitialization getWeightInitialization() {
+        return weightInitialization;
+    }
+
     @Override
-    public final void computeForward(final double[] prevInput, final double[][] weights) {
-        //first find the weighted sum
-        //weighted_sum = (input_1 * weight_1) + (input_2 * weight_2) + ... + (input_n * weight_n)
+    public final void computeForward(final double[] prevInput, final double[] output, final ParameterStore weights, final int batchSize) {
+        //weighted sums are not needed so work them out in the output buffer
+        computeForward(prevInput, output, output, weights, batchSize, null);
+    }
 
-        //weights shape = input layer input neurons x hidden layer neuron count
-        //eg 2 x 4
-        double[] outputs = new double[neurons.length];
+    @Override
+    public final void computeForward(final double[] prevInput, final double[] preActivation, final double[] output, final ParameterStore weights, final int batchSize, final Random random) {
+        //preActivation = prevInput * weights^T + bias
+        //weights are [numOutput][numInput] of the previous layer so each output is a dot product of two contiguous rows
+        final double[] bias = parameterStore.getBias();
 
-        for (int i = 0; i < neurons.length; i++) {
-            outputs[i] = neurons[i].computeFeedforward(prevInput, weights[i], activationFunction);
+        final int size = neurons.length;
+
+        Gemm.multiplyTransposed(prevInput, weights.getWeights(), preActivation, batchSize, size, weights.getColumns());
+
+        for (int b = 0; b < batchSize; b++) {
+            final int outputOffset = b * size;
+
+            for (int i = 0; i < size; i++) {
+                preActivation[outputOffset + i] += bias[i];
+            }
+        }
+
+        //apply the activation function to the whole batch at once
+        if (fastMath)
+            activationFunction.activateApproximate(preActivation, output, 0, batchSize * size);
+        else
+            activationFunction.activate(preActivation, output, 0, batchSize * size);
+    }
+
+    @Override
+    public final void computeForward(final float[] prevInput, final float[] output, final float[] weights, final float[] bias, final int batchSize) {
+        final int size = neurons.length;
+
+        Gemm.multiplyTransposed(prevInput, weights, output, batchSize, size, weights.length / size);
+
+        for (int b = 0; b < batchSize; b++) {
+            final int outputOffset = b * size;
+
+            for (int i = 0; i < size; i++) {
+                output[outputOffset + i] += bias[i];
+            }
         }
 
-        this.output = outputs;
+        //activate the weighted sums in place, same as the double version
+        if (fastMath)
+            activationFunction.activateApproximate(output, output, 0, batchSize * size);
+        else
+            activationFunction.activate(output, output, 0, batchSize * size);
+    }
+
+    /**
+     * Compute the output errors for the hidden layer for a batch
+     * @param outputErrors - errors with respect to the output of this layer, shape of [batchSize][size]
+     * @param preActivation - weighted sums from the forward pass, shape of [batchSize][size]
+     * @param hiddenLayerOut - shape of [batchSize][size]
+     * @param hiddenErrors - shape of [batchSize][size], written to
+     * @param batchSize
+     */
+    public final void computeBackprop(final double[] outputErrors, final double[] preActivation, final double[] hiddenLayerOut, final double[] hiddenErrors, final int batchSize) {
+        final int length = batchSize * neurons.length;
+
+        activationFunction.derivative(preActivation, hiddenLayerOut, hiddenErrors, 0, length);
+
+        for (int i = 0; i < length; i++) {
+            hiddenErrors[i] *= outputErrors[i];
+        }
     }
 
     /**
-     * Compute the output errors for the hidden layer
+     * add the gradients of a batch to the gradient buffers
      * <p>
-     * note: nextLayer used to be outputLayer
-     * @param nextLayer
-     * @param hiddenLayerOut
-     * @param outputErrors
-     * @return
+     * weight gradients are in the shape of the previous layer's weights [numOutput][numInput] and are errors^T * prevLayerOut
+     * bias gradients are in the shape of this layer's bias and are the sum of the errors over the batch
+     * @param prevLayerOut - shape of [batchSize][size of previous layer]
+     * @param hiddenErrors - shape of [batchSize][size]
+     * @param batchSize
+     * @param weightGradients
+     * @param biasGradients
      */
-    public final double[] computeBackprop(final AbstractLayer nextLayer, final double[] hiddenLayerOut, final double[] outputErrors) {
-        /*
-         * same thing as output layer but calculate error using the output layers weights
-         *
-         * error variable is the sum of the output delta times the corresponding weight
-         *
-         * im using normal gradient descent for now
-         */
-        final double[] hiddenErrors = new double[neurons.length];
+    public final void accumulateGradients(final double[] prevLayerOut, final double[] hiddenErrors, final int batchSize, final double[] weightGradients, final double[] biasGradients) {
+        final int columns = prevLayer.getParameterStore().getColumns();
+        final int size = neurons.length;
 
-        for (int i = 0; i < neurons.length; i++) {
-            double error = 0.0;
-            for (int j = 0; j < nextLayer.getNeurons().length; j++) {
-                error += outputErrors[j] * nextLayer.getPrevLayer().getWeights()[j][i];
+        Gemm.transposeMultiplyAdd(hiddenErrors, prevLayerOut, weightGradients, size, columns, batchSize);
+
+        for (int b = 0; b < batchSize; b++) {
+            final int errorOffset = b * size;
+
+            for (int j = 0; j < size; j++) {
+                biasGradients[j] += hiddenErrors[errorOffset + j];
             }
-            hiddenErrors[i] = error * activationFunction.calculateDerivative(hiddenLayerOut[i]);
         }
+    }
 
-        this.outputErrors = hiddenErrors;
+    /**
+     * compute the errors with respect to the output of the previous layer for a batch (errors * weights)
+     * @param hiddenErrors - shape of [batchSize][size]
+     * @param inputErrors - shape of [batchSize][size of previous layer], written to
+     * @param batchSize
+     */
+    public final void computeInputErrors(final double[] hiddenErrors, final double[] inputErrors, final int batchSize) {
+        final ParameterStore prevParameters = prevLayer.getParameterStore();
 
-        return hiddenErrors;
+        Gemm.multiply(hiddenErrors, prevParameters.getWeights(), inputErrors, batchSize, prevParameters.getColumns(), neurons.length);
     }
 
     /**
@@ -127,15 +205,10 @@ public final class DenseHiddenLayer extends AbstractLayer {
      * @param learningRate
      */
     public final void updateWeights(final AbstractLayer prevLayer, final double[] hiddenErrors, final double[] inputLayerOut, final double learningRate) {
-        final double[][] hiddenWeights = prevLayer.getWeights();
+        //update in place, weights shape is numOutput x numInput of the previous layer
+        final ParameterStore prevParameters = prevLayer.getParameterStore();
 
-        for (int i = 0; i < prevLayer.getNeurons().length; i++) {
-            for (int j = 0; j < neurons.length; j++) {
-                hiddenWeights[j][i] += learningRate * hiddenErrors[j] * inputLayerOut[i];
-            }
-        }
-
-        prevLayer.setWeights(hiddenWeights);
+        Gemm.addOuterProduct(learningRate, hiddenErrors, inputLayerOut, prevParameters.getWeights(), neurons.length, prevParameters.getColumns());
     }
 
     /**
@@ -144,34 +217,26 @@ public final class DenseHiddenLayer extends AbstractLayer {
      * @param learningRate
      */
     public final void updateBiases(final double[] hiddenErrors, final double learningRate) {
-        final double[] hiddenBias = getBias();
+        final double[] hiddenBias = parameterStore.getBias();
 
         for (int i = 0; i < neurons.length; i++) {
             hiddenBias[i] += learningRate * hiddenErrors[i];
         }
-
-        setBias(hiddenBias);
     }
 
     @Override
-    public final double[] getOutput() {
-        return this.output;
+    public final int getSize() {
+        return neurons.length;
     }
 
     @Override
     public final double[] getBias() {
-        final double[] bias = new double[neurons.length];
-
-        for (int i = 0; i < neurons.length; i++) {
-            bias[i] = neurons[i].getBias();
-        }
-
-        return bias;
+        return parameterStore.getBias().clone();
     }
 
     @Override
-    public final double[] getOutputErrors() {
-        return outputErrors;
+    public final ParameterStore getParameterStore() {
+        return parameterStore;
     }
 
     @Override
@@ -188,39 +253,16 @@ public final class DenseHiddenLayer extends AbstractLayer {
         // 0 1 2 3
         // 4 5 6 7
 
-        final double[][] weights = new double[numOutput][numInput];
-
-        //so each input neuron will have numOutput amount of connections connecting to neurons in the hidden layer
-
-        //System.out.println("aa " + numInput + " " + numOutput);
-
-        //rows
-        for (int i = 0; i < numOutput; i++) {
-            //columns
-            for (int a = 0; a < numInput; a++) {
-                //System.out.println(i + " " + a);
-                weights[i][a] = neurons[a].getWeights()[i];
-            }
-        }
-
-        return weights;
+        return parameterStore.toMatrix();
     }
 
     @Override
     public final void setWeights(final double[][] weights) {
-        for (int i = 0; i < neurons.length; i++) {
-            //columns
-            for (int a = 0; a < neurons[i].getConnections().length; a++) {
-                //System.out.println(i + " " + a);
-                neurons[i].getConnections()[a].setWeight(weights[a][i]);
-            }
-        }
+        parameterStore.fromMatrix(weights);
     }
 
     @Override
     public final void setBias(final double[] hiddenLayerBias) {
-        for (int i = 0; i < neurons.length; i++) {
-            neurons[i].setBias(hiddenLayerBias[i]);
-        }
+        System.arraycopy(hiddenLayerBias, 0, parameterStore.getBias(), 0, neurons.length);
     }
 }
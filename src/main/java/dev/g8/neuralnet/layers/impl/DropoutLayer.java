@@ -1,7 +1,12 @@
 package dev.g8.neuralnet.layers.impl;
 
 import dev.g8.neuralnet.components.Neuron;
+import dev.g8.neuralnet.components.ParameterStore;
 import dev.g8.neuralnet.layers.api.AbstractLayer;
+import dev.g8.neuralnet.layers.api.Mode;
+
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * basically a dropout layer is a regularization technique that just sets the output of some neurons to 0 (drops them out)
@@ -24,9 +29,7 @@ public class DropoutLayer extends AbstractLayer {
 
     private final double dropoutRate, invertedRate;
 
-    private final int[] droppedOutNeurons;
-
-    private double[] output, outputErrors;
+    private final int size;
 
     private AbstractLayer prevLayer, nextLayer;
 
@@ -35,54 +38,106 @@ public class DropoutLayer extends AbstractLayer {
 
         this.invertedRate = 1.0 / (1.0 - dropoutRate);
 
-        droppedOutNeurons = new int[numPrevLayerNodes];
+        this.size = numPrevLayerNodes;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * only for predictions, there is no random to draw a mask from so training has to use
+     * {@link #computeForward(double[], byte[], double[], int, Random)}
+     * @throws IllegalStateException in training mode
+     */
     @Override
-    public final void computeForward(double[] prevInput, double[][] weights) {
+    public final void computeForward(final double[] prevInput, final double[] output, final ParameterStore weights, final int batchSize) {
+        checkPrediction();
+
+        //all neurons are active
+        System.arraycopy(prevInput, 0, output, 0, batchSize * size);
+    }
+
+    @Override
+    public final void computeForward(final double[] input, final double[] preActivation, final double[] output, final ParameterStore weights, final int batchSize, final Random random) {
+        //no weighted sums here, and nothing to keep the mask in
+        computeForward(input, null, output, batchSize, random);
+    }
+
+    /**
+     * forward pass for a batch that keeps the mask for {@link #computeBackprop(double[], byte[], double[], int)}
+     * <p>
+     * the mask comes from random so a seeded run drops the same neurons every time
+     * @param input - shape of [batchSize][size]
+     * @param mask - shape of [batchSize][size], written to, 1 for kept neurons and 0 for dropped ones, null if it isn't needed
+     * @param output - shape of [batchSize][size], written to
+     * @param batchSize
+     * @param random
+     */
+    public final void computeForward(final double[] input, final byte[] mask, final double[] output, final int batchSize, final Random random) {
+        final int length = batchSize * size;
+
         switch (mode) {
             case TRAINING -> {
-                //select random neurons to drop out
-                for (int i = 0; i < prevInput.length; i++) {
-                    if (Math.random() < dropoutRate) {
-                        prevInput[i] = 0;
+                for (int i = 0; i < length; i++) {
+                    final boolean dropped = random.nextDouble() < dropoutRate;
 
-                        droppedOutNeurons[i] = 0;
-                    } else {
-                        prevInput[i] *= invertedRate;
+                    output[i] = dropped ? 0 : input[i] * invertedRate;
 
-                        droppedOutNeurons[i] = 1;
-                    }
+                    if (mask != null)
+                        mask[i] = (byte) (dropped ? 0 : 1);
                 }
-
-                output = prevInput;
             }
             case PREDICTION -> {
-                //set all neurons to be active
-                for (int i = 0; i < prevInput.length; i++)
-                    droppedOutNeurons[i] = 1;
+                System.arraycopy(input, 0, output, 0, length);
 
-                output = prevInput;
+                if (mask != null)
+                    Arrays.fill(mask, 0, length, (byte) 1);
             }
         }
     }
 
-    public final void computeBackprop(final double[] prevOutputErrors) {
-        final double[] outputErrors = new double[prevOutputErrors.length];
+    /**
+     * {@inheritDoc}
+     * <p>
+     * only for predictions, same as {@link #computeForward(double[], double[], ParameterStore, int)}
+     * @throws IllegalStateException in training mode
+     */
+    @Override
+    public final void computeForward(final float[] prevInput, final float[] output, final float[] weights, final float[] bias, final int batchSize) {
+        checkPrediction();
 
-        for (int i = 0; i < prevOutputErrors.length; i++) {
-            if (droppedOutNeurons[i] == 1)
-                outputErrors[i] = prevOutputErrors[i] * invertedRate;
-            else
-                outputErrors[i] = 0;
-        }
+        System.arraycopy(prevInput, 0, output, 0, batchSize * size);
+    }
 
-        this.outputErrors = outputErrors;
+    private void checkPrediction() {
+        if (mode == Mode.TRAINING)
+            throw new IllegalStateException("dropout needs a seeded random and a mask to train, use computeForward(input, mask, output, batchSize, random)");
     }
 
     @Override
-    public final double[] getOutput() {
-        return this.output;
+    public final int getSize() {
+        return size;
+    }
+
+    /**
+     * get the fraction of neurons dropped during training
+     * @return
+     */
+    public final double getDropoutRate() {
+        return dropoutRate;
+    }
+
+    /**
+     * compute the errors with respect to the input of this layer for a batch
+     * @param outputErrors - errors with respect to the output of this layer, shape of [batchSize][size]
+     * @param mask - mask written by {@link #computeForward(double[], byte[], double[], int, Random)} for the same batch
+     * @param inputErrors - shape of [batchSize][size], written to
+     * @param batchSize
+     */
+    public final void computeBackprop(final double[] outputErrors, final byte[] mask, final double[] inputErrors, final int batchSize) {
+        final int length = batchSize * size;
+
+        for (int i = 0; i < length; i++)
+            inputErrors[i] = mask[i] == 0 ? 0 : outputErrors[i] * invertedRate;
     }
 
     @Override
@@ -91,8 +146,9 @@ public class DropoutLayer extends AbstractLayer {
     }
 
     @Override
-    public final double[] getOutputErrors() {
-        return outputErrors;
+    public final ParameterStore getParameterStore() {
+        //dropout layer has no parameters of its own so use the ones of the previous layer
+        return prevLayer.getParameterStore();
     }
 
     @Override
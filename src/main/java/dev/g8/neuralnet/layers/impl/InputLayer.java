@@ -1,9 +1,12 @@
 package dev.g8.neuralnet.layers.impl;
 
 import dev.g8.neuralnet.components.Neuron;
+import dev.g8.neuralnet.components.ParameterStore;
 import dev.g8.neuralnet.initializations.WeightInitialization;
 import dev.g8.neuralnet.layers.api.AbstractLayer;
 
+import java.util.Random;
+
 /**
  * @author G8LOL
  * @since 4/5/2023
@@ -12,6 +15,10 @@ public final class InputLayer extends AbstractLayer {
 
     private final Neuron[] neurons;
 
+    private final ParameterStore parameterStore;
+
+    private final WeightInitialization weightInitialization;
+
     private final int numInput, numOutput;
 
     private AbstractLayer prevLayer, nextLayer;
@@ -25,84 +32,71 @@ public final class InputLayer extends AbstractLayer {
         this.numInput = numInput;
         this.numOutput = numOutput;
 
+        this.weightInitialization = weightInitialization;
+        this.parameterStore = new ParameterStore(numInput, numOutput, weightInitialization);
+
         this.neurons = new Neuron[numInput];
 
         for (int i = 0; i < numInput; i++) {
-            final Neuron neuron = new Neuron(numInput, numOutput, weightInitialization, true);
+            final Neuron neuron = new Neuron(parameterStore, i, true);
 
             neurons[i] = neuron;
         }
     }
 
-    @Override
-    public final void computeForward(final double[] input, final double[][] weights) {
-        int index = 0;
+    /**
+     * get the weight initialization the parameters of this layer were created with
+     * @return
+     */
+    public final WeightInitialization getWeightInitialization() {
+        return weightInitialization;
+    }
 
-        for (final Neuron neuron : neurons) {
-            neuron.setInput(input[index]);
+    @Override
+    public final void computeForward(final double[] input, final double[] output, final ParameterStore weights, final int batchSize) {
+        System.arraycopy(input, 0, output, 0, batchSize * neurons.length);
+    }
 
-            index++;
-        }
+    @Override
+    public final void computeForward(final double[] input, final double[] preActivation, final double[] output, final ParameterStore weights, final int batchSize, final Random random) {
+        //no weighted sums here
+        computeForward(input, output, weights, batchSize);
     }
 
     @Override
-    public final double[] getOutput() {
-        final double[] output = new double[neurons.length];
+    public final void computeForward(final float[] input, final float[] output, final float[] weights, final float[] bias, final int batchSize) {
+        System.arraycopy(input, 0, output, 0, batchSize * neurons.length);
+    }
 
-        for (int i = 0; i < neurons.length; i++) {
-            output[i] = neurons[i].getOutput();
-        }
+    @Override
+    public final int getSize() {
+        return neurons.length;
+    }
 
-        return output;
+    @Override
+    public final ParameterStore getParameterStore() {
+        return parameterStore;
     }
 
     @Override
     public final double[][] getWeights() {
-        final double[][] weights = new double[numOutput][numInput];
-
         //so each input neuron will have numOutput amount of connections connecting to neurons in the hidden layer
-
-        //rows
-        for (int i = 0; i < numOutput; i++) {
-            //columns
-            for (int a = 0; a < numInput; a++) {
-                //System.out.println(i + " " + a);
-                weights[i][a] = neurons[a].getWeights()[i];
-            }
-        }
-
-        return weights;
+        return parameterStore.toMatrix();
     }
 
     @Override
     public final void setWeights(final double[][] weights) {
-        for (int i = 0; i < neurons.length; i++) {
-            //columns
-            for (int a = 0; a < neurons[i].getConnections().length; a++) {
-                //System.out.println(i + " " + a);
-                neurons[i].getConnections()[a].setWeight(weights[a][i]);
-
-                //weights[i][a] = neurons[a].getWeights()[i];
-            }
-        }
+        parameterStore.fromMatrix(weights);
     }
 
     @Override
     public final void setBias(final double[] outputLayerBias) {
-        for (int i = 0; i < neurons.length; i++) {
-            neurons[i].setBias(outputLayerBias[i]);
-        }
+        System.arraycopy(outputLayerBias, 0, parameterStore.getBias(), 0, neurons.length);
     }
 
     @Override
     public final double[] getBias() {
-        final double[] bias = new double[neurons.length];
-
-        for (int i = 0; i < neurons.length; i++) {
-            bias[i] = neurons[i].getBias();
-        }
-
-        return bias;
+        return parameterStore.getBias().clone();
     }
 
     @Override
@@ -1,10 +1,14 @@
 package dev.g8.neuralnet.layers.impl;
 
 import dev.g8.neuralnet.components.Neuron;
+import dev.g8.neuralnet.components.ParameterStore;
 import dev.g8.neuralnet.functions.activation.ActivationFunction;
 import dev.g8.neuralnet.functions.loss.LossFunction;
 import dev.g8.neuralnet.initializations.WeightInitialization;
 import dev.g8.neuralnet.layers.api.AbstractLayer;
+import dev.g8.neuralnet.math.Gemm;
+
+import java.util.Random;
 
 /**
  * @author G8LOL
@@ -17,7 +21,9 @@ public final class OutputLayer extends AbstractLayer {
 
     private final Neuron[] neurons;
 
-    private double[] output, outputErrors;
+    private final ParameterStore parameterStore;
+
+    private final WeightInitialization weightInitialization;
 
     private AbstractLayer prevLayer, nextLayer;
 
@@ -30,10 +36,13 @@ public final class OutputLayer extends AbstractLayer {
         this.activationFunction = activationFunction;
         this.lossFunction = lossFunction;
 
+        this.weightInitialization = weightInitialization;
+        this.parameterStore = new ParameterStore(numInput, numOutput, weightInitialization);
+
         this.neurons = new Neuron[numInput];
 
         for (int i = 0; i < numInput; i++) {
-            final Neuron neuron = new Neuron(numInput, numOutput, weightInitialization, false);
+            final Neuron neuron = new Neuron(parameterStore, i, false);
 
             neurons[i] = neuron;
         }
@@ -47,50 +56,131 @@ public final class OutputLayer extends AbstractLayer {
         return activationFunction;
     }
 
+    /**
+     * get the loss function used by this layer
+     * @return
+     */
+    public final LossFunction getLossFunction() {
+        return lossFunction;
+    }
+
+    /**
+     * get the weight initialization the parameters of this layer were created with
+     * @return
+     */
+    public final WeightInitialization getWeightInitialization() {
+        return weightInitialization;
+    }
+
     @Override
-    public final void computeForward(final double[] prevInput, final double[][] weights) {
-        //first find the weighted sum
-        //weighted_sum = (input_1 * weight_1) + (input_2 * weight_2) + ... + (input_n * weight_n)
+    public final void computeForward(final double[] prevInput, final double[] output, final ParameterStore weights, final int batchSize) {
+        //weighted sums are not needed so work them out in the output buffer
+        computeForward(prevInput, output, output, weights, batchSize, null);
+    }
 
-        //weights shape = input layer input neurons x hidden layer neuron count
-        //eg 2 x 4
+    @Override
+    public final void computeForward(final double[] prevInput, final double[] preActivation, final double[] output, final ParameterStore weights, final int batchSize, final Random random) {
+        //preActivation = prevInput * weights^T + bias
+        //weights are [numOutput][numInput] of the previous layer so each output is a dot product of two contiguous rows
+        final double[] bias = parameterStore.getBias();
 
-        final double[] outputs = new double[neurons.length];
+        final int size = neurons.length;
 
-        for (int i = 0; i < neurons.length; i++) {
-            outputs[i] = neurons[i].computeFeedforward(prevInput, weights[i], activationFunction);
+        Gemm.multiplyTransposed(prevInput, weights.getWeights(), preActivation, batchSize, size, weights.getColumns());
+
+        for (int b = 0; b < batchSize; b++) {
+            final int outputOffset = b * size;
+
+            for (int i = 0; i < size; i++) {
+                preActivation[outputOffset + i] += bias[i];
+            }
         }
 
-        this.output = outputs;
+        //apply the activation function to the whole batch at once
+        if (fastMath)
+            activationFunction.activateApproximate(preActivation, output, 0, batchSize * size);
+        else
+            activationFunction.activate(preActivation, output, 0, batchSize * size);
+    }
+
+    @Override
+    public final void computeForward(final float[] prevInput, final float[] output, final float[] weights, final float[] bias, final int batchSize) {
+        final int size = neurons.length;
+
+        Gemm.multiplyTransposed(prevInput, weights, output, batchSize, size, weights.length / size);
+
+        for (int b = 0; b < batchSize; b++) {
+            final int outputOffset = b * size;
+
+            for (int i = 0; i < size; i++) {
+                output[outputOffset + i] += bias[i];
+            }
+        }
+
+        //activate the weighted sums in place, same as the double version
+        if (fastMath)
+            activationFunction.activateApproximate(output, output, 0, batchSize * size);
+        else
+            activationFunction.activate(output, output, 0, batchSize * size);
     }
 
     /**
-     * compute the backpropagation for the output layer
-     * @param predicted
-     * @param desired
-     * @return
+     * compute the backpropagation for the output layer for a batch
+     * @param preActivation - weighted sums from the forward pass, shape of [batchSize][size]
+     * @param predicted - shape of [batchSize][size]
+     * @param desired - shape of [batchSize][size]
+     * @param lossErrors - derivative of the loss function, shape of [batchSize][size], written to
+     * @param outputErrors - shape of [batchSize][size], written to
+     * @param batchSize
      */
-    public final double[] computeBackprop(final double[] predicted, final double[] desired) {
-        /*
-         * this calculates the delta/error for each output neuron
-         *
-         * the calculateDerivative() method uses the chain rule to compute
-         * the derivative of the loss function with respect to the predicted output.
-         */
+    public final void computeBackprop(final double[] preActivation, final double[] predicted, final double[] desired, final double[] lossErrors, final double[] outputErrors, final int batchSize) {
+        final int length = batchSize * neurons.length;
 
-        final double[] outputErrors = new double[neurons.length];
+        lossFunction.calculateBatchDerivative(desired, predicted, lossErrors, batchSize, neurons.length);
 
-        final double[] errors = lossFunction.calculateDerivative(desired, predicted);
+        activationFunction.derivative(preActivation, predicted, outputErrors, 0, length);
 
-        for (int i = 0; i < neurons.length; i++) {
-            final double error = errors[i];
+        for (int i = 0; i < length; i++) {
+            outputErrors[i] *= lossErrors[i];
+        }
+    }
+
+    /**
+     * add the gradients of a batch to the gradient buffers
+     * <p>
+     * weight gradients are in the shape of the previous layer's weights [numOutput][numInput] and are errors^T * prevLayerOut
+     * bias gradients are in the shape of this layer's bias and are the sum of the errors over the batch
+     * @param prevLayerOut - shape of [batchSize][size of previous layer]
+     * @param outputErrors - shape of [batchSize][size]
+     * @param batchSize
+     * @param weightGradients
+     * @param biasGradients
+     */
+    public final void accumulateGradients(final double[] prevLayerOut, final double[] outputErrors, final int batchSize, final double[] weightGradients, final double[] biasGradients) {
+        final int columns = prevLayer.getParameterStore().getColumns();
+        final int size = neurons.length;
 
-            outputErrors[i] = error * activationFunction.calculateDerivative(predicted[i]);
+        Gemm.transposeMultiplyAdd(outputErrors, prevLayerOut, weightGradients, size, columns, batchSize);
+
+        for (int b = 0; b < batchSize; b++) {
+            final int errorOffset = b * size;
+
+            for (int j = 0; j < size; j++) {
+                biasGradients[j] += outputErrors[errorOffset + j];
+            }
         }
+    }
 
-        this.outputErrors = outputErrors;
+    /**
+     * compute the errors with respect to the output of the previous layer for a batch (errors * weights)
+     * @param outputErrors - shape of [batchSize][size]
+     * @param inputErrors - shape of [batchSize][size of previous layer], written to
+     * @param batchSize
+     */
+    public final void computeInputErrors(final double[] outputErrors, final double[] inputErrors, final int batchSize) {
+        final ParameterStore prevParameters = prevLayer.getParameterStore();
 
-        return outputErrors;
+        Gemm.multiply(outputErrors, prevParameters.getWeights(), inputErrors, batchSize, prevParameters.getColumns(), neurons.length);
     }
 
     /**
@@ -101,16 +191,10 @@ public final class OutputLayer extends AbstractLayer {
      * @param learningRate
      */
     public final void updateWeights(final AbstractLayer abstractLayer, final double[] outputErrors, final double[] hiddenLayerOut, final double learningRate) {
-        final double[][] outputWeights = prevLayer.getWeights();
+        //update in place, weights shape is numOutput x numInput of the previous layer
+        final ParameterStore prevParameters = prevLayer.getParameterStore();
 
-        //shape is numOutput x numInput because we are going backwards
-        for (int i = 0; i < abstractLayer.getNeurons().length; i++) {
-            for (int j = 0; j < neurons.length; j++) {
-                outputWeights[j][i] += learningRate * outputErrors[j] * hiddenLayerOut[i];
-            }
-        }
-
-        prevLayer.setWeights(outputWeights);
+        Gemm.addOuterProduct(learningRate, outputErrors, hiddenLayerOut, prevParameters.getWeights(), neurons.length, prevParameters.getColumns());
     }
 
     /**
@@ -119,34 +203,26 @@ public final class OutputLayer extends AbstractLayer {
      * @param learningRate
      */
     public final void updateBiases(final double[] outputErrors, final double learningRate) {
-        final double[] outputBias = getBias();
+        final double[] outputBias = parameterStore.getBias();
 
         for (int i = 0; i < neurons.length; i++) {
             outputBias[i] += learningRate * outputErrors[i];
         }
-
-        setBias(outputBias);
     }
 
     @Override
-    public final double[] getOutput() {
-        return this.output;
+    public final int getSize() {
+        return neurons.length;
     }
 
     @Override
-    public final double[] getOutputErrors() {
-        return this.outputErrors;
+    public final double[] getBias() {
+        return parameterStore.getBias().clone();
     }
 
     @Override
-    public final double[] getBias() {
-        final double[] bias = new double[neurons.length];
-
-        for (int i = 0; i < neurons.length; i++) {
-            bias[i] = neurons[i].getBias();
-        }
-
-        return bias;
+    public final ParameterStore getParameterStore() {
+        return parameterStore;
     }
 
     @Override
@@ -176,36 +252,16 @@ public final class OutputLayer extends AbstractLayer {
 
     @Override
     public final double[][] getWeights() {
-        final double[][] weights = new double[numOutput][numInput];
-
-        for (int i = 0; i < numOutput; i++) {
-            //columns
-            for (int a = 0; a < numInput; a++) {
-                //System.out.println(i + " " + a);
-                weights[i][a] = neurons[a].getWeights()[i];
-            }
-        }
-
-        return weights;
+        return parameterStore.toMatrix();
     }
 
     @Override
     public final void setWeights(final double[][] weights) {
-        for (int i = 0; i < neurons.length; i++) {
-            //columns
-            for (int a = 0; a < neurons[i].getConnections().length; a++) {
-                //System.out.println(i + " " + a);
-                neurons[i].getConnections()[a].setWeight(weights[a][i]);
-
-                //weights[i][a] = neurons[a].getWeights()[i];
-            }
-        }
+        parameterStore.fromMatrix(weights);
     }
 
     @Override
     public final void setBias(final double[] outputLayerBias) {
-        for (int i = 0; i < neurons.length; i++) {
-            neurons[i].setBias(outputLayerBias[i]);
-        }
+        System.arraycopy(outputLayerBias, 0, parameterStore.getBias(), 0, neurons.length);
     }
-}
\ No newline at end of file
+}
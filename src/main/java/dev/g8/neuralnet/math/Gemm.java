@@ -0,0 +1,579 @@
+package dev.g8.neuralnet.math;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * matrix products used by all the dense layers
+ * <p>
+ * all matrices are row-major double arrays starting at index 0, weights can also be read straight from a buffer
+ * of little-endian doubles (e.g. a memory-mapped model file) or be a {@link SparseMatrix} (e.g. after pruning)
+ * <p>
+ * products are tiled so the block of the right hand matrix being used stays in cache, the innermost loops
+ * are the {@link Kernels} dot4/axpy micro kernels (4 rows of the output at a time for the forward product)
+ * <p>
+ * big products (including the matrix-vector products of single samples, so one wide layer can use every core) are
+ * split into tiles of the output matrix and run on a {@link ForkJoinPool}, tiles never overlap so no locking is needed
+ *
+ * @author G8LOL
+ * @since 4/15/2023
+ */
+public final class Gemm {
+
+    /**
+     * rows of the right hand matrix per tile for C = A * B^T (rows * k doubles should fit in L2)
+     */
+    private static final int ROW_BLOCK = 64;
+
+    /**
+     * columns per tile for C = A * B and C += A^T * B
+     */
+    private static final int COLUMN_BLOCK = 512;
+
+    /**
+     * products with fewer multiply-adds than this are not split across threads,
+     * can be set with -Dneuralnet.parallelThreshold or {@link #setParallelThreshold(long)}
+     */
+    private static volatile long parallelThreshold = Long.getLong("neuralnet.parallelThreshold", 1 << 18);
+
+    private static final Kernels KERNELS = Kernels.get();
+
+    /**
+     * pool big products are split across, can be set with {@link #setPool(ForkJoinPool)}
+     */
+    private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private Gemm() {
+    }
+
+    /**
+     * set the pool big products are split across, products that already started finish on the old one
+     * @param pool
+     */
+    public static void setPool(final ForkJoinPool pool) {
+        if (pool == null)
+            throw new IllegalArgumentException("pool must not be null");
+
+        Gemm.pool = pool;
+    }
+
+    /**
+     * get the pool big products are split across
+     * @return
+     */
+    public static ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * set the number of multiply-adds a product needs before it is split across threads
+     * <p>
+     * lower values let wide layers use more threads even for single samples, higher values keep small layers
+     * from paying for the fork/join overhead
+     * @param parallelThreshold
+     */
+    public static void setParallelThreshold(final long parallelThreshold) {
+        if (parallelThreshold < 1)
+            throw new IllegalArgumentException("parallelThreshold must be at least 1: " + parallelThreshold);
+
+        Gemm.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * get the number of multiply-adds a product needs before it is split across threads
+     * @return
+     */
+    public static long getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * C[m][n] = A[m][k] * B[n][k]^T
+     * <p>
+     * used for the forward pass (inputs * weights^T)
+     * @param a
+     * @param b
+     * @param c
+     * @param m
+     * @param n
+     * @param k
+     */
+    public static void multiplyTransposed(final double[] a, final double[] b, final double[] c, final int m, final int n, final int k) {
+        final long work = (long) m * n * k;
+
+        if (isSerial(work)) {
+            multiplyTransposed(a, b, c, n, k, 0, m, 0, n);
+            return;
+        }
+
+        run(m, n, work, (rowStart, rowEnd, columnStart, columnEnd) -> multiplyTransposed(a, b, c, n, k, rowStart, rowEnd, columnStart, columnEnd));
+    }
+
+    /**
+     * float version of {@link #multiplyTransposed(double[], double[], double[], int, int, int)}
+     * @param a
+     * @param b
+     * @param c
+     * @param m
+     * @param n
+     * @param k
+     */
+    public static void multiplyTransposed(final float[] a, final float[] b, final float[] c, final int m, final int n, final int k) {
+        final long work = (long) m * n * k;
+
+        if (isSerial(work)) {
+            multiplyTransposed(a, b, c, n, k, 0, m, 0, n);
+            return;
+        }
+
+        run(m, n, work, (rowStart, rowEnd, columnStart, columnEnd) -> multiplyTransposed(a, b, c, n, k, rowStart, rowEnd, columnStart, columnEnd));
+    }
+
+    /**
+     * same as {@link #multiplyTransposed(double[], double[], double[], int, int, int)} with B read from a buffer
+     * @param a
+     * @param b - little-endian doubles starting at index 0
+     * @param c
+     * @param m
+     * @param n
+     * @param k
+     */
+    public static void multiplyTransposed(final double[] a, final ByteBuffer b, final double[] c, final int m, final int n, final int k) {
+        final long work = (long) m * n * k;
+
+        if (isSerial(work)) {
+            multiplyTransposed(a, b, c, n, k, 0, m, 0, n);
+            return;
+        }
+
+        run(m, n, work, (rowStart, rowEnd, columnStart, columnEnd) -> multiplyTransposed(a, b, c, n, k, rowStart, rowEnd, columnStart, columnEnd));
+    }
+
+    /**
+     * int8 version of {@link #multiplyTransposed(double[], double[], double[], int, int, int)} with exact int sums
+     * <p>
+     * used by quantized networks (quantized inputs * quantized weights^T)
+     * @param a
+     * @param b
+     * @param c
+     * @param m
+     * @param n
+     * @param k
+     */
+    public static void multiplyTransposed(final byte[] a, final byte[] b, final int[] c, final int m, final int n, final int k) {
+        final long work = (long) m * n * k;
+
+        if (isSerial(work)) {
+            multiplyTransposed(a, b, c, n, k, 0, m, 0, n);
+            return;
+        }
+
+        run(m, n, work, (rowStart, rowEnd, columnStart, columnEnd) -> multiplyTransposed(a, b, c, n, k, rowStart, rowEnd, columnStart, columnEnd));
+    }
+
+    /**
+     * same as {@link #multiplyTransposed(double[], double[], double[], int, int, int)} with a sparse B,
+     * n and k are the rows and columns of B
+     * @param a
+     * @param b
+     * @param c
+     * @param m
+     */
+    public static void multiplyTransposed(final double[] a, final SparseMatrix b, final double[] c, final int m) {
+        //only the stored values cost anything
+        final long work = (long) m * b.getNonZeros();
+
+        if (isSerial(work)) {
+            multiplyTransposed(a, b, c, 0, m, 0, b.getRows());
+            return;
+        }
+
+        run(m, b.getRows(), work, (rowStart, rowEnd, columnStart, columnEnd) -> multiplyTransposed(a, b, c, rowStart, rowEnd, columnStart, columnEnd));
+    }
+
+    /**
+     * C[m][n] = A[m][k] * B[k][n]
+     * <p>
+     * used to pass the errors down a layer (errors * weights)
+     * @param a
+     * @param b
+     * @param c
+     * @param m
+     * @param n
+     * @param k
+     */
+    public static void multiply(final double[] a, final double[] b, final double[] c, final int m, final int n, final int k) {
+        final long work = (long) m * n * k;
+
+        if (isSerial(work)) {
+            multiply(a, b, c, n, k, 0, m, 0, n);
+            return;
+        }
+
+        run(m, n, work, (rowStart, rowEnd, columnStart, columnEnd) -> multiply(a, b, c, n, k, rowStart, rowEnd, columnStart, columnEnd));
+    }
+
+    /**
+     * C[m][n] += A[k][m]^T * B[k][n]
+     * <p>
+     * used to add up the weight gradients of a batch (errors^T * inputs)
+     * @param a
+     * @param b
+     * @param c
+     * @param m
+     * @param n
+     * @param k
+     */
+    public static void transposeMultiplyAdd(final double[] a, final double[] b, final double[] c, final int m, final int n, final int k) {
+        final long work = (long) m * n * k;
+
+        if (isSerial(work)) {
+            transposeMultiplyAdd(a, b, c, m, n, k, 0, m, 0, n);
+            return;
+        }
+
+        run(m, n, work, (rowStart, rowEnd, columnStart, columnEnd) -> transposeMultiplyAdd(a, b, c, m, n, k, rowStart, rowEnd, columnStart, columnEnd));
+    }
+
+    /**
+     * y[m] = A[m][n] * x[n]
+     * @param a
+     * @param x
+     * @param y
+     * @param m
+     * @param n
+     */
+    public static void multiplyVector(final double[] a, final double[] x, final double[] y, final int m, final int n) {
+        final long work = (long) m * n;
+
+        if (isSerial(work)) {
+            multiplyVector(a, x, y, n, 0, m);
+            return;
+        }
+
+        //each task gets a block of rows (output neurons)
+        run(m, 1, work, (rowStart, rowEnd, columnStart, columnEnd) -> multiplyVector(a, x, y, n, rowStart, rowEnd));
+    }
+
+    /**
+     * same as {@link #multiplyVector(double[], double[], double[], int, int)} with A read from a buffer
+     * @param a - little-endian doubles starting at index 0
+     * @param x
+     * @param y
+     * @param m
+     * @param n
+     */
+    public static void multiplyVector(final ByteBuffer a, final double[] x, final double[] y, final int m, final int n) {
+        final long work = (long) m * n;
+
+        if (isSerial(work)) {
+            multiplyVector(a, x, y, n, 0, m);
+            return;
+        }
+
+        run(m, 1, work, (rowStart, rowEnd, columnStart, columnEnd) -> multiplyVector(a, x, y, n, rowStart, rowEnd));
+    }
+
+    /**
+     * same as {@link #multiplyVector(double[], double[], double[], int, int)} with a sparse A
+     * @param a
+     * @param x
+     * @param y
+     */
+    public static void multiplyVector(final SparseMatrix a, final double[] x, final double[] y) {
+        final long work = a.getNonZeros();
+
+        if (isSerial(work)) {
+            multiplyTransposed(x, a, y, 0, 1, 0, a.getRows());
+            return;
+        }
+
+        run(a.getRows(), 1, work, (rowStart, rowEnd, columnStart, columnEnd) -> multiplyTransposed(x, a, y, 0, 1, rowStart, rowEnd));
+    }
+
+    /**
+     * y[n] = A[m][n]^T * x[m]
+     * @param a
+     * @param x
+     * @param y
+     * @param m
+     * @param n
+     */
+    public static void transposeMultiplyVector(final double[] a, final double[] x, final double[] y, final int m, final int n) {
+        final long work = (long) m * n;
+
+        if (isSerial(work)) {
+            transposeMultiplyVector(a, x, y, m, n, 0, n);
+            return;
+        }
+
+        //each task gets a block of y
+        run(1, n, work, (rowStart, rowEnd, columnStart, columnEnd) -> transposeMultiplyVector(a, x, y, m, n, columnStart, columnEnd));
+    }
+
+    /**
+     * A[m][n] += alpha * x[m] * y[n]^T
+     * <p>
+     * used for single sample weight updates
+     * @param alpha
+     * @param x
+     * @param y
+     * @param a
+     * @param m
+     * @param n
+     */
+    public static void addOuterProduct(final double alpha, final double[] x, final double[] y, final double[] a, final int m, final int n) {
+        final long work = (long) m * n;
+
+        if (isSerial(work)) {
+            addOuterProduct(alpha, x, y, a, n, 0, m, 0, n);
+            return;
+        }
+
+        run(m, n, work, (rowStart, rowEnd, columnStart, columnEnd) -> addOuterProduct(alpha, x, y, a, n, rowStart, rowEnd, columnStart, columnEnd));
+    }
+
+    /**
+     * tile [rowStart, rowEnd) x [columnStart, columnEnd) of C = A * B^T
+     */
+    private static void multiplyTransposed(final double[] a, final double[] b, final double[] c, final int n, final int k,
+                                           final int rowStart, final int rowEnd, final int columnStart, final int columnEnd) {
+        //block over the rows of b, each block is used for every row of a before moving on
+        for (int block = columnStart; block < columnEnd; block += ROW_BLOCK) {
+            final int end = Math.min(block + ROW_BLOCK, columnEnd);
+
+            int i = rowStart;
+
+            for (; i + 4 <= rowEnd; i += 4) {
+                for (int j = block; j < end; j++)
+                    KERNELS.dot4(a, i * k, k, b, j * k, k, c, i * n + j, n);
+            }
+
+            //leftover rows
+            for (; i < rowEnd; i++) {
+                for (int j = block; j < end; j++)
+                    c[i * n + j] = KERNELS.dot(a, i * k, b, j * k, k);
+            }
+        }
+    }
+
+    private static void multiplyTransposed(final byte[] a, final byte[] b, final int[] c, final int n, final int k,
+                                           final int rowStart, final int rowEnd, final int columnStart, final int columnEnd) {
+        for (int block = columnStart; block < columnEnd; block += ROW_BLOCK) {
+            final int end = Math.min(block + ROW_BLOCK, columnEnd);
+
+            int i = rowStart;
+
+            for (; i + 4 <= rowEnd; i += 4) {
+                for (int j = block; j < end; j++)
+                    KERNELS.dot4(a, i * k, k, b, j * k, k, c, i * n + j, n);
+            }
+
+            //leftover rows
+            for (; i < rowEnd; i++) {
+                for (int j = block; j < end; j++)
+                    c[i * n + j] = KERNELS.dot(a, i * k, b, j * k, k);
+            }
+        }
+    }
+
+    /**
+     * tile of C = A * B^T with a sparse B, the indices of a row of B are read once for every row of A in the tile
+     */
+    private static void multiplyTransposed(final double[] a, final SparseMatrix b, final double[] c,
+                                           final int rowStart, final int rowEnd, final int columnStart, final int columnEnd) {
+        final int n = b.getRows(), k = b.getColumns();
+
+        for (int j = columnStart; j < columnEnd; j++) {
+            int i = rowStart;
+
+            for (; i + 4 <= rowEnd; i += 4)
+                b.dotRow4(j, a, i * k, k, c, i * n + j, n);
+
+            //leftover rows
+            for (; i < rowEnd; i++)
+                c[i * n + j] = b.dotRow(j, a, i * k);
+        }
+    }
+
+    /**
+     * tile of C = A * B^T with B in a buffer, a row of B is read once for every row of A in the tile
+     */
+    private static void multiplyTransposed(final double[] a, final ByteBuffer b, final double[] c, final int n, final int k,
+                                           final int rowStart, final int rowEnd, final int columnStart, final int columnEnd) {
+        for (int j = columnStart; j < columnEnd; j++) {
+            for (int i = rowStart; i < rowEnd; i++)
+                c[i * n + j] = KERNELS.dot(b, j * k, a, i * k, k);
+        }
+    }
+
+    private static void multiplyTransposed(final float[] a, final float[] b, final float[] c, final int n, final int k,
+                                           final int rowStart, final int rowEnd, final int columnStart, final int columnEnd) {
+        for (int block = columnStart; block < columnEnd; block += ROW_BLOCK) {
+            final int end = Math.min(block + ROW_BLOCK, columnEnd);
+
+            int i = rowStart;
+
+            for (; i + 4 <= rowEnd; i += 4) {
+                for (int j = block; j < end; j++)
+                    KERNELS.dot4(a, i * k, k, b, j * k, k, c, i * n + j, n);
+            }
+
+            //leftover rows
+            for (; i < rowEnd; i++) {
+                for (int j = block; j < end; j++)
+                    c[i * n + j] = KERNELS.dot(a, i * k, b, j * k, k);
+            }
+        }
+    }
+
+    /**
+     * tile [rowStart, rowEnd) x [columnStart, columnEnd) of C = A * B
+     */
+    private static void multiply(final double[] a, final double[] b, final double[] c, final int n, final int k,
+                                 final int rowStart, final int rowEnd, final int columnStart, final int columnEnd) {
+        for (int i = rowStart; i < rowEnd; i++) {
+            for (int j = columnStart; j < columnEnd; j++)
+                c[i * n + j] = 0;
+        }
+
+        for (int block = columnStart; block < columnEnd; block += COLUMN_BLOCK) {
+            final int length = Math.min(COLUMN_BLOCK, columnEnd - block);
+
+            for (int i = rowStart; i < rowEnd; i++) {
+                for (int p = 0; p < k; p++)
+                    KERNELS.axpy(a[i * k + p], b, p * n + block, c, i * n + block, length);
+            }
+        }
+    }
+
+    /**
+     * tile [rowStart, rowEnd) x [columnStart, columnEnd) of C += A^T * B
+     */
+    private static void transposeMultiplyAdd(final double[] a, final double[] b, final double[] c, final int m, final int n, final int k,
+                                             final int rowStart, final int rowEnd, final int columnStart, final int columnEnd) {
+        for (int block = columnStart; block < columnEnd; block += COLUMN_BLOCK) {
+            final int length = Math.min(COLUMN_BLOCK, columnEnd - block);
+
+            for (int p = 0; p < k; p++) {
+                for (int i = rowStart; i < rowEnd; i++)
+                    KERNELS.axpy(a[p * m + i], b, p * n + block, c, i * n + block, length);
+            }
+        }
+    }
+
+    /**
+     * rows [rowStart, rowEnd) of y = A * x
+     */
+    private static void multiplyVector(final double[] a, final double[] x, final double[] y, final int n, final int rowStart, final int rowEnd) {
+        for (int i = rowStart; i < rowEnd; i++)
+            y[i] = KERNELS.dot(a, i * n, x, 0, n);
+    }
+
+    private static void multiplyVector(final ByteBuffer a, final double[] x, final double[] y, final int n, final int rowStart, final int rowEnd) {
+        for (int i = rowStart; i < rowEnd; i++)
+            y[i] = KERNELS.dot(a, i * n, x, 0, n);
+    }
+
+    /**
+     * entries [columnStart, columnEnd) of y = A^T * x
+     */
+    private static void transposeMultiplyVector(final double[] a, final double[] x, final double[] y, final int m, final int n,
+                                                final int columnStart, final int columnEnd) {
+        for (int j = columnStart; j < columnEnd; j++)
+            y[j] = 0;
+
+        //row by row so memory is read in order
+        for (int i = 0; i < m; i++)
+            KERNELS.axpy(x[i], a, i * n + columnStart, y, columnStart, columnEnd - columnStart);
+    }
+
+    /**
+     * tile [rowStart, rowEnd) x [columnStart, columnEnd) of A += alpha * x * y^T
+     */
+    private static void addOuterProduct(final double alpha, final double[] x, final double[] y, final double[] a, final int n,
+                                        final int rowStart, final int rowEnd, final int columnStart, final int columnEnd) {
+        for (int i = rowStart; i < rowEnd; i++)
+            KERNELS.axpy(alpha * x[i], y, columnStart, a, i * n + columnStart, columnEnd - columnStart);
+    }
+
+    /**
+     * check if a product should run on the calling thread, small products are run straight away so they don't allocate
+     * @param work - number of multiply-adds
+     * @return
+     */
+    private static boolean isSerial(final long work) {
+        //threads of another pool (e.g. data-parallel training) already keep the cores busy so don't wait on this one
+        final ForkJoinPool current = ForkJoinTask.getPool();
+        final ForkJoinPool pool = Gemm.pool;
+
+        return work < parallelThreshold || pool.getParallelism() == 1 || (current != null && current != pool);
+    }
+
+    /**
+     * split the tile [0, m) x [0, n) of the output matrix across the pool
+     * @param m
+     * @param n
+     * @param work - number of multiply-adds
+     * @param tile
+     */
+    private static void run(final int m, final int n, final long work, final Tile tile) {
+        //split until every task has about as much work as the threshold
+        final long minTileSize = Math.max(1, parallelThreshold / Math.max(1, work / ((long) m * n)));
+
+        pool.invoke(new TileTask(tile, 0, m, 0, n, minTileSize));
+    }
+
+    /**
+     * part of the output matrix
+     */
+    @FunctionalInterface
+    private interface Tile {
+        void compute(final int rowStart, final int rowEnd, final int columnStart, final int columnEnd);
+    }
+
+    private static final class TileTask extends RecursiveAction {
+
+        private final Tile tile;
+
+        private final int rowStart, rowEnd, columnStart, columnEnd;
+
+        private final long minTileSize;
+
+        private TileTask(final Tile tile, final int rowStart, final int rowEnd, final int columnStart, final int columnEnd, final long minTileSize) {
+            this.tile = tile;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            this.columnStart = columnStart;
+            this.columnEnd = columnEnd;
+            this.minTileSize = minTileSize;
+        }
+
+        @Override
+        protected final void compute() {
+            final int rows = rowEnd - rowStart;
+            final int columns = columnEnd - columnStart;
+
+            if ((long) rows * columns <= minTileSize || (rows < 8 && columns < 2 * ROW_BLOCK)) {
+                tile.compute(rowStart, rowEnd, columnStart, columnEnd);
+                return;
+            }
+
+            //split the longer side, rows are kept in multiples of 4 for the micro kernel
+            if (rows >= 8 && rows * 2 >= columns) {
+                final int middle = rowStart + (rows / 2 & ~3);
+
+                invokeAll(new TileTask(tile, rowStart, middle, columnStart, columnEnd, minTileSize),
+                        new TileTask(tile, middle, rowEnd, columnStart, columnEnd, minTileSize));
+            } else {
+                final int middle = columnStart + columns / 2;
+
+                invokeAll(new TileTask(tile, rowStart, rowEnd, columnStart, middle, minTileSize),
+                        new TileTask(tile, rowStart, rowEnd, middle, columnEnd, minTileSize));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package dev.g8.neuralnet.math;
+
+import java.nio.ByteBuffer;
+
+/**
+ * low level loops used by the layers
+ * <p>
+ * the vector backend ({@link VectorKernels}) is used when the jdk.incubator.vector module is available
+ * (run with --add-modules jdk.incubator.vector), otherwise it falls back to the scalar backend ({@link ScalarKernels})
+ * <p>
+ * the backend can be forced with -Dneuralnet.kernels=scalar or -Dneuralnet.kernels=vector
+ *
+ * @author G8LOL
+ * @since 4/14/2023
+ */
+public abstract class Kernels {
+
+    private static final Kernels INSTANCE = load();
+
+    /**
+     * get the backend picked at startup
+     * @return
+     */
+    public static Kernels get() {
+        return INSTANCE;
+    }
+
+    private static Kernels load() {
+        final String backend = System.getProperty("neuralnet.kernels", "vector");
+
+        if (backend.equals("vector") && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                //loaded by name so the scalar backend still works when the module is missing
+                return (Kernels) Class.forName("dev.g8.neuralnet.math.VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("vector kernels unavailable, using scalar kernels: " + e);
+            }
+        }
+
+        return new ScalarKernels();
+    }
+
+    /**
+     * sum of x[xOffset + i] * y[yOffset + i] for i in [0, length)
+     * @param x
+     * @param xOffset
+     * @param y
+     * @param yOffset
+     * @param length
+     * @return
+     */
+    public abstract double dot(final double[] x, final int xOffset, final double[] y, final int yOffset, final int length);
+
+    /**
+     * same as {@link #dot(double[], int, double[], int, int)} but x is read from a buffer of doubles (e.g. a memory-mapped file)
+     * @param x - must be in little-endian order, only absolute reads are used so it can be shared between threads
+     * @param xOffset - in doubles, not bytes
+     * @param y
+     * @param yOffset
+     * @param length
+     * @return
+     */
+    public abstract double dot(final ByteBuffer x, final int xOffset, final double[] y, final int yOffset, final int length);
+
+    /**
+     * 4 dot products of the rows x[xOffset + k * xStride ...] with the same row of y, k in [0, 4)
+     * results are written to out[outOffset + k * outStride]
+     * @param x
+     * @param xOffset
+     * @param xStride
+     * @param y
+     * @param yOffset
+     * @param length
+     * @param out
+     * @param outOffset
+     * @param outStride
+     */
+    public abstract void dot4(final double[] x, final int xOffset, final int xStride, final double[] y, final int yOffset, final int length,
+                              final double[] out, final int outOffset, final int outStride);
+
+    /**
+     * float version of {@link #dot(double[], int, double[], int, int)}
+     */
+    public abstract float dot(final float[] x, final int xOffset, final float[] y, final int yOffset, final int length);
+
+    /**
+     * int8 version of {@link #dot(double[], int, double[], int, int)}, products are added up exactly in an int
+     * <p>
+     * values in [-127, 127] can't overflow for lengths below 2^17
+     * @param x
+     * @param xOffset
+     * @param y
+     * @param yOffset
+     * @param length
+     * @return
+     */
+    public abstract int dot(final byte[] x, final int xOffset, final byte[] y, final int yOffset, final int length);
+
+    /**
+     * int8 version of {@link #dot4(double[], int, int, double[], int, int, double[], int, int)}
+     */
+    public abstract void dot4(final byte[] x, final int xOffset, final int xStride, final byte[] y, final int yOffset, final int length,
+                              final int[] out, final int outOffset, final int outStride);
+
+    /**
+     * float version of {@link #dot4(double[], int, int, double[], int, int, double[], int, int)}
+     */
+    public abstract void dot4(final float[] x, final int xOffset, final int xStride, final float[] y, final int yOffset, final int length,
+                              final float[] out, final int outOffset, final int outStride);
+
+    /**
+     * y[yOffset + i] += alpha * x[xOffset + i] for i in [0, length)
+     * @param alpha
+     * @param x
+     * @param xOffset
+     * @param y
+     * @param yOffset
+     * @param length
+     */
+    public abstract void axpy(final double alpha, final double[] x, final int xOffset, final double[] y, final int yOffset, final int length);
+
+    /**
+     * get name of the backend
+     * @return
+     */
+    public abstract String getName();
+
+}
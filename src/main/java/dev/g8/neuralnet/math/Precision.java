@@ -0,0 +1,22 @@
+package dev.g8.neuralnet.math;
+
+/**
+ * floating point precision used by the network
+ *
+ * @author G8LOL
+ * @since 4/16/2023
+ */
+public enum Precision {
+    /**
+     * everything in double (64 bit)
+     */
+    DOUBLE,
+    /**
+     * batched forward passes run in float (32 bit) on a float copy of the weights,
+     * training still updates the double weights
+     * <p>
+     * the copy is taken at setup, after training and when {@link dev.g8.neuralnet.network.api.AbstractNetwork#weightsChanged()}
+     * is called, not on every prediction, so the weights take 1.5x the memory of double precision
+     */
+    SINGLE
+}
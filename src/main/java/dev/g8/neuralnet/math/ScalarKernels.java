@@ -0,0 +1,126 @@
+package dev.g8.neuralnet.math;
+
+import java.nio.ByteBuffer;
+
+/**
+ * plain java loops, works everywhere
+ *
+ * @author G8LOL
+ * @since 4/14/2023
+ */
+final class ScalarKernels extends Kernels {
+
+    @Override
+    public final double dot(final double[] x, final int xOffset, final double[] y, final int yOffset, final int length) {
+        double sum = 0;
+
+        for (int i = 0; i < length; i++)
+            sum += x[xOffset + i] * y[yOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public final double dot(final ByteBuffer x, final int xOffset, final double[] y, final int yOffset, final int length) {
+        double sum = 0;
+
+        //absolute reads so the buffer can be shared between threads
+        for (int i = 0; i < length; i++)
+            sum += x.getDouble((xOffset + i) << 3) * y[yOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public final void dot4(final double[] x, final int xOffset, final int xStride, final double[] y, final int yOffset, final int length,
+                           final double[] out, final int outOffset, final int outStride) {
+        //each y value is loaded once for all 4 rows and the sums don't wait on each other
+        double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+
+        for (int i = 0; i < length; i++) {
+            final double value = y[yOffset + i];
+
+            sum0 += x[xOffset + i] * value;
+            sum1 += x[xOffset + xStride + i] * value;
+            sum2 += x[xOffset + 2 * xStride + i] * value;
+            sum3 += x[xOffset + 3 * xStride + i] * value;
+        }
+
+        out[outOffset] = sum0;
+        out[outOffset + outStride] = sum1;
+        out[outOffset + 2 * outStride] = sum2;
+        out[outOffset + 3 * outStride] = sum3;
+    }
+
+    @Override
+    public final float dot(final float[] x, final int xOffset, final float[] y, final int yOffset, final int length) {
+        float sum = 0;
+
+        for (int i = 0; i < length; i++)
+            sum += x[xOffset + i] * y[yOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public final int dot(final byte[] x, final int xOffset, final byte[] y, final int yOffset, final int length) {
+        int sum = 0;
+
+        for (int i = 0; i < length; i++)
+            sum += x[xOffset + i] * y[yOffset + i];
+
+        return sum;
+    }
+
+    @Override
+    public final void dot4(final byte[] x, final int xOffset, final int xStride, final byte[] y, final int yOffset, final int length,
+                           final int[] out, final int outOffset, final int outStride) {
+        int sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+
+        for (int i = 0; i < length; i++) {
+            final int value = y[yOffset + i];
+
+            sum0 += x[xOffset + i] * value;
+            sum1 += x[xOffset + xStride + i] * value;
+            sum2 += x[xOffset + 2 * xStride + i] * value;
+            sum3 += x[xOffset + 3 * xStride + i] * value;
+        }
+
+        out[outOffset] = sum0;
+        out[outOffset + outStride] = sum1;
+        out[outOffset + 2 * outStride] = sum2;
+        out[outOffset + 3 * outStride] = sum3;
+    }
+
+    @Override
+    public final void dot4(final float[] x, final int xOffset, final int xStride, final float[] y, final int yOffset, final int length,
+                           final float[] out, final int outOffset, final int outStride) {
+        float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+
+        for (int i = 0; i < length; i++) {
+            final float value = y[yOffset + i];
+
+            sum0 += x[xOffset + i] * value;
+            sum1 += x[xOffset + xStride + i] * value;
+            sum2 += x[xOffset + 2 * xStride + i] * value;
+            sum3 += x[xOffset + 3 * xStride + i] * value;
+        }
+
+        out[outOffset] = sum0;
+        out[outOffset + outStride] = sum1;
+        out[outOffset + 2 * outStride] = sum2;
+        out[outOffset + 3 * outStride] = sum3;
+    }
+
+    @Override
+    public final void axpy(final double alpha, final double[] x, final int xOffset, final double[] y, final int yOffset, final int length) {
+        for (int i = 0; i < length; i++)
+            y[yOffset + i] += alpha * x[xOffset + i];
+    }
+
+    @Override
+    public final String getName() {
+        return "scalar";
+    }
+
+}
@@ -0,0 +1,145 @@
+package dev.g8.neuralnet.math;
+
+/**
+ * read-only matrix in compressed sparse row (CSR) format, only the non-zero values are stored
+ * <p>
+ * the values of row i are values[rowStarts[i] .. rowStarts[i + 1]) and sit in the columns with the same indices
+ * in columnIndices, columns are in increasing order within a row
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public final class SparseMatrix {
+
+    private final int rows, columns;
+
+    private final int[] rowStarts, columnIndices;
+
+    private final double[] values;
+
+    private SparseMatrix(final int rows, final int columns, final int[] rowStarts, final int[] columnIndices, final double[] values) {
+        this.rows = rows;
+        this.columns = columns;
+        this.rowStarts = rowStarts;
+        this.columnIndices = columnIndices;
+        this.values = values;
+    }
+
+    /**
+     * compress a row-major dense matrix, exact zeros are left out
+     * @param dense - shape of [rows][columns]
+     * @param rows
+     * @param columns
+     * @return
+     */
+    public static SparseMatrix fromDense(final double[] dense, final int rows, final int columns) {
+        final int nonZeros = countNonZeros(dense, rows * columns);
+
+        final int[] rowStarts = new int[rows + 1];
+        final int[] columnIndices = new int[nonZeros];
+        final double[] values = new double[nonZeros];
+
+        int next = 0;
+
+        for (int i = 0; i < rows; i++) {
+            rowStarts[i] = next;
+
+            for (int j = 0; j < columns; j++) {
+                final double value = dense[i * columns + j];
+
+                if (value != 0) {
+                    columnIndices[next] = j;
+                    values[next] = value;
+                    next++;
+                }
+            }
+        }
+
+        rowStarts[rows] = next;
+
+        return new SparseMatrix(rows, columns, rowStarts, columnIndices, values);
+    }
+
+    /**
+     * count the values that aren't exactly zero
+     * @param dense
+     * @param length
+     * @return
+     */
+    public static int countNonZeros(final double[] dense, final int length) {
+        int nonZeros = 0;
+
+        for (int i = 0; i < length; i++) {
+            if (dense[i] != 0)
+                nonZeros++;
+        }
+
+        return nonZeros;
+    }
+
+    /**
+     * dot product of row i with x[xOffset ...]
+     * @param row
+     * @param x
+     * @param xOffset
+     * @return
+     */
+    final double dotRow(final int row, final double[] x, final int xOffset) {
+        double sum = 0;
+
+        for (int v = rowStarts[row]; v < rowStarts[row + 1]; v++)
+            sum += values[v] * x[xOffset + columnIndices[v]];
+
+        return sum;
+    }
+
+    /**
+     * dot products of row i with 4 rows of x (x[xOffset + k * xStride ...], k in [0, 4)),
+     * results are written to out[outOffset + k * outStride]
+     */
+    final void dotRow4(final int row, final double[] x, final int xOffset, final int xStride,
+                       final double[] out, final int outOffset, final int outStride) {
+        //each index and value is loaded once for all 4 rows
+        double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+
+        for (int v = rowStarts[row]; v < rowStarts[row + 1]; v++) {
+            final double value = values[v];
+            final int column = xOffset + columnIndices[v];
+
+            sum0 += value * x[column];
+            sum1 += value * x[column + xStride];
+            sum2 += value * x[column + 2 * xStride];
+            sum3 += value * x[column + 3 * xStride];
+        }
+
+        out[outOffset] = sum0;
+        out[outOffset + outStride] = sum1;
+        out[outOffset + 2 * outStride] = sum2;
+        out[outOffset + 3 * outStride] = sum3;
+    }
+
+    public final int getRows() {
+        return rows;
+    }
+
+    public final int getColumns() {
+        return columns;
+    }
+
+    /**
+     * get the number of stored values
+     * @return
+     */
+    public final int getNonZeros() {
+        return values.length;
+    }
+
+    /**
+     * get the fraction of the values that are stored
+     * @return
+     */
+    public final double getDensity() {
+        return (double) values.length / ((long) rows * columns);
+    }
+
+}
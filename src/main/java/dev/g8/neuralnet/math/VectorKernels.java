@@ -0,0 +1,330 @@
+package dev.g8.neuralnet.math;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * SIMD loops using the jdk vector api (AVX2/AVX-512 on x86)
+ * <p>
+ * sums are done lane by lane so results can differ from the scalar backend in the last bits
+ *
+ * @author G8LOL
+ * @since 4/14/2023
+ */
+final class VectorKernels extends Kernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    //twice as many lanes as double
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    //a full register of bytes widens into 4 full registers of ints, one per quarter
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTE_SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    private static final int PARTS = BYTE_SPECIES.length() / INT_SPECIES.length();
+
+    /**
+     * int8 loops for platforms where bytes can't be widened in registers, the other kernels stay vectorized
+     */
+    private static final Kernels BYTE_FALLBACK = byteFallback();
+
+    private static Kernels byteFallback() {
+        try {
+            if (PARTS != 4)
+                throw new UnsupportedOperationException("byte and int vectors have different shapes");
+
+            ByteVector.zero(BYTE_SPECIES).convertShape(VectorOperators.B2I, INT_SPECIES, PARTS - 1);
+
+            return null;
+        } catch (RuntimeException e) {
+            System.err.println("int8 vector kernels unavailable, using scalar int8 kernels: " + e);
+
+            return new ScalarKernels();
+        }
+    }
+
+    @Override
+    public final double dot(final double[] x, final int xOffset, final double[] y, final int yOffset, final int length) {
+        final int bound = SPECIES.loopBound(length);
+
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+
+        int i = 0;
+
+        for (; i < bound; i += SPECIES.length()) {
+            final DoubleVector a = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            final DoubleVector b = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+
+            sum = a.fma(b, sum);
+        }
+
+        double result = sum.reduceLanes(VectorOperators.ADD);
+
+        //leftover elements
+        for (; i < length; i++)
+            result += x[xOffset + i] * y[yOffset + i];
+
+        return result;
+    }
+
+    @Override
+    public final double dot(final ByteBuffer x, final int xOffset, final double[] y, final int yOffset, final int length) {
+        final int bound = SPECIES.loopBound(length);
+
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+
+        int i = 0;
+
+        for (; i < bound; i += SPECIES.length()) {
+            final DoubleVector a = DoubleVector.fromByteBuffer(SPECIES, x, (xOffset + i) << 3, ByteOrder.LITTLE_ENDIAN);
+            final DoubleVector b = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+
+            sum = a.fma(b, sum);
+        }
+
+        double result = sum.reduceLanes(VectorOperators.ADD);
+
+        //leftover elements
+        for (; i < length; i++)
+            result += x.getDouble((xOffset + i) << 3) * y[yOffset + i];
+
+        return result;
+    }
+
+    @Override
+    public final void dot4(final double[] x, final int xOffset, final int xStride, final double[] y, final int yOffset, final int length,
+                           final double[] out, final int outOffset, final int outStride) {
+        final int bound = SPECIES.loopBound(length);
+
+        DoubleVector sum0 = DoubleVector.zero(SPECIES);
+        DoubleVector sum1 = DoubleVector.zero(SPECIES);
+        DoubleVector sum2 = DoubleVector.zero(SPECIES);
+        DoubleVector sum3 = DoubleVector.zero(SPECIES);
+
+        int i = 0;
+
+        for (; i < bound; i += SPECIES.length()) {
+            final DoubleVector value = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+
+            sum0 = DoubleVector.fromArray(SPECIES, x, xOffset + i).fma(value, sum0);
+            sum1 = DoubleVector.fromArray(SPECIES, x, xOffset + xStride + i).fma(value, sum1);
+            sum2 = DoubleVector.fromArray(SPECIES, x, xOffset + 2 * xStride + i).fma(value, sum2);
+            sum3 = DoubleVector.fromArray(SPECIES, x, xOffset + 3 * xStride + i).fma(value, sum3);
+        }
+
+        double result0 = sum0.reduceLanes(VectorOperators.ADD);
+        double result1 = sum1.reduceLanes(VectorOperators.ADD);
+        double result2 = sum2.reduceLanes(VectorOperators.ADD);
+        double result3 = sum3.reduceLanes(VectorOperators.ADD);
+
+        //leftover elements
+        for (; i < length; i++) {
+            final double value = y[yOffset + i];
+
+            result0 += x[xOffset + i] * value;
+            result1 += x[xOffset + xStride + i] * value;
+            result2 += x[xOffset + 2 * xStride + i] * value;
+            result3 += x[xOffset + 3 * xStride + i] * value;
+        }
+
+        out[outOffset] = result0;
+        out[outOffset + outStride] = result1;
+        out[outOffset + 2 * outStride] = result2;
+        out[outOffset + 3 * outStride] = result3;
+    }
+
+    @Override
+    public final float dot(final float[] x, final int xOffset, final float[] y, final int yOffset, final int length) {
+        final int bound = FLOAT_SPECIES.loopBound(length);
+
+        FloatVector sum = FloatVector.zero(FLOAT_SPECIES);
+
+        int i = 0;
+
+        for (; i < bound; i += FLOAT_SPECIES.length()) {
+            final FloatVector a = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i);
+            final FloatVector b = FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + i);
+
+            sum = a.fma(b, sum);
+        }
+
+        float result = sum.reduceLanes(VectorOperators.ADD);
+
+        //leftover elements
+        for (; i < length; i++)
+            result += x[xOffset + i] * y[yOffset + i];
+
+        return result;
+    }
+
+    @Override
+    public final int dot(final byte[] x, final int xOffset, final byte[] y, final int yOffset, final int length) {
+        if (BYTE_FALLBACK != null)
+            return BYTE_FALLBACK.dot(x, xOffset, y, yOffset, length);
+
+        final int bound = BYTE_SPECIES.loopBound(length);
+
+        IntVector sum = IntVector.zero(INT_SPECIES);
+
+        int i = 0;
+
+        for (; i < bound; i += BYTE_SPECIES.length()) {
+            final ByteVector a = ByteVector.fromArray(BYTE_SPECIES, x, xOffset + i);
+            final ByteVector b = ByteVector.fromArray(BYTE_SPECIES, y, yOffset + i);
+
+            for (int part = 0; part < PARTS; part++)
+                sum = widen(a, part).mul(widen(b, part)).add(sum);
+        }
+
+        int result = sum.reduceLanes(VectorOperators.ADD);
+
+        //leftover elements
+        for (; i < length; i++)
+            result += x[xOffset + i] * y[yOffset + i];
+
+        return result;
+    }
+
+    @Override
+    public final void dot4(final byte[] x, final int xOffset, final int xStride, final byte[] y, final int yOffset, final int length,
+                           final int[] out, final int outOffset, final int outStride) {
+        if (BYTE_FALLBACK != null) {
+            BYTE_FALLBACK.dot4(x, xOffset, xStride, y, yOffset, length, out, outOffset, outStride);
+            return;
+        }
+
+        final int bound = BYTE_SPECIES.loopBound(length);
+
+        IntVector sum0 = IntVector.zero(INT_SPECIES);
+        IntVector sum1 = IntVector.zero(INT_SPECIES);
+        IntVector sum2 = IntVector.zero(INT_SPECIES);
+        IntVector sum3 = IntVector.zero(INT_SPECIES);
+
+        int i = 0;
+
+        for (; i < bound; i += BYTE_SPECIES.length()) {
+            final ByteVector value = ByteVector.fromArray(BYTE_SPECIES, y, yOffset + i);
+
+            final ByteVector row0 = ByteVector.fromArray(BYTE_SPECIES, x, xOffset + i);
+            final ByteVector row1 = ByteVector.fromArray(BYTE_SPECIES, x, xOffset + xStride + i);
+            final ByteVector row2 = ByteVector.fromArray(BYTE_SPECIES, x, xOffset + 2 * xStride + i);
+            final ByteVector row3 = ByteVector.fromArray(BYTE_SPECIES, x, xOffset + 3 * xStride + i);
+
+            for (int part = 0; part < PARTS; part++) {
+                //widened once for all 4 rows
+                final IntVector wide = widen(value, part);
+
+                sum0 = widen(row0, part).mul(wide).add(sum0);
+                sum1 = widen(row1, part).mul(wide).add(sum1);
+                sum2 = widen(row2, part).mul(wide).add(sum2);
+                sum3 = widen(row3, part).mul(wide).add(sum3);
+            }
+        }
+
+        int result0 = sum0.reduceLanes(VectorOperators.ADD);
+        int result1 = sum1.reduceLanes(VectorOperators.ADD);
+        int result2 = sum2.reduceLanes(VectorOperators.ADD);
+        int result3 = sum3.reduceLanes(VectorOperators.ADD);
+
+        //leftover elements
+        for (; i < length; i++) {
+            final int value = y[yOffset + i];
+
+            result0 += x[xOffset + i] * value;
+            result1 += x[xOffset + xStride + i] * value;
+            result2 += x[xOffset + 2 * xStride + i] * value;
+            result3 += x[xOffset + 3 * xStride + i] * value;
+        }
+
+        out[outOffset] = result0;
+        out[outOffset + outStride] = result1;
+        out[outOffset + 2 * outStride] = result2;
+        out[outOffset + 3 * outStride] = result3;
+    }
+
+    /**
+     * widen one quarter of a byte vector to ints
+     * @param values
+     * @param part - which quarter, 0 to 3
+     * @return
+     */
+    private static IntVector widen(final ByteVector values, final int part) {
+        return (IntVector) values.convertShape(VectorOperators.B2I, INT_SPECIES, part);
+    }
+
+    @Override
+    public final void dot4(final float[] x, final int xOffset, final int xStride, final float[] y, final int yOffset, final int length,
+                           final float[] out, final int outOffset, final int outStride) {
+        final int bound = FLOAT_SPECIES.loopBound(length);
+
+        FloatVector sum0 = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector sum1 = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector sum2 = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector sum3 = FloatVector.zero(FLOAT_SPECIES);
+
+        int i = 0;
+
+        for (; i < bound; i += FLOAT_SPECIES.length()) {
+            final FloatVector value = FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + i);
+
+            sum0 = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i).fma(value, sum0);
+            sum1 = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + xStride + i).fma(value, sum1);
+            sum2 = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + 2 * xStride + i).fma(value, sum2);
+            sum3 = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + 3 * xStride + i).fma(value, sum3);
+        }
+
+        float result0 = sum0.reduceLanes(VectorOperators.ADD);
+        float result1 = sum1.reduceLanes(VectorOperators.ADD);
+        float result2 = sum2.reduceLanes(VectorOperators.ADD);
+        float result3 = sum3.reduceLanes(VectorOperators.ADD);
+
+        //leftover elements
+        for (; i < length; i++) {
+            final float value = y[yOffset + i];
+
+            result0 += x[xOffset + i] * value;
+            result1 += x[xOffset + xStride + i] * value;
+            result2 += x[xOffset + 2 * xStride + i] * value;
+            result3 += x[xOffset + 3 * xStride + i] * value;
+        }
+
+        out[outOffset] = result0;
+        out[outOffset + outStride] = result1;
+        out[outOffset + 2 * outStride] = result2;
+        out[outOffset + 3 * outStride] = result3;
+    }
+
+    @Override
+    public final void axpy(final double alpha, final double[] x, final int xOffset, final double[] y, final int yOffset, final int length) {
+        final int bound = SPECIES.loopBound(length);
+
+        final DoubleVector scale = DoubleVector.broadcast(SPECIES, alpha);
+
+        int i = 0;
+
+        for (; i < bound; i += SPECIES.length()) {
+            final DoubleVector a = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            final DoubleVector b = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+
+            a.fma(scale, b).intoArray(y, yOffset + i);
+        }
+
+        //leftover elements, fused like the vector lanes so the result doesn't depend on where a tile starts
+        for (; i < length; i++)
+            y[yOffset + i] = Math.fma(alpha, x[xOffset + i], y[yOffset + i]);
+    }
+
+    @Override
+    public final String getName() {
+        return "vector (" + SPECIES.vectorBitSize() + " bit)";
+    }
+
+}
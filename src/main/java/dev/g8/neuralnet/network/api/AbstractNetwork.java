@@ -1,6 +1,8 @@
 package dev.g8.neuralnet.network.api;
 
 import dev.g8.neuralnet.layers.api.AbstractLayer;
+import dev.g8.neuralnet.layers.impl.DropoutLayer;
+import dev.g8.neuralnet.math.Precision;
 import dev.g8.neuralnet.optimizations.OptimizationAlgorithm;
 import dev.g8.neuralnet.utils.objects.DataSet;
 
@@ -9,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
 
 /**
  * @author G8LOL
@@ -19,6 +22,28 @@ public abstract class AbstractNetwork {
     protected List<AbstractLayer> layers;
     protected double learningRate;
     protected OptimizationAlgorithm optimizationAlgorithm;
+    protected Precision precision;
+
+    /**
+     * number of threads each mini-batch is split across
+     */
+    protected int threads;
+
+    /**
+     * seed for everything random during training, the same seed and number of threads give the same network
+     */
+    protected long seed;
+
+    /**
+     * number of pipeline stages (1 = no pipeline), or the number of layers per stage if it was given
+     */
+    protected int pipelineStages;
+    protected int[] pipelinePartition;
+
+    /**
+     * number of micro-batches a batch is split into when the pipeline is used
+     */
+    protected int microBatches;
 
     /**
      * setup network (e.g setup layers)
@@ -47,6 +72,21 @@ public abstract class AbstractNetwork {
      */
     public abstract DataSet predict(final DataSet input);
 
+    /**
+     * predict output from input, pushing batchSize samples through each layer at a time
+     * @param input
+     * @param batchSize
+     * @return
+     */
+    public abstract DataSet predict(final DataSet input, final int batchSize);
+
+    /**
+     * let the network know its weights were changed outside of training (e.g. through the parameter stores or by pruning)
+     * so copies it keeps of them are taken again, does nothing by default
+     */
+    public void weightsChanged() {
+    }
+
     /**
      * print network info
      */
@@ -55,16 +95,43 @@ public abstract class AbstractNetwork {
         System.out.println("Num Layers: " + layers.size());
         System.out.println("Learning rate: " + learningRate);
         System.out.println("Optimization algorithm: " + optimizationAlgorithm);
+        System.out.println("Precision: " + precision);
+        System.out.println("Threads: " + threads);
+        System.out.println("Pipeline stages: " + (pipelinePartition != null ? Arrays.toString(pipelinePartition) : pipelineStages));
 
         System.out.println("Layers: ");
         for (final AbstractLayer layer : layers)
-            System.out.println("\t" + layer.getClass().getSimpleName());
+            System.out.println("\t" + layer.getClass().getSimpleName() + (layer.isFastMath() ? " (fast math)" : ""));
+    }
+
+    public final List<AbstractLayer> getLayers() {
+        return layers;
+    }
+
+    public final double getLearningRate() {
+        return learningRate;
+    }
+
+    public final OptimizationAlgorithm getOptimizationAlgorithm() {
+        return optimizationAlgorithm;
+    }
+
+    public final Precision getPrecision() {
+        return precision;
     }
 
     public final static class NetworkBuilder {
         private final List<AbstractLayer> layers = new ArrayList<>();
         private double learningRate;
         private OptimizationAlgorithm optimizationAlgorithm;
+        private Precision precision = Precision.DOUBLE;
+        private boolean fastMath;
+        private int threads = 1;
+        private long seed = new Random().nextLong();
+        private boolean seeded;
+        private int pipelineStages = 1;
+        private int[] pipelinePartition;
+        private int microBatches;
 
         private final Class<? extends AbstractNetwork> clazz;
 
@@ -90,6 +157,95 @@ public abstract class AbstractNetwork {
             return this;
         }
 
+        public final NetworkBuilder withPrecision(final Precision precision) {
+            this.precision = precision;
+
+            return this;
+        }
+
+        /**
+         * use approximate activation functions (lookup tables) in every layer
+         * @param fastMath
+         * @return
+         */
+        public final NetworkBuilder withFastMath(final boolean fastMath) {
+            this.fastMath = fastMath;
+
+            return this;
+        }
+
+        /**
+         * split every mini-batch across threads, each thread works out the gradients of its part of the batch
+         * @param threads
+         * @return
+         */
+        public final NetworkBuilder withThreads(final int threads) {
+            if (threads < 1)
+                throw new IllegalArgumentException("threads must be at least 1: " + threads);
+
+            this.threads = threads;
+
+            return this;
+        }
+
+        /**
+         * run consecutive groups of layers on their own threads, batches flow through them in micro-batches
+         * <p>
+         * layers are split so every stage has about the same number of weights
+         * @param stages
+         * @return
+         */
+        public final NetworkBuilder withPipelineStages(final int stages) {
+            if (stages < 1)
+                throw new IllegalArgumentException("stages must be at least 1: " + stages);
+
+            this.pipelineStages = stages;
+
+            return this;
+        }
+
+        /**
+         * same as {@link #withPipelineStages(int)} but with the split given, e.g. after looking at the stage timings
+         * @param layersPerStage - number of layers (not counting the input layer) in each stage
+         * @return
+         */
+        public final NetworkBuilder withPipelinePartition(final int... layersPerStage) {
+            this.pipelinePartition = layersPerStage.clone();
+            this.pipelineStages = layersPerStage.length;
+
+            return this;
+        }
+
+        /**
+         * number of micro-batches a batch is split into when the pipeline is used, defaults to 4 per stage
+         * @param microBatches
+         * @return
+         */
+        public final NetworkBuilder withMicroBatches(final int microBatches) {
+            if (microBatches < 1)
+                throw new IllegalArgumentException("microBatches must be at least 1: " + microBatches);
+
+            this.microBatches = microBatches;
+
+            return this;
+        }
+
+        /**
+         * seed for everything random in the network: the weights and biases of the layers are drawn again from it when
+         * the network is built, and it seeds the shuffling and the dropout masks during training
+         * <p>
+         * the same seed, layers and number of threads give the same trained network. without a seed the layers keep the
+         * parameters they were created with (e.g. the ones read from a model file) and training uses a random seed
+         * @param seed
+         * @return
+         */
+        public final NetworkBuilder withSeed(final long seed) {
+            this.seed = seed;
+            this.seeded = true;
+
+            return this;
+        }
+
         public final NetworkBuilder withLearningRate(final double learningRate) {
             this.learningRate = learningRate;
 
@@ -105,6 +261,26 @@ public abstract class AbstractNetwork {
                 network.layers = layers;
                 network.learningRate = learningRate;
                 network.optimizationAlgorithm = optimizationAlgorithm;
+                network.precision = precision;
+                network.threads = threads;
+                network.seed = seed;
+                network.pipelineStages = pipelineStages;
+                network.pipelinePartition = pipelinePartition;
+                network.microBatches = microBatches > 0 ? microBatches : 4 * pipelineStages;
+
+                if (seeded) {
+                    final Random random = new Random(seed);
+
+                    //dropout layers have no parameters of their own
+                    for (AbstractLayer layer : layers) {
+                        if (!(layer instanceof DropoutLayer))
+                            layer.getParameterStore().initialize(random);
+                    }
+                }
+
+                //only turn it on so layers can still opt in one by one
+                if (fastMath)
+                    layers.forEach(layer -> layer.setFastMath(true));
 
                 return network;
             } catch (Exception e) {
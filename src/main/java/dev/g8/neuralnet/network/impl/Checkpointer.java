@@ -0,0 +1,285 @@
+package dev.g8.neuralnet.network.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * saves checkpoints of a network while it trains so a run that gets killed can be resumed with
+ * {@link FeedForwardNeuralNetwork#resume(Path)}
+ * <p>
+ * the training thread only copies the weights and biases into a buffer that is reused every time, a background thread
+ * writes the copy to disk (see {@link ModelFile}) and deletes the oldest checkpoints so only the last few are kept
+ * <p>
+ * if the previous checkpoint is still being written when the next one is due it is put off to the next batch or epoch
+ * instead of waiting for it, so a checkpoint never stalls training for longer than one copy of the parameters
+ * <p>
+ * mini-batch training checkpoints between batches, the other algorithms at the end of an epoch
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public final class Checkpointer implements AutoCloseable {
+
+    private static final String PREFIX = "checkpoint-", SUFFIX = ".g8nn";
+
+    private final Path directory;
+
+    private final int everyEpochs;
+
+    private final long everyNanos;
+
+    private final int keep;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "checkpoint-writer");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    /**
+     * copy of the parameters the writer is working from, only touched by the training thread while no write is running
+     */
+    private double[][] snapshot;
+
+    private Future<?> pending;
+
+    private long lastCheckpoint = System.nanoTime();
+
+    /**
+     * a checkpoint came due while the previous one was still being written, take it as soon as the writer is free
+     */
+    private boolean overdue;
+
+    private long skipped, lastStallNanos, maxStallNanos;
+
+    //written by the writer thread
+    private volatile long written;
+
+    private volatile IOException lastFailure;
+
+    private Checkpointer(final Path directory, final int everyEpochs, final long everyNanos, final int keep) {
+        this.directory = directory;
+        this.everyEpochs = everyEpochs;
+        this.everyNanos = everyNanos;
+        this.keep = keep;
+    }
+
+    /**
+     * get the newest checkpoint in a directory
+     * @param directory
+     * @return the path, null if there is none
+     * @throws IOException
+     */
+    public static Path latest(final Path directory) throws IOException {
+        final List<Path> checkpoints = list(directory);
+
+        return checkpoints.isEmpty() ? null : checkpoints.get(checkpoints.size() - 1);
+    }
+
+    /**
+     * called by the training thread after every batch (epochEnd false) and every epoch (epochEnd true)
+     * @param network
+     * @param epoch - epoch of the next sample to train on
+     * @param position - index of the next sample to train on
+     * @param step - number of batches trained so far
+     * @param seed
+     * @param epochEnd
+     */
+    final void onProgress(final FeedForwardNeuralNetwork network, final int epoch, final int position, final long step,
+                          final long seed, final boolean epochEnd) {
+        final long now = System.nanoTime();
+
+        final boolean due = overdue
+                || (epochEnd && everyEpochs > 0 && epoch % everyEpochs == 0)
+                || (everyNanos > 0 && now - lastCheckpoint >= everyNanos);
+
+        if (!due)
+            return;
+
+        //don't wait for the disk, just try again next time
+        if (pending != null && !pending.isDone()) {
+            if (!overdue)
+                skipped++;
+
+            overdue = true;
+            return;
+        }
+
+        overdue = false;
+        lastCheckpoint = now;
+
+        final double[][] blocks = ModelFile.blocksOf(network);
+
+        if (snapshot == null) {
+            snapshot = new double[blocks.length][];
+
+            for (int i = 0; i < blocks.length; i++)
+                snapshot[i] = new double[blocks[i].length];
+        }
+
+        for (int i = 0; i < blocks.length; i++)
+            System.arraycopy(blocks[i], 0, snapshot[i], 0, blocks[i].length);
+
+        final ModelFile.TrainingState state = new ModelFile.TrainingState(epoch, position, step, seed);
+        final Path path = directory.resolve(String.format("%s%06d-%010d%s", PREFIX, epoch, position, SUFFIX));
+
+        pending = writer.submit(() -> write(network, state, path));
+
+        lastStallNanos = System.nanoTime() - now;
+        maxStallNanos = Math.max(maxStallNanos, lastStallNanos);
+    }
+
+    private void write(final FeedForwardNeuralNetwork network, final ModelFile.TrainingState state, final Path path) {
+        try {
+            Files.createDirectories(directory);
+
+            ModelFile.write(network, snapshot, state, path);
+
+            written++;
+
+            //only the newest checkpoints are kept
+            final List<Path> checkpoints = list(directory);
+
+            for (int i = 0; i < checkpoints.size() - keep; i++)
+                Files.deleteIfExists(checkpoints.get(i));
+        } catch (IOException e) {
+            lastFailure = e;
+
+            System.err.println("failed to write checkpoint " + path + ": " + e);
+        }
+    }
+
+    /**
+     * checkpoints in a directory, oldest first (names sort in training order)
+     */
+    private static List<Path> list(final Path directory) throws IOException {
+        if (!Files.isDirectory(directory))
+            return List.of();
+
+        try (final Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                final String name = file.getFileName().toString();
+
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().toList();
+        }
+    }
+
+    /**
+     * get the number of checkpoints written so far
+     * @return
+     */
+    public final long getWritten() {
+        return written;
+    }
+
+    /**
+     * get the number of checkpoints put off because the previous one was still being written
+     * @return
+     */
+    public final long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * get how long the last checkpoint held up the training thread
+     * @return
+     */
+    public final long getLastStallNanos() {
+        return lastStallNanos;
+    }
+
+    /**
+     * get the longest time a checkpoint held up the training thread
+     * @return
+     */
+    public final long getMaxStallNanos() {
+        return maxStallNanos;
+    }
+
+    /**
+     * get the error of the last checkpoint that couldn't be written, null if none failed
+     * @return
+     */
+    public final IOException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * wait for the checkpoint being written (if any) and stop the writer thread
+     */
+    @Override
+    public final void close() {
+        writer.shutdown();
+
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public final static class CheckpointBuilder {
+        private final Path directory;
+        private int everyEpochs = 1;
+        private long everyNanos;
+        private int keep = 3;
+
+        public CheckpointBuilder(final Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * checkpoint at the end of every n epochs, 0 turns it off
+         * @param epochs
+         * @return
+         */
+        public final CheckpointBuilder withEveryEpochs(final int epochs) {
+            if (epochs < 0)
+                throw new IllegalArgumentException("epochs must not be negative: " + epochs);
+
+            this.everyEpochs = epochs;
+
+            return this;
+        }
+
+        /**
+         * checkpoint once this much time has passed since the last one, 0 turns it off
+         * @param interval
+         * @param unit
+         * @return
+         */
+        public final CheckpointBuilder withInterval(final long interval, final TimeUnit unit) {
+            this.everyNanos = unit.toNanos(interval);
+
+            return this;
+        }
+
+        /**
+         * number of checkpoints kept on disk, older ones are deleted
+         * @param keep
+         * @return
+         */
+        public final CheckpointBuilder withKeep(final int keep) {
+            if (keep < 1)
+                throw new IllegalArgumentException("keep must be at least 1: " + keep);
+
+            this.keep = keep;
+
+            return this;
+        }
+
+        public final Checkpointer build() {
+            return new Checkpointer(directory, everyEpochs, everyNanos, keep);
+        }
+    }
+
+}
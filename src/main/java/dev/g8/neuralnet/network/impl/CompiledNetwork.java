@@ -0,0 +1,306 @@
+package dev.g8.neuralnet.network.impl;
+
+import dev.g8.neuralnet.functions.activation.ActivationFunction;
+import dev.g8.neuralnet.layers.api.AbstractLayer;
+import dev.g8.neuralnet.layers.impl.DenseHiddenLayer;
+import dev.g8.neuralnet.layers.impl.DropoutLayer;
+import dev.g8.neuralnet.layers.impl.InputLayer;
+import dev.g8.neuralnet.layers.impl.OutputLayer;
+import dev.g8.neuralnet.math.Gemm;
+import dev.g8.neuralnet.math.SparseMatrix;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * read-only copy of a trained network that only does forward passes
+ * <p>
+ * weights and biases are copied when the network is compiled so training the network afterwards doesn't change it,
+ * and nothing is written during a prediction except the scratch buffers, which belong to the caller or the calling thread
+ * <p>
+ * so any number of threads can predict at once without locking
+ * <p>
+ * a network loaded with {@link ModelFile#map(java.nio.file.Path)} reads its weights straight from the mapped file instead
+ * <p>
+ * layers where at most {@link #SPARSE_DENSITY} of the weights are non-zero (e.g. after pruning) are stored as a
+ * {@link SparseMatrix} and use the sparse products, the others stay dense
+ *
+ * @author G8LOL
+ * @since 4/19/2023
+ */
+public final class CompiledNetwork {
+
+    /**
+     * fraction of non-zero weights at or below which a layer is stored sparse, can be set with -Dneuralnet.sparseDensity
+     * <p>
+     * around where the sparse products got faster than the dense vector kernels for 1024 wide layers
+     */
+    public static final double SPARSE_DENSITY = Double.parseDouble(System.getProperty("neuralnet.sparseDensity", "0.25"));
+
+    /**
+     * dense and output layers, the input layer and dropout layers (which do nothing during prediction) are left out
+     */
+    private final Stage[] stages;
+
+    private final int numInput, numOutput;
+
+    /**
+     * widest layer, the size of the scratch buffers per sample
+     */
+    private final int width;
+
+    private final ThreadLocal<Scratch> threadScratch;
+
+    CompiledNetwork(final List<AbstractLayer> layers) {
+        this(compile(layers), layers.get(0).getSize());
+    }
+
+    /**
+     * @param stages - dense and output layers in order
+     * @param numInput - size of the input layer
+     */
+    CompiledNetwork(final Stage[] stages, final int numInput) {
+        int width = numInput;
+
+        for (final Stage stage : stages)
+            width = Math.max(width, stage.size);
+
+        this.stages = stages;
+        this.numInput = numInput;
+        this.numOutput = stages[stages.length - 1].size;
+        this.width = width;
+
+        this.threadScratch = ThreadLocal.withInitial(() -> new Scratch(1, this.width));
+    }
+
+    private static Stage[] compile(final List<AbstractLayer> layers) {
+        final List<Stage> stages = new ArrayList<>();
+
+        for (final AbstractLayer layer : layers) {
+            switch (layer) {
+                case final DenseHiddenLayer hidLayer -> stages.add(new Stage(hidLayer, hidLayer.getActivationFunction()));
+                case final OutputLayer outLayer -> stages.add(new Stage(outLayer, outLayer.getActivationFunction()));
+                case final InputLayer ignored -> {
+                }
+                case final DropoutLayer ignored -> {
+                }
+                default -> throw new IllegalStateException("Unexpected value: " + layer);
+            }
+        }
+
+        return stages.toArray(new Stage[0]);
+    }
+
+    /**
+     * predict the output of one sample
+     * @param input
+     * @return a new array holding the output
+     */
+    public final double[] predict(final double[] input) {
+        final double[] output = new double[numOutput];
+
+        predict(input, output);
+
+        return output;
+    }
+
+    /**
+     * predict the output of one sample using the scratch buffers of the calling thread
+     * @param input - size of the input layer
+     * @param output - size of the output layer, written to
+     */
+    public final void predict(final double[] input, final double[] output) {
+        forward(input, output, 1, threadScratch.get());
+    }
+
+    /**
+     * predict the outputs of a batch using the scratch buffers of the calling thread (they grow to fit the biggest batch)
+     * @param inputs - shape of [batchSize][size of the input layer]
+     * @param outputs - shape of [batchSize][size of the output layer], written to
+     * @param batchSize
+     */
+    public final void predict(final double[] inputs, final double[] outputs, final int batchSize) {
+        Scratch scratch = threadScratch.get();
+
+        if (scratch.capacity < batchSize) {
+            scratch = new Scratch(batchSize, width);
+            threadScratch.set(scratch);
+        }
+
+        forward(inputs, outputs, batchSize, scratch);
+    }
+
+    /**
+     * predict the outputs of a batch using scratch buffers owned by the caller
+     * @param inputs - shape of [batchSize][size of the input layer]
+     * @param outputs - shape of [batchSize][size of the output layer], written to
+     * @param batchSize
+     * @param scratch - from {@link #newScratch(int)}, must not be used by another thread at the same time
+     */
+    public final void predict(final double[] inputs, final double[] outputs, final int batchSize, final Scratch scratch) {
+        if (scratch.capacity < batchSize || scratch.width < width)
+            throw new IllegalArgumentException("scratch can't hold a batch of " + batchSize);
+
+        forward(inputs, outputs, batchSize, scratch);
+    }
+
+    /**
+     * create scratch buffers big enough for batches of up to capacity samples
+     * @param capacity
+     * @return
+     */
+    public final Scratch newScratch(final int capacity) {
+        return new Scratch(capacity, width);
+    }
+
+    /**
+     * check if the weights into a layer are stored sparse
+     * @param stage - index of the layer not counting the input and dropout layers
+     * @return
+     */
+    public final boolean isSparse(final int stage) {
+        return stages[stage].sparseWeights != null;
+    }
+
+    /**
+     * get the number of layers with weights (not counting the input and dropout layers)
+     * @return
+     */
+    public final int getStages() {
+        return stages.length;
+    }
+
+    public final int getNumInput() {
+        return numInput;
+    }
+
+    public final int getNumOutput() {
+        return numOutput;
+    }
+
+    private void forward(final double[] inputs, final double[] outputs, final int batchSize, final Scratch scratch) {
+        double[] current = inputs;
+
+        for (int i = 0; i < stages.length; i++) {
+            //last stage writes straight into the outputs, the others take turns with the two scratch buffers
+            final double[] next = i == stages.length - 1 ? outputs : current == scratch.first ? scratch.second : scratch.first;
+
+            stages[i].forward(current, next, batchSize);
+
+            current = next;
+        }
+    }
+
+    /**
+     * weights into a layer and its biases and activation function
+     */
+    static final class Stage {
+
+        /**
+         * shape of [size][size of the previous layer], one of them is null
+         */
+        private final double[] weights;
+        private final ByteBuffer mappedWeights;
+        private final SparseMatrix sparseWeights;
+
+        private final double[] bias;
+
+        private final int size, numInput;
+
+        private final ActivationFunction activationFunction;
+
+        private final boolean fastMath;
+
+        private Stage(final AbstractLayer layer, final ActivationFunction activationFunction) {
+            final double[] weights = layer.getPrevLayer().getParameterStore().getWeights();
+
+            this.bias = layer.getParameterStore().getBias().clone();
+            this.size = layer.getSize();
+            this.numInput = layer.getPrevLayer().getParameterStore().getColumns();
+
+            final double density = (double) SparseMatrix.countNonZeros(weights, size * numInput) / ((long) size * numInput);
+
+            this.sparseWeights = density <= SPARSE_DENSITY ? SparseMatrix.fromDense(weights, size, numInput) : null;
+            this.weights = sparseWeights == null ? weights.clone() : null;
+            this.mappedWeights = null;
+            this.activationFunction = activationFunction;
+            this.fastMath = layer.isFastMath();
+        }
+
+        /**
+         * @param weights - little-endian doubles in shape of [size][numInput]
+         * @param bias
+         * @param numInput
+         * @param activationFunction
+         * @param fastMath
+         */
+        Stage(final ByteBuffer weights, final double[] bias, final int numInput, final ActivationFunction activationFunction, final boolean fastMath) {
+            this.weights = null;
+            this.mappedWeights = weights;
+            this.sparseWeights = null;
+            this.bias = bias;
+            this.size = bias.length;
+            this.numInput = numInput;
+            this.activationFunction = activationFunction;
+            this.fastMath = fastMath;
+        }
+
+        private void forward(final double[] input, final double[] output, final int batchSize) {
+            if (sparseWeights != null) {
+                if (batchSize == 1)
+                    Gemm.multiplyVector(sparseWeights, input, output);
+                else
+                    Gemm.multiplyTransposed(input, sparseWeights, output, batchSize);
+            } else if (mappedWeights != null) {
+                if (batchSize == 1)
+                    Gemm.multiplyVector(mappedWeights, input, output, size, numInput);
+                else
+                    Gemm.multiplyTransposed(input, mappedWeights, output, batchSize, size, numInput);
+            } else if (batchSize == 1)
+                Gemm.multiplyVector(weights, input, output, size, numInput);
+            else
+                Gemm.multiplyTransposed(input, weights, output, batchSize, size, numInput);
+
+            for (int b = 0; b < batchSize; b++) {
+                final int offset = b * size;
+
+                for (int i = 0; i < size; i++) {
+                    output[offset + i] += bias[i];
+                }
+            }
+
+            if (fastMath)
+                activationFunction.activateApproximate(output, output, 0, batchSize * size);
+            else
+                activationFunction.activate(output, output, 0, batchSize * size);
+        }
+    }
+
+    /**
+     * buffers a forward pass writes the outputs of the hidden layers to
+     */
+    public static final class Scratch {
+
+        private final int capacity, width;
+
+        private final double[] first, second;
+
+        private Scratch(final int capacity, final int width) {
+            this.capacity = capacity;
+            this.width = width;
+
+            this.first = new double[capacity * width];
+            this.second = new double[capacity * width];
+        }
+
+        /**
+         * get the number of samples the buffers can hold
+         * @return
+         */
+        public final int getCapacity() {
+            return capacity;
+        }
+    }
+
+}
@@ -1,25 +1,96 @@
 package dev.g8.neuralnet.network.impl;
 
+import dev.g8.neuralnet.components.ParameterStore;
 import dev.g8.neuralnet.layers.api.AbstractLayer;
 import dev.g8.neuralnet.layers.impl.DenseHiddenLayer;
 import dev.g8.neuralnet.layers.impl.DropoutLayer;
 import dev.g8.neuralnet.layers.impl.InputLayer;
 import dev.g8.neuralnet.layers.impl.OutputLayer;
 import dev.g8.neuralnet.network.api.AbstractNetwork;
+import dev.g8.neuralnet.optimizations.OptimizationAlgorithm;
+import dev.g8.neuralnet.utils.objects.DataLoader;
 import dev.g8.neuralnet.utils.objects.DataSet;
 import dev.g8.neuralnet.layers.api.Mode;
+import dev.g8.neuralnet.math.Kernels;
+import dev.g8.neuralnet.math.Precision;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.IntConsumer;
 
 /**
  * @author G8LOL
  * @since 4/5/2023
  */
-public final class FeedForwardNeuralNetwork extends AbstractNetwork {
+public final class FeedForwardNeuralNetwork extends AbstractNetwork implements AutoCloseable {
 
-	private final Random random = new Random();
+	/**
+	 * number of samples pushed through the layers at a time by {@link #predict(DataSet)}
+	 */
+	private static final int PREDICTION_BATCH_SIZE = 64;
+
+	/**
+	 * parameter blocks of at most this many values are added up by one task when reducing the gradients of the threads
+	 */
+	private static final int REDUCE_BLOCK = 1 << 14;
+
+	/**
+	 * number of samples a thread takes from the shared cursor at a time during hogwild training
+	 */
+	private static final int HOGWILD_CHUNK = 16;
+
+	private static final Kernels KERNELS = Kernels.get();
+
+	private Random random;
+
+	/**
+	 * buffers for batch training, one per thread
+	 */
+	private Workspace[] workspaces;
+
+	/**
+	 * runs the parts of a batch when there is more than one thread
+	 */
+	private ForkJoinPool pool;
+
+	/**
+	 * number of batches trained so far, used to seed the randomness of every batch
+	 */
+	private long step;
+
+	/**
+	 * runs the stages on their own threads when more than one pipeline stage is set
+	 */
+	private Pipeline pipeline;
+
+	/**
+	 * training speed of the last hogwild epoch
+	 */
+	private double samplesPerSecond;
+
+	private Checkpointer checkpointer;
+
+	/**
+	 * float copy of the weights predictions run on when the precision is single, replaced (never changed) by {@link #weightsChanged()}
+	 */
+	private volatile SingleWeights singleWeights;
+
+	/**
+	 * where the next call to train starts, set by {@link #resume(Path)}
+	 */
+	private int resumeEpoch, resumePosition;
 
 	public final void setup() {
+		random = new Random(seed);
+
+		if (threads > 1 && pool == null)
+			pool = new ForkJoinPool(threads);
+
 		//set prev and next layers
 		for (int i = 0; i < layers.size(); i++) {
 			//skip input layer
@@ -30,185 +101,815 @@ public final class FeedForwardNeuralNetwork extends AbstractNetwork {
 			if (i < layers.size() - 1)
 				layers.get(i).setNextLayer(layers.get(i + 1));
 		}
+
+		//buffers for single sample training, batch training grows them once it knows the batch size
+		allocateWorkspaces(1);
+
+		if (pipeline == null && (pipelineStages > 1 || pipelinePartition != null)) {
+			final int[] stageStarts = pipelinePartition != null
+					? Pipeline.partition(layers, pipelinePartition)
+					: Pipeline.partition(layers, pipelineStages);
+
+			pipeline = new Pipeline(layers, stageStarts, microBatches, seed);
+		}
+
+		weightsChanged();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * takes a new float copy of the weights when the precision is single, called by setup, train and resume
+	 */
+	@Override
+	public final void weightsChanged() {
+		if (precision == Precision.SINGLE)
+			singleWeights = new SingleWeights(layers);
+	}
+
+	/**
+	 * stop the pipeline stage threads and the worker pool, {@link #setup()} starts them again
+	 */
+	@Override
+	public final void close() {
+		if (pipeline != null) {
+			pipeline.close();
+			pipeline = null;
+		}
+
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * after {@link #resume(Path)} training picks up where the checkpoint was taken and runs until epochs in total
+	 * have been trained, the data set has to be passed in the same order as for the run that was checkpointed
+	 */
 	@Override
 	public final void train(final DataSet dataSet, final int epochs, final int batchSize) {
-		layers.forEach(layer -> layer.setMode(Mode.TRAINING));
+		setMode(Mode.TRAINING);
+
+		final int firstEpoch = resumeEpoch, firstPosition = resumePosition;
+
+		resumeEpoch = 0;
+		resumePosition = 0;
+
+		//shuffle the data the same way the checkpointed run did
+		for (int i = 0; i < firstEpoch; i++)
+			replayEpoch(dataSet);
 
 		//will be used for optimization algorithms
 		switch (optimizationAlgorithm) {
 			case STOCHASTIC_GRADIENT_DESCENT -> {
-				for (int i = 0; i < epochs; i++) {
+				for (int i = firstEpoch; i < epochs; i++) {
 					System.out.println("epoch: " + i + " error: " + getError(dataSet));
 
 					//shuffle data
-					dataSet.shuffle();
+					dataSet.shuffle(random);
+
+					//dropout masks of an epoch only depend on the seed so a resumed run gets the same ones
+					workspaces[0].random.setSeed(Workspace.mix(seed + i));
 
 					for (int j = 0; j < dataSet.size(); j++) {
 						//get random data
 						final int randomIndex = random.nextInt(dataSet.size());
 
-						iterate(dataSet.getInput(randomIndex), dataSet.getOutput(randomIndex));
+						iterate(dataSet, randomIndex);
 					}
+
+					checkpoint(i + 1, 0, true);
 				}
 			}
 			case MINI_BATCH_GRADIENT_DESCENT -> {
-				for (int i = 0; i < epochs; i++) {
+				//size the buffers for a full batch now so no batch has to allocate
+				final int shards = Math.min(threads, batchSize);
+
+				if (pipeline == null)
+					allocateWorkspaces((batchSize + shards - 1) / shards);
+
+				for (int i = firstEpoch; i < epochs; i++) {
 					System.out.println("epoch: " + i + " error: " + getError(dataSet));
 
 					//shuffle data
-					dataSet.shuffle();
-
-					//batch training
-					for (int j = 0; j < dataSet.size(); j += batchSize) {
-						//get batch
-						final double[][] batchInput = new double[batchSize][];
-						final double[][] batchOutput = new double[batchSize][];
-
-						for (int k = 0; k < batchSize; k++) {
-							batchInput[k] = dataSet.getInput(j + k);
-							batchOutput[k] = dataSet.getOutput(j + k);
-						}
-
-						for (int k = 0; k < batchSize; k++) {
-							iterate(batchInput[k], batchOutput[k]);
-						}
+					dataSet.shuffle(random);
+
+					//batch training, last batch is smaller if the size isn't a multiple of batchSize
+					for (int j = i == firstEpoch ? firstPosition : 0; j < dataSet.size(); j += batchSize) {
+						iterate(dataSet, j, Math.min(batchSize, dataSet.size() - j));
+
+						if (j + batchSize < dataSet.size())
+							checkpoint(i, j + batchSize, false);
 					}
+
+					checkpoint(i + 1, 0, true);
+				}
+			}
+			case HOGWILD -> {
+				for (int i = firstEpoch; i < epochs; i++) {
+					//shuffle data
+					dataSet.shuffle(random);
+
+					final long start = System.nanoTime();
+
+					final double loss = iterateAsync(dataSet, i);
+
+					samplesPerSecond = dataSet.size() / ((System.nanoTime() - start) / 1e9);
+
+					System.out.println("epoch: " + i + " loss: " + loss + " samples/sec: " + (long) samplesPerSecond);
+
+					checkpoint(i + 1, 0, true);
 				}
 			}
 			case GRADIENT_DESCENT -> {
-				for (int i = 0; i < epochs; i++) {
+				for (int i = firstEpoch; i < epochs; i++) {
 					System.out.println("epoch: " + i + " error: " + getError(dataSet));
 
+					workspaces[0].random.setSeed(Workspace.mix(seed + i));
+
 					for (int j = 0; j < dataSet.size(); j++)
-						iterate(dataSet.getInput(j), dataSet.getOutput(j));
+						iterate(dataSet, j);
+
+					checkpoint(i + 1, 0, true);
 				}
 			}
 		}
+
+		weightsChanged();
+	}
+
+	/**
+	 * train on batches streamed by a loader, its threads read and parse the next batches while this one trains
+	 * <p>
+	 * every epoch reads the file again from the start, the batches come in the order of the file and are as big as
+	 * the batch size of the loader
+	 * <p>
+	 * after {@link #resume(Path)} training continues with the epoch after the checkpoint
+	 * @param loader
+	 * @param epochs
+	 */
+	public final void train(final DataLoader loader, final int epochs) {
+		if (optimizationAlgorithm != OptimizationAlgorithm.MINI_BATCH_GRADIENT_DESCENT)
+			throw new IllegalStateException("streamed data can only be trained with mini-batch gradient descent, not " + optimizationAlgorithm);
+
+		setMode(Mode.TRAINING);
+
+		//checkpoints are only taken at the end of an epoch here, the file is read in the same order every time
+		final int firstEpoch = resumeEpoch;
+
+		resumeEpoch = 0;
+		resumePosition = 0;
+
+		for (int i = firstEpoch; i < epochs; i++) {
+			loader.rewind();
+			loader.resetTimings();
+
+			final long start = System.nanoTime();
+
+			long samples = 0;
+
+			for (DataSet batch = loader.nextBatch(); batch != null; batch = loader.nextBatch()) {
+				iterate(batch, 0, batch.size());
+				samples += batch.size();
+			}
+
+			final long nanos = System.nanoTime() - start;
+
+			System.out.println("epoch: " + i + " samples/sec: " + (long) (samples / (nanos / 1e9))
+					+ " waited for data: " + loader.getWaitNanos() / 1_000_000 + " ms (" + (int) (100.0 * loader.getWaitNanos() / nanos) + "%)");
+
+			checkpoint(i + 1, 0, true);
+		}
+
+		weightsChanged();
+	}
+
+	/**
+	 * use up the randomness of one epoch without training, so the data ends up in the order it had after that epoch
+	 * @param dataSet
+	 */
+	private void replayEpoch(final DataSet dataSet) {
+		switch (optimizationAlgorithm) {
+			case STOCHASTIC_GRADIENT_DESCENT -> {
+				dataSet.shuffle(random);
+
+				for (int j = 0; j < dataSet.size(); j++)
+					random.nextInt(dataSet.size());
+			}
+			case MINI_BATCH_GRADIENT_DESCENT, HOGWILD -> dataSet.shuffle(random);
+			case GRADIENT_DESCENT -> {
+			}
+		}
+	}
+
+	private void checkpoint(final int epoch, final int position, final boolean epochEnd) {
+		if (checkpointer != null)
+			checkpointer.onProgress(this, epoch, position, step, seed, epochEnd);
+	}
+
+	/**
+	 * save checkpoints while training
+	 * @param checkpointer - null to stop
+	 */
+	public final void setCheckpointer(final Checkpointer checkpointer) {
+		this.checkpointer = checkpointer;
+	}
+
+	/**
+	 * load the weights and training state of a checkpoint, the next call to train continues from there
+	 * <p>
+	 * the network has to be built with the same layers (and seed/threads for the same results) and set up first
+	 * @param checkpoint - e.g. from {@link Checkpointer#latest(Path)}
+	 * @throws IOException if the file can't be read or doesn't match the layers
+	 */
+	public final void resume(final Path checkpoint) throws IOException {
+		final ModelFile.TrainingState state = ModelFile.restore(this, checkpoint);
+
+		if (state == null)
+			throw new IOException(checkpoint + " is a model without training state");
+
+		seed = state.seed;
+		step = state.step;
+		resumeEpoch = state.epoch;
+		resumePosition = state.position;
+
+		//the shuffles are replayed from the start by train
+		random = new Random(seed);
+
+		if (pipeline != null)
+			pipeline.setSeed(seed);
+
+		for (int i = 0; i < workspaces.length; i++)
+			workspaces[i].random.setSeed(Workspace.mix(seed + i));
+
+		weightsChanged();
 	}
 
 	@Override
     public final void iterate(final double[] input, final double[] output) {
-        layers.forEach(layer -> layer.setMode(Mode.TRAINING));
+		//getError() switches the layers to prediction mode
+		setMode(Mode.TRAINING);
 
-        //forward propagation
-		double[] lastLayerOutput = input;
-		double[][] lastLayerWeights = null;
+		final Workspace workspace = workspaces[0];
 
-		for (AbstractLayer layer : layers) {
-			layer.computeForward(lastLayerOutput, lastLayerWeights);
+		System.arraycopy(input, 0, workspace.outputs[0], 0, layers.get(0).getSize());
+		System.arraycopy(output, 0, workspace.desired, 0, layers.get(layers.size() - 1).getSize());
 
-			lastLayerOutput = layer.getOutput();
-			lastLayerWeights = layer.getWeights();
-		}
+		trainSample(workspace);
+	}
 
-		//backward propagation
+	/**
+	 * train on one sample of a data set
+	 * @param dataSet
+	 * @param index
+	 */
+	private void iterate(final DataSet dataSet, final int index) {
+		setMode(Mode.TRAINING);
 
-		//basically backpropagate the error from the output layer to the hidden layer
-
-		/*
-		 * output layer weights delta = error * output layer activation function derivative * hidden layer output
-		 * hidden layer weights delta = sum of (error * output layer weights) * hidden layer activation function derivative * input layer output
-		 *
-		 * update weights = weights - learning rate * weights delta
-		 *
-		 * learning rate = 0.1
-		 *
-		 * also weights of a layer are the weights between the current layer and next layer
-		 *
-		 * so if a layer was setup like this:
-		 *
-		 * input layer -> hidden layer -> output layer
-		 *
-		 * then the weights of the input layer are the weights between the input layer and the hidden layer
-		 *
-		 * might change this later
-		 */
-
-		//reverse layers
-		List<AbstractLayer> reversedLayers = new ArrayList<>(layers);
-
-		Collections.reverse(reversedLayers);
-
-		for (final AbstractLayer layer : reversedLayers) {
-			if (layer instanceof InputLayer)
-				continue;
+		trainSample(dataSet, index, workspaces[0]);
+	}
+
+	/**
+	 * copy a sample into the input and desired output buffers of a workspace and train on it
+	 * @return squared error of the sample before the update
+	 */
+	private double trainSample(final DataSet dataSet, final int index, final Workspace workspace) {
+		dataSet.copyInputs(index, 1, workspace.outputs[0], 0);
+		dataSet.copyOutputs(index, 1, workspace.desired, 0);
+
+		return trainSample(workspace);
+	}
+
+	/**
+	 * forward and backward pass for one sample, updating the weights straight away
+	 * <p>
+	 * only the buffers of the workspace are written to (apart from the weights) so nothing is allocated
+	 * <p>
+	 * basically backpropagate the error from the output layer down to the first hidden layer, the errors of a layer
+	 * are passed down before the weights they went through are updated
+	 * <p>
+	 * weights of a layer are the weights between the current layer and next layer, so if a layer was setup like this:
+	 * input layer -> hidden layer -> output layer
+	 * then the weights of the input layer are the weights between the input layer and the hidden layer
+	 * @param workspace - the input is in the output buffer of the input layer, the desired output in desired
+	 * @return squared error of the sample before the update
+	 */
+	private double trainSample(final Workspace workspace) {
+		final double[][] preActivations = workspace.preActivations;
+		final double[][] outputs = workspace.outputs;
+		final double[][] errors = workspace.errors;
+		final double[][] deltas = workspace.deltas;
+		final double[] desired = workspace.desired;
+
+		final int numOutput = layers.get(layers.size() - 1).getSize();
 
-			switch (layer) {
+		final double[] predicted = forward(workspace);
+
+		double error = 0;
+
+		for (int j = 0; j < numOutput; j++)
+			error += (desired[j] - predicted[j]) * (desired[j] - predicted[j]);
+
+		//backward propagation
+		for (int i = layers.size() - 1; i > 0; i--) {
+			switch (layers.get(i)) {
 				case final OutputLayer outLayer -> {
 					//compute error of output layer
-					final double[] outputErrors = outLayer.computeBackprop(layer.getOutput(), output);
+					outLayer.computeBackprop(preActivations[i], outputs[i], desired, errors[i], deltas[i], 1);
+
+					//input layer doesn't need its errors
+					if (i > 1)
+						outLayer.computeInputErrors(deltas[i], errors[i - 1], 1);
 
 					//update weights/biases
-					outLayer.updateWeights(outLayer.getPrevLayer(), outputErrors, outLayer.getPrevLayer().getOutput(), learningRate);
-					outLayer.updateBiases(outputErrors, learningRate);
+					outLayer.updateWeights(outLayer.getPrevLayer(), deltas[i], outputs[i - 1], learningRate);
+					outLayer.updateBiases(deltas[i], learningRate);
+					outLayer.getPrevLayer().getParameterStore().applyMask();
 				}
 				case final DenseHiddenLayer hidLayer -> {
-					//AbstractLayer nextLayer = reversedLayers.get(reversedLayers.indexOf(layer) - 1);
-
 					//compute error of hidden layer
-					final double[] hiddenErrors = hidLayer
-							.computeBackprop(hidLayer.getNextLayer(), hidLayer.getOutput(), hidLayer.getNextLayer().getOutputErrors());
+					hidLayer.computeBackprop(errors[i], preActivations[i], outputs[i], deltas[i], 1);
+
+					if (i > 1)
+						hidLayer.computeInputErrors(deltas[i], errors[i - 1], 1);
 
 					//update weights/biases
-					hidLayer.updateWeights(hidLayer.getPrevLayer(), hiddenErrors, layer.getPrevLayer().getOutput(), learningRate);
-					hidLayer.updateBiases(hiddenErrors, learningRate);
+					hidLayer.updateWeights(hidLayer.getPrevLayer(), deltas[i], outputs[i - 1], learningRate);
+					hidLayer.updateBiases(deltas[i], learningRate);
+					hidLayer.getPrevLayer().getParameterStore().applyMask();
 				}
 				case final DropoutLayer dropLayer -> {
 					//compute error of dropout layer for use in next layer (eg would be dense hidden layer)
-					dropLayer.computeBackprop(dropLayer.getNextLayer().getOutputErrors());
+					dropLayer.computeBackprop(errors[i], workspace.masks[i], errors[i - 1], 1);
 				}
-				default -> throw new IllegalStateException("Unexpected value: " + layer);
+				default -> throw new IllegalStateException("Unexpected value: " + layers.get(i));
+			}
+		}
+
+		return error;
+	}
+
+	/**
+	 * forward pass for one sample in the buffers of a workspace
+	 * @param workspace - the input is in the output buffer of the input layer
+	 * @return output of the last layer (a buffer of the workspace)
+	 */
+	private double[] forward(final Workspace workspace) {
+		final double[][] outputs = workspace.outputs;
+
+		for (int i = 1; i < layers.size(); i++) {
+			final AbstractLayer layer = layers.get(i);
+
+			//dropout layers keep their mask for the backward pass
+			if (layer instanceof final DropoutLayer dropLayer)
+				dropLayer.computeForward(outputs[i - 1], workspace.masks[i], outputs[i], 1, workspace.random);
+			else
+				layer.computeForward(outputs[i - 1], workspace.preActivations[i], outputs[i], layer.getPrevLayer().getParameterStore(), 1, workspace.random);
+		}
+
+		return outputs[layers.size() - 1];
+	}
+
+	/**
+	 * iterate through one batch of data, the gradients of the whole batch are averaged into one update
+	 * <p>
+	 * with more than one thread the batch is split into one part per thread, every thread works out the gradients
+	 * of its part in its own workspace and they are added together in thread order, so a run only depends on
+	 * the seed and the number of threads
+	 * <p>
+	 * package-private so tests can step through batches without the logging of {@link #train(DataSet, int, int)}
+	 * @param dataSet
+	 * @param start - index of the first sample of the batch
+	 * @param batchSize
+	 */
+	final void iterate(final DataSet dataSet, final int start, final int batchSize) {
+		//getError() switches the layers to prediction mode
+		setMode(Mode.TRAINING);
+
+		step++;
+
+		if (pipeline != null) {
+			//micro-batches flow through the stages, the gradients end up in the parameter stores
+			pipeline.computeGradients(dataSet, start, batchSize, step);
+
+			applyGradients(batchSize);
+			return;
+		}
+
+		final int shards = Math.min(threads, batchSize);
+
+		allocateWorkspaces((batchSize + shards - 1) / shards);
+
+		if (threads == 1) {
+			//single workspace shares the gradients of the parameter stores, they go straight in
+			computeGradients(dataSet, start, start + batchSize, 0);
+
+			applyGradients(batchSize);
+			return;
+		}
+
+		pool.invoke(new WorkerTask(shard -> {
+			//shards differ in size by at most one sample
+			final int from = start + (int) ((long) batchSize * shard / shards);
+			final int to = start + (int) ((long) batchSize * (shard + 1) / shards);
+
+			workspaces[shard].clearGradients();
+
+			computeGradients(dataSet, from, to, shard);
+		}, 0, shards));
+
+		//one averaged update for the whole batch
+		final List<ReduceTask> tasks = new ArrayList<>();
+
+		for (int i = 0; i < layers.size(); i++) {
+			if (layers.get(i) instanceof DropoutLayer)
+				continue;
+
+			final ParameterStore store = layers.get(i).getParameterStore();
+
+			for (int j = 0; j < store.getWeights().length; j += REDUCE_BLOCK)
+				tasks.add(new ReduceTask(i, false, j, Math.min(j + REDUCE_BLOCK, store.getWeights().length), shards, learningRate / batchSize));
+
+			tasks.add(new ReduceTask(i, true, 0, store.getBias().length, shards, learningRate / batchSize));
+		}
+
+		pool.invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+
+		//the reduce writes straight into the weights
+		for (final AbstractLayer layer : layers) {
+			if (!(layer instanceof DropoutLayer))
+				layer.getParameterStore().applyMask();
+		}
+	}
+
+	/**
+	 * one averaged update from the gradients in the parameter stores
+	 * @param batchSize
+	 */
+	private void applyGradients(final int batchSize) {
+		for (final AbstractLayer layer : layers) {
+			//dropout layer shares the parameters of the previous layer
+			if (layer instanceof DropoutLayer)
+				continue;
+
+			layer.getParameterStore().applyGradients(learningRate / batchSize);
+		}
+	}
+
+	/**
+	 * forward and backward pass for samples [start, end) of the data set, the gradients are added to the ones of the workspace
+	 * @param dataSet
+	 * @param start
+	 * @param end
+	 * @param worker - index of the workspace to use
+	 */
+	private void computeGradients(final DataSet dataSet, final int start, final int end, final int worker) {
+		final Workspace workspace = workspaces[worker];
+
+		final int batchSize = end - start;
+
+		final double[][] preActivations = workspace.preActivations;
+		final double[][] outputs = workspace.outputs;
+		final double[][] errors = workspace.errors;
+		final double[][] deltas = workspace.deltas;
+		final double[] desired = workspace.desired;
+
+		//same masks for the same seed, batch and thread
+		workspace.random.setSeed(Workspace.mix(seed + step * threads + worker));
+
+		//the input layer just passes its input along so fill its output directly
+		dataSet.copyInputs(start, batchSize, outputs[0], 0);
+		dataSet.copyOutputs(start, batchSize, desired, 0);
+
+		//forward propagation
+		for (int i = 1; i < layers.size(); i++) {
+			final AbstractLayer layer = layers.get(i);
+
+			//dropout layers keep their mask for the backward pass
+			if (layer instanceof final DropoutLayer dropLayer)
+				dropLayer.computeForward(outputs[i - 1], workspace.masks[i], outputs[i], batchSize, workspace.random);
+			else
+				layer.computeForward(outputs[i - 1], preActivations[i], outputs[i], layer.getPrevLayer().getParameterStore(), batchSize, workspace.random);
+		}
+
+		//backward propagation
+		//errors[i] holds the errors with respect to the output of layer i, deltas[i] the errors of layer i itself
+		for (int i = layers.size() - 1; i > 0; i--) {
+			//weights into layer i belong to the layer before it (or the one before a dropout layer)
+			final double[] weightGradients = workspace.weightGradients[workspace.owners[i - 1]];
+
+			switch (layers.get(i)) {
+				case final OutputLayer outLayer -> {
+					outLayer.computeBackprop(preActivations[i], outputs[i], desired, errors[i], deltas[i], batchSize);
+
+					outLayer.accumulateGradients(outputs[i - 1], deltas[i], batchSize, weightGradients, workspace.biasGradients[i]);
+					outLayer.computeInputErrors(deltas[i], errors[i - 1], batchSize);
+				}
+				case final DenseHiddenLayer hidLayer -> {
+					hidLayer.computeBackprop(errors[i], preActivations[i], outputs[i], deltas[i], batchSize);
+
+					hidLayer.accumulateGradients(outputs[i - 1], deltas[i], batchSize, weightGradients, workspace.biasGradients[i]);
+					hidLayer.computeInputErrors(deltas[i], errors[i - 1], batchSize);
+				}
+				case final DropoutLayer dropLayer -> {
+					dropLayer.computeBackprop(errors[i], workspace.masks[i], errors[i - 1], batchSize);
+				}
+				default -> throw new IllegalStateException("Unexpected value: " + layers.get(i));
+			}
+		}
+	}
+
+	/**
+	 * one hogwild epoch, every thread takes samples from a shared cursor and updates the shared weights straight away
+	 * <p>
+	 * there is no locking, threads may read weights while another thread is writing them which is fine as long as
+	 * updates are small compared to the weights
+	 * @param dataSet
+	 * @param epoch
+	 * @return summed squared error of the samples, measured before each of them was trained on
+	 */
+	private double iterateAsync(final DataSet dataSet, final int epoch) {
+		setMode(Mode.TRAINING);
+
+		allocateWorkspaces(1);
+
+		final AtomicInteger cursor = new AtomicInteger();
+		final DoubleAdder loss = new DoubleAdder();
+
+		if (threads == 1)
+			iterateAsync(dataSet, cursor, loss, epoch, 0);
+		else
+			pool.invoke(new WorkerTask(worker -> iterateAsync(dataSet, cursor, loss, epoch, worker), 0, threads));
+
+		return loss.sum();
+	}
+
+	/**
+	 * train on samples from the cursor until the data set runs out
+	 * @param dataSet
+	 * @param cursor - index of the next sample nobody has taken yet
+	 * @param loss - summed squared error of all threads
+	 * @param epoch
+	 * @param worker - index of the workspace to use
+	 */
+	private void iterateAsync(final DataSet dataSet, final AtomicInteger cursor, final DoubleAdder loss, final int epoch, final int worker) {
+		final Workspace workspace = workspaces[worker];
+
+		workspace.random.setSeed(Workspace.mix(seed + (long) epoch * threads + worker));
+
+		double error = 0;
+
+		//take a few samples at a time so threads don't fight over the cursor
+		for (int first = cursor.getAndAdd(HOGWILD_CHUNK); first < dataSet.size(); first = cursor.getAndAdd(HOGWILD_CHUNK)) {
+			final int last = Math.min(first + HOGWILD_CHUNK, dataSet.size());
+
+			for (int sample = first; sample < last; sample++)
+				error += trainSample(dataSet, sample, workspace);
+		}
+
+		loss.add(error);
+	}
+
+	/**
+	 * allocate a workspace per thread if the current ones can't hold capacity samples
+	 * @param capacity
+	 */
+	private void allocateWorkspaces(final int capacity) {
+		if (workspaces != null && workspaces[0].getCapacity() >= capacity)
+			return;
+
+		workspaces = new Workspace[threads];
+
+		//with one thread the gradients can go straight into the parameter stores
+		for (int i = 0; i < threads; i++) {
+			workspaces[i] = new Workspace(layers, capacity, threads > 1);
+			workspaces[i].random.setSeed(Workspace.mix(seed + i));
+		}
+	}
+
+	/**
+	 * set the mode of every layer
+	 * @param mode
+	 */
+	private void setMode(final Mode mode) {
+		for (int i = 0; i < layers.size(); i++)
+			layers.get(i).setMode(mode);
+	}
+
+	/**
+	 * runs workers [first, last) in parallel, splitting in half until there is one worker per task
+	 */
+	private static final class WorkerTask extends RecursiveAction {
+
+		private final IntConsumer worker;
+
+		private final int first, last;
+
+		private WorkerTask(final IntConsumer worker, final int first, final int last) {
+			this.worker = worker;
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected final void compute() {
+			if (last - first > 1) {
+				final int middle = (first + last) >>> 1;
+
+				invokeAll(new WorkerTask(worker, first, middle), new WorkerTask(worker, middle, last));
+				return;
+			}
+
+			worker.accept(first);
+		}
+	}
+
+	/**
+	 * adds the gradients of every thread to part of the weights (or biases) of a layer
+	 * <p>
+	 * threads are always added in the same order so the result doesn't depend on scheduling
+	 */
+	private final class ReduceTask extends RecursiveAction {
+
+		private final int layer, start, end, shards;
+
+		private final boolean bias;
+
+		private final double learningRate;
+
+		private ReduceTask(final int layer, final boolean bias, final int start, final int end, final int shards, final double learningRate) {
+			this.layer = layer;
+			this.bias = bias;
+			this.start = start;
+			this.end = end;
+			this.shards = shards;
+			this.learningRate = learningRate;
+		}
+
+		@Override
+		protected final void compute() {
+			final ParameterStore store = layers.get(layer).getParameterStore();
+
+			final double[] parameters = bias ? store.getBias() : store.getWeights();
+
+			for (int i = 0; i < shards; i++) {
+				final double[] gradients = bias ? workspaces[i].biasGradients[layer] : workspaces[i].weightGradients[layer];
+
+				KERNELS.axpy(learningRate, gradients, start, parameters, start, end - start);
 			}
 		}
 	}
 
 	@Override
 	public final DataSet predict(final DataSet input) {
-		final double[][] output = new double[input.size()][input.getInput(0).length];
+		return predict(input, PREDICTION_BATCH_SIZE);
+	}
+
+	@Override
+	public final DataSet predict(final DataSet input, final int batchSize) {
+		if (precision == Precision.SINGLE)
+			return predictSingle(input, batchSize);
 
-		layers.forEach(layer -> layer.setMode(Mode.PREDICTION));
+		final int numOutput = layers.get(layers.size() - 1).getSize();
 
-		//forward propagation
-		for (int i = 0; i < input.size(); i++) {
-			double[] lastLayerOutput = input.getInput(i);
-			double[][] lastLayerWeights = null;
+		final double[] output = new double[input.size() * numOutput];
+
+		setMode(Mode.PREDICTION);
+
+		if (pipeline != null) {
+			//every micro-batch is one batch of batchSize samples
+			pipeline.predict(input, output, batchSize);
+
+			return input.withOutputs(output, numOutput);
+		}
+
+		//every layer reads from one buffer and writes to the other so they only have to be as big as the widest layer
+		int width = 0;
+
+		for (final AbstractLayer layer : layers)
+			width = Math.max(width, layer.getSize());
+
+		double[] current = new double[batchSize * width];
+		double[] next = new double[batchSize * width];
+
+		for (int start = 0; start < input.size(); start += batchSize) {
+			//last batch can be smaller
+			final int size = Math.min(batchSize, input.size() - start);
 
-			for (AbstractLayer layer : layers) {
-				layer.computeForward(lastLayerOutput, lastLayerWeights);
+			input.copyInputs(start, size, current, 0);
 
-				lastLayerOutput = layer.getOutput();
-				lastLayerWeights = layer.getWeights();
+			//forward propagation
+			ParameterStore lastLayerWeights = null;
+
+			for (final AbstractLayer layer : layers) {
+				layer.computeForward(current, next, lastLayerWeights, size);
+
+				final double[] swap = current;
+				current = next;
+				next = swap;
+
+				lastLayerWeights = layer.getParameterStore();
 			}
 
 			//set the respective output
-			output[i] = lastLayerOutput;
+			System.arraycopy(current, 0, output, start * numOutput, size * numOutput);
 		}
 
-		return new DataSet(input.getInputsArray(), output);
+		return input.withOutputs(output, numOutput);
 	}
 
 	/**
-	 * predict the output of the network using just one input
-	 * @param input the input
-	 * @return the output
+	 * same as {@link #predict(DataSet, int)} but in single precision
+	 * @param input
+	 * @param batchSize
+	 * @return
 	 */
-	private final double[] predict(final double[] input) {
-		layers.forEach(layer -> layer.setMode(Mode.PREDICTION));
+	private DataSet predictSingle(final DataSet input, final int batchSize) {
+		final int numInput = layers.get(0).getSize();
+		final int numOutput = layers.get(layers.size() - 1).getSize();
 
-		//forward propagation
-		double[] lastLayerOutput = input;
-		double[][] lastLayerWeights = null;
+		final double[] output = new double[input.size() * numOutput];
+
+		setMode(Mode.PREDICTION);
 
-		for (AbstractLayer layer : layers) {
-			layer.computeForward(lastLayerOutput, lastLayerWeights);
+		//read the copy once so the whole call uses the same weights even if training replaces it meanwhile
+		final SingleWeights single = singleWeights;
+
+		int width = 0;
+
+		for (final AbstractLayer layer : layers)
+			width = Math.max(width, layer.getSize());
+
+		float[] current = new float[batchSize * width];
+		float[] next = new float[batchSize * width];
+
+		final double[] inputs = new double[batchSize * numInput];
+
+		for (int start = 0; start < input.size(); start += batchSize) {
+			final int size = Math.min(batchSize, input.size() - start);
+
+			input.copyInputs(start, size, inputs, 0);
+
+			for (int i = 0; i < size * numInput; i++)
+				current[i] = (float) inputs[i];
+
+			//forward propagation
+			for (int i = 0; i < layers.size(); i++) {
+				layers.get(i).computeForward(current, next, single.getWeights(i), single.getBias(i), size);
+
+				final float[] swap = current;
+				current = next;
+				next = swap;
+			}
 
-			lastLayerOutput = layer.getOutput();
-			lastLayerWeights = layer.getWeights();
+			for (int i = 0; i < size * numOutput; i++)
+				output[start * numOutput + i] = current[i];
 		}
 
-		return lastLayerOutput;
+		return input.withOutputs(output, numOutput);
+	}
+
+	/**
+	 * compile a read-only copy of the network for predicting from many threads at once
+	 * <p>
+	 * the copy is taken now, training afterwards doesn't change it
+	 * @return
+	 */
+	public final CompiledNetwork compile() {
+		return new CompiledNetwork(layers);
+	}
+
+	/**
+	 * quantize a read-only copy of the network to int8 weights
+	 * @param calibration - samples that look like the ones that will be predicted, used to scale the inputs of each layer
+	 * @return
+	 */
+	public final QuantizedNetwork quantize(final DataSet calibration) {
+		return new QuantizedNetwork(layers, calibration);
+	}
+
+	/**
+	 * get the pipeline, null if only one stage is used
+	 * @return
+	 */
+	public final Pipeline getPipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * get the number of samples per second trained during the last hogwild epoch
+	 * @return
+	 */
+	public final double getSamplesPerSecond() {
+		return samplesPerSecond;
 	}
 
 	/**
@@ -217,13 +918,22 @@ public final class FeedForwardNeuralNetwork extends AbstractNetwork {
 	 * @return the error
 	 */
 	private final double getError(final DataSet dataSet) {
+		setMode(Mode.PREDICTION);
+
+		final int numOutput = layers.get(layers.size() - 1).getSize();
+
 		double error = 0;
 
+		final Workspace workspace = workspaces[0];
+
 		for (int i = 0; i < dataSet.size(); i++) {
-			final double[] output = predict(dataSet.getInput(i));
+			dataSet.copyInputs(i, 1, workspace.outputs[0], 0);
+			dataSet.copyOutputs(i, 1, workspace.desired, 0);
+
+			final double[] output = forward(workspace);
 
-			for (int j = 0; j < output.length; j++) {
-				error += Math.pow(dataSet.getOutput(i)[j] - output[j], 2);
+			for (int j = 0; j < numOutput; j++) {
+				error += Math.pow(workspace.desired[j] - output[j], 2);
 			}
 		}
 
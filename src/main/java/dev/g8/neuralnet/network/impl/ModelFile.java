@@ -0,0 +1,645 @@
+package dev.g8.neuralnet.network.impl;
+
+import dev.g8.neuralnet.components.ParameterStore;
+import dev.g8.neuralnet.functions.activation.ActivationFunction;
+import dev.g8.neuralnet.functions.loss.LossFunction;
+import dev.g8.neuralnet.initializations.WeightInitialization;
+import dev.g8.neuralnet.layers.api.AbstractLayer;
+import dev.g8.neuralnet.layers.impl.DenseHiddenLayer;
+import dev.g8.neuralnet.layers.impl.DropoutLayer;
+import dev.g8.neuralnet.layers.impl.InputLayer;
+import dev.g8.neuralnet.layers.impl.OutputLayer;
+import dev.g8.neuralnet.math.Precision;
+import dev.g8.neuralnet.network.api.AbstractNetwork;
+import dev.g8.neuralnet.optimizations.OptimizationAlgorithm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * binary file holding the architecture of a network and its weights
+ * <p>
+ * layout (everything little-endian):
+ * <pre>
+ * header  magic "G8NN", version, header size, layer count,
+ *         network class, learning rate, optimization algorithm, precision,
+ *         one record per layer (type, sizes, functions and the offsets of its weight and bias blocks),
+ *         training state (only in checkpoints, since version 2)
+ * blocks  raw weights and biases as doubles, every block starts on a page boundary
+ * </pre>
+ * {@link #load(Path)} copies the weights into a network that can be trained further, {@link #map(Path)} memory-maps
+ * them into a {@link CompiledNetwork} without copying, so a big model is ready in milliseconds and processes
+ * serving the same file share one copy of it through the page cache
+ * <p>
+ * checkpoints written by {@link Checkpointer} use the same format, so they can be loaded or served like any other model
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public final class ModelFile {
+
+    /**
+     * bumped whenever the layout changes, files with a newer version are refused
+     */
+    public static final int VERSION = 2;
+
+    //"G8NN" read as a little-endian int
+    private static final int MAGIC = 0x4E4E3847;
+
+    /**
+     * blocks start on a page so they can be mapped on their own
+     */
+    private static final int ALIGNMENT = 4096;
+
+    private static final byte INPUT = 0, DENSE = 1, DROPOUT = 2, OUTPUT = 3;
+
+    private ModelFile() {
+    }
+
+    /**
+     * write a network to a file, the file is replaced in one step so readers never see half a model
+     * @param network
+     * @param path
+     * @throws IOException
+     */
+    public static void save(final AbstractNetwork network, final Path path) throws IOException {
+        write(network, blocksOf(network), null, path);
+    }
+
+    /**
+     * get the weights and biases of every layer that has parameters, in the order they are written (not copies)
+     * @param network
+     * @return
+     */
+    static double[][] blocksOf(final AbstractNetwork network) {
+        final List<double[]> blocks = new ArrayList<>();
+
+        for (final AbstractLayer layer : network.getLayers()) {
+            //dropout layer shares the parameters of the previous layer
+            if (layer instanceof DropoutLayer)
+                continue;
+
+            blocks.add(layer.getParameterStore().getWeights());
+            blocks.add(layer.getParameterStore().getBias());
+        }
+
+        return blocks.toArray(new double[0][]);
+    }
+
+    /**
+     * write the architecture of a network with the given weights and biases
+     * @param network
+     * @param blocks - same shapes as {@link #blocksOf(AbstractNetwork)}, e.g. a copy taken earlier
+     * @param state - null for a plain model
+     * @param path
+     * @throws IOException
+     */
+    static void write(final AbstractNetwork network, final double[][] blocks, final TrainingState state, final Path path) throws IOException {
+        final List<AbstractLayer> layers = network.getLayers();
+
+        final HeaderWriter header = new HeaderWriter();
+
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+
+        final int headerSizePosition = header.putInt(0);
+
+        header.putInt(layers.size());
+        header.putString(network.getClass().getName());
+        header.putDouble(network.getLearningRate());
+        header.putString(nameOf(network.getOptimizationAlgorithm()));
+        header.putString(nameOf(network.getPrecision()));
+
+        //where the offsets of each layer go once the size of the header is known
+        final int[] offsetPositions = new int[layers.size()];
+
+        for (int i = 0; i < layers.size(); i++) {
+            final AbstractLayer layer = layers.get(i);
+
+            switch (layer) {
+                case final DropoutLayer dropLayer -> {
+                    header.putByte(DROPOUT);
+                    header.putInt(dropLayer.getSize());
+                    header.putDouble(dropLayer.getDropoutRate());
+
+                    offsetPositions[i] = -1;
+                    continue;
+                }
+                case final InputLayer inLayer -> {
+                    header.putByte(INPUT);
+                    header.putString(nameOf(inLayer.getWeightInitialization()));
+                    header.putString("");
+                    header.putString("");
+                }
+                case final DenseHiddenLayer hidLayer -> {
+                    header.putByte(DENSE);
+                    header.putString(nameOf(hidLayer.getWeightInitialization()));
+                    header.putString(nameOf(hidLayer.getActivationFunction()));
+                    header.putString("");
+                }
+                case final OutputLayer outLayer -> {
+                    header.putByte(OUTPUT);
+                    header.putString(nameOf(outLayer.getWeightInitialization()));
+                    header.putString(nameOf(outLayer.getActivationFunction()));
+                    header.putString(nameOf(outLayer.getLossFunction()));
+                }
+                default -> throw new IllegalStateException("Unexpected value: " + layer);
+            }
+
+            final ParameterStore store = layer.getParameterStore();
+
+            header.putByte((byte) (layer.isFastMath() ? 1 : 0));
+            header.putInt(store.getRows());
+            header.putInt(store.getColumns());
+
+            offsetPositions[i] = header.putLong(0);
+            header.putLong(0);
+        }
+
+        header.putByte((byte) (state != null ? 1 : 0));
+
+        if (state != null) {
+            header.putInt(state.epoch);
+            header.putInt(state.position);
+            header.putLong(state.step);
+            header.putLong(state.seed);
+        }
+
+        header.patchInt(headerSizePosition, header.position());
+
+        //lay the blocks out after the header
+        final long[] offsets = new long[blocks.length];
+
+        long offset = header.position();
+
+        for (int i = 0; i < blocks.length; i++) {
+            offset = align(offset);
+            offsets[i] = offset;
+            offset += (long) blocks[i].length << 3;
+        }
+
+        for (int i = 0, block = 0; i < layers.size(); i++) {
+            if (offsetPositions[i] < 0)
+                continue;
+
+            header.patchLong(offsetPositions[i], offsets[block]);
+            header.patchLong(offsetPositions[i] + 8, offsets[block + 1]);
+
+            block += 2;
+        }
+
+        final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        boolean committed = false;
+
+        try {
+            try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                writeFully(channel, header.toBuffer(), 0);
+
+                final ByteBuffer chunk = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+                for (int i = 0; i < blocks.length; i++)
+                    writeBlock(channel, offsets[i], blocks[i], chunk);
+
+                channel.force(true);
+            }
+
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            committed = true;
+        } finally {
+            //failed half way, don't leave the temporary file behind
+            if (!committed)
+                Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * read a network from a file, the weights are copied so it can be trained further
+     * <p>
+     * {@link AbstractNetwork#setup()} still has to be called like for a new network
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static AbstractNetwork load(final Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final Header header = readHeader(channel);
+
+            final List<AbstractLayer> layers = new ArrayList<>();
+
+            for (final LayerRecord record : header.layers) {
+                final AbstractLayer layer = switch (record.type) {
+                    case INPUT -> new InputLayer(record.columns, record.rows, record.weightInitialization);
+                    case DENSE -> new DenseHiddenLayer(record.columns, record.rows, record.activationFunction, record.weightInitialization);
+                    case OUTPUT -> new OutputLayer(record.columns, record.rows, record.activationFunction, record.lossFunction, record.weightInitialization);
+                    default -> new DropoutLayer(record.columns, record.dropoutRate);
+                };
+
+                if (record.type != DROPOUT) {
+                    final ParameterStore store = layer.getParameterStore();
+
+                    readBlock(channel, record.weightsOffset, store.getWeights());
+                    readBlock(channel, record.biasOffset, store.getBias());
+
+                    layer.setFastMath(record.fastMath);
+                }
+
+                layers.add(layer);
+            }
+
+            final Class<? extends AbstractNetwork> clazz;
+
+            try {
+                clazz = Class.forName(header.networkClass).asSubclass(AbstractNetwork.class);
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("unknown network class: " + header.networkClass, e);
+            }
+
+            return new AbstractNetwork.NetworkBuilder(clazz)
+                    .withLearningRate(header.learningRate)
+                    .withOptimizationAlgorithm(header.optimizationAlgorithm)
+                    .withPrecision(header.precision != null ? header.precision : Precision.DOUBLE)
+                    .withLayers(layers.toArray(new AbstractLayer[0]))
+                    .build();
+        }
+    }
+
+    /**
+     * copy the weights of a file into a network with the same layers
+     * @param network
+     * @param path
+     * @return training state of the file, null if it isn't a checkpoint
+     * @throws IOException if the file doesn't match the layers of the network
+     */
+    static TrainingState restore(final AbstractNetwork network, final Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final Header header = readHeader(channel);
+            final List<AbstractLayer> layers = network.getLayers();
+
+            if (header.layers.size() != layers.size())
+                throw new IOException("model file has " + header.layers.size() + " layers but the network has " + layers.size());
+
+            //check everything before touching the weights
+            for (int i = 0; i < layers.size(); i++) {
+                final LayerRecord record = header.layers.get(i);
+                final AbstractLayer layer = layers.get(i);
+
+                final byte type = switch (layer) {
+                    case final InputLayer ignored -> INPUT;
+                    case final DenseHiddenLayer ignored -> DENSE;
+                    case final OutputLayer ignored -> OUTPUT;
+                    case final DropoutLayer ignored -> DROPOUT;
+                    default -> throw new IllegalStateException("Unexpected value: " + layer);
+                };
+
+                final boolean matches = type == DROPOUT
+                        ? record.type == DROPOUT && record.columns == layer.getSize()
+                        : record.type == type && record.rows == layer.getParameterStore().getRows() && record.columns == layer.getParameterStore().getColumns();
+
+                if (!matches)
+                    throw new IOException("layer " + i + " of the model file doesn't match " + layer.getClass().getSimpleName());
+            }
+
+            for (int i = 0; i < layers.size(); i++) {
+                final LayerRecord record = header.layers.get(i);
+
+                if (record.type == DROPOUT)
+                    continue;
+
+                readBlock(channel, record.weightsOffset, layers.get(i).getParameterStore().getWeights());
+                readBlock(channel, record.biasOffset, layers.get(i).getParameterStore().getBias());
+            }
+
+            return header.state;
+        }
+    }
+
+    /**
+     * memory-map a network for predictions, the weights stay in the file and are paged in when first used
+     * <p>
+     * the mapping stays valid after the file is closed and lives as long as the returned network
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static CompiledNetwork map(final Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final Header header = readHeader(channel);
+
+            final List<CompiledNetwork.Stage> stages = new ArrayList<>();
+
+            //the weights into a layer belong to the layer before it (skipping dropout layers)
+            LayerRecord previous = null;
+
+            for (final LayerRecord record : header.layers) {
+                if (record.type == DROPOUT)
+                    continue;
+
+                if (record.type != INPUT) {
+                    if (previous == null || previous.rows != record.columns)
+                        throw new IOException("corrupt model file: layer sizes don't match");
+
+                    final long length = (long) previous.rows * previous.columns << 3;
+
+                    if (length > Integer.MAX_VALUE)
+                        throw new IOException("layer too big to map: " + length + " bytes");
+
+                    final ByteBuffer weights = channel.map(FileChannel.MapMode.READ_ONLY, previous.weightsOffset, length)
+                            .order(ByteOrder.LITTLE_ENDIAN);
+
+                    //biases are tiny next to the weights so they are copied
+                    final double[] bias = new double[record.columns];
+
+                    readBlock(channel, record.biasOffset, bias);
+
+                    stages.add(new CompiledNetwork.Stage(weights, bias, previous.columns, record.activationFunction, record.fastMath));
+                }
+
+                previous = record;
+            }
+
+            if (stages.isEmpty())
+                throw new IOException("model file has no layers with weights");
+
+            return new CompiledNetwork(stages.toArray(new CompiledNetwork.Stage[0]), header.layers.get(0).columns);
+        }
+    }
+
+    private static Header readHeader(final FileChannel channel) throws IOException {
+        final ByteBuffer start = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+
+        readFully(channel, start, 0);
+
+        if (start.getInt(0) != MAGIC)
+            throw new IOException("not a model file");
+
+        final int version = start.getInt(4);
+
+        if (version < 1 || version > VERSION)
+            throw new IOException("unsupported model file version: " + version);
+
+        final int headerSize = start.getInt(8);
+
+        if (headerSize < 16 || headerSize > channel.size())
+            throw new IOException("corrupt model file: bad header size " + headerSize);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+
+        readFully(channel, buffer, 0);
+
+        buffer.position(12);
+
+        try {
+            final Header header = new Header();
+
+            final int layerCount = buffer.getInt();
+
+            header.networkClass = getString(buffer);
+            header.learningRate = buffer.getDouble();
+            header.optimizationAlgorithm = valueOf(OptimizationAlgorithm.class, getString(buffer));
+            header.precision = valueOf(Precision.class, getString(buffer));
+
+            for (int i = 0; i < layerCount; i++) {
+                final LayerRecord record = new LayerRecord();
+
+                record.type = buffer.get();
+
+                if (record.type == DROPOUT) {
+                    record.columns = buffer.getInt();
+                    record.dropoutRate = buffer.getDouble();
+                } else if (record.type >= INPUT && record.type <= OUTPUT) {
+                    record.weightInitialization = valueOf(WeightInitialization.class, getString(buffer));
+                    record.activationFunction = valueOf(ActivationFunction.class, getString(buffer));
+                    record.lossFunction = valueOf(LossFunction.class, getString(buffer));
+                    record.fastMath = buffer.get() != 0;
+                    record.rows = buffer.getInt();
+                    record.columns = buffer.getInt();
+                    record.weightsOffset = buffer.getLong();
+                    record.biasOffset = buffer.getLong();
+
+                    if (record.weightsOffset + ((long) record.rows * record.columns << 3) > channel.size()
+                            || record.biasOffset + ((long) record.columns << 3) > channel.size())
+                        throw new IOException("corrupt model file: block past the end of the file");
+                } else
+                    throw new IOException("corrupt model file: unknown layer type " + record.type);
+
+                header.layers.add(record);
+            }
+
+            if (version >= 2 && buffer.get() != 0)
+                header.state = new TrainingState(buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.getLong());
+
+            if (header.layers.isEmpty() || header.layers.get(0).type != INPUT)
+                throw new IOException("corrupt model file: first layer is not an input layer");
+
+            return header;
+        } catch (RuntimeException e) {
+            //buffer underflows and unknown enum names
+            throw new IOException("corrupt model file", e);
+        }
+    }
+
+    private static void writeBlock(final FileChannel channel, long position, final double[] values, final ByteBuffer chunk) throws IOException {
+        for (int i = 0; i < values.length; ) {
+            final int count = Math.min(values.length - i, chunk.capacity() >> 3);
+
+            chunk.clear();
+            chunk.asDoubleBuffer().put(values, i, count);
+            chunk.limit(count << 3);
+
+            writeFully(channel, chunk, position);
+
+            position += (long) count << 3;
+            i += count;
+        }
+    }
+
+    private static void readBlock(final FileChannel channel, long position, final double[] values) throws IOException {
+        final ByteBuffer chunk = ByteBuffer.allocate(Math.min(1 << 16, Math.max(8, values.length << 3))).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int i = 0; i < values.length; ) {
+            final int count = Math.min(values.length - i, chunk.capacity() >> 3);
+
+            chunk.clear();
+            chunk.limit(count << 3);
+
+            readFully(channel, chunk, position);
+
+            chunk.flip();
+            chunk.asDoubleBuffer().get(values, i, count);
+
+            position += (long) count << 3;
+            i += count;
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+
+            if (read < 0)
+                throw new IOException("corrupt model file: unexpected end of file");
+
+            position += read;
+        }
+    }
+
+    private static long align(final long offset) {
+        return (offset + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    private static String nameOf(final Enum<?> value) {
+        return value == null ? "" : value.name();
+    }
+
+    private static <T extends Enum<T>> T valueOf(final Class<T> type, final String name) {
+        return name.isEmpty() ? null : Enum.valueOf(type, name);
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * growing little-endian buffer the header is built in
+     */
+    private static final class HeaderWriter {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+
+        private ByteBuffer ensure(final int bytes) {
+            if (buffer.remaining() < bytes) {
+                final ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+
+                buffer.flip();
+                grown.put(buffer);
+
+                buffer = grown;
+            }
+
+            return buffer;
+        }
+
+        /**
+         * @return position the value was written at
+         */
+        private int putInt(final int value) {
+            final int position = buffer.position();
+
+            ensure(4).putInt(value);
+
+            return position;
+        }
+
+        private int putLong(final long value) {
+            final int position = buffer.position();
+
+            ensure(8).putLong(value);
+
+            return position;
+        }
+
+        private void putByte(final byte value) {
+            ensure(1).put(value);
+        }
+
+        private void putDouble(final double value) {
+            ensure(8).putDouble(value);
+        }
+
+        private void putString(final String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+            ensure(2 + bytes.length).putShort((short) bytes.length).put(bytes);
+        }
+
+        private void patchInt(final int position, final int value) {
+            buffer.putInt(position, value);
+        }
+
+        private void patchLong(final int position, final long value) {
+            buffer.putLong(position, value);
+        }
+
+        private int position() {
+            return buffer.position();
+        }
+
+        private ByteBuffer toBuffer() {
+            return buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).flip();
+        }
+    }
+
+    private static final class Header {
+        private String networkClass;
+        private double learningRate;
+        private OptimizationAlgorithm optimizationAlgorithm;
+        private Precision precision;
+        private final List<LayerRecord> layers = new ArrayList<>();
+        private TrainingState state;
+    }
+
+    /**
+     * where training was when a checkpoint was taken
+     */
+    static final class TrainingState {
+
+        /**
+         * epoch and index of the next sample to train on in that epoch
+         */
+        final int epoch, position;
+
+        /**
+         * number of batches trained so far
+         */
+        final long step;
+
+        final long seed;
+
+        TrainingState(final int epoch, final int position, final long step, final long seed) {
+            this.epoch = epoch;
+            this.position = position;
+            this.step = step;
+            this.seed = seed;
+        }
+    }
+
+    private static final class LayerRecord {
+        private byte type;
+        private boolean fastMath;
+
+        /**
+         * shape of the parameter store, for dropout layers columns is the size
+         */
+        private int rows, columns;
+
+        private double dropoutRate;
+
+        private WeightInitialization weightInitialization;
+        private ActivationFunction activationFunction;
+        private LossFunction lossFunction;
+
+        private long weightsOffset, biasOffset;
+    }
+
+}
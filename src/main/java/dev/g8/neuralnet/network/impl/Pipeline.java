@@ -0,0 +1,595 @@
+package dev.g8.neuralnet.network.impl;
+
+import dev.g8.neuralnet.layers.api.AbstractLayer;
+import dev.g8.neuralnet.layers.impl.DenseHiddenLayer;
+import dev.g8.neuralnet.layers.impl.DropoutLayer;
+import dev.g8.neuralnet.layers.impl.OutputLayer;
+import dev.g8.neuralnet.utils.objects.DataSet;
+
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * pipeline-parallel execution, consecutive groups of layers (stages) each run on their own thread
+ * <p>
+ * a batch is split into micro-batches which flow from stage to stage (GPipe style), so while one stage works on
+ * micro-batch 2 the stage before it can already work on micro-batch 3
+ * <p>
+ * when training the last stage starts the backward pass of a micro-batch as soon as its forward pass is done and the
+ * errors flow back through the stages the same way, gradients are added to the parameter stores in micro-batch order
+ * so the result doesn't depend on timing
+ * <p>
+ * stages pass micro-batch indices through {@link SpscQueue}s, every micro-batch has its own {@link Workspace}
+ * <p>
+ * a stage is idle (a bubble) while the pipeline fills and drains, {@link #getBubbleFraction(int)} shows how much
+ * so the partition can be rebalanced
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public final class Pipeline {
+
+    /**
+     * number of times an idle thread checks its queues before going to sleep until something is sent to it
+     */
+    private static final int SPINS = 1 << 10;
+
+    private final List<AbstractLayer> layers;
+
+    private final Stage[] stages;
+
+    private final int microBatches;
+
+    /**
+     * only read by the thread that calls {@link #computeGradients}
+     */
+    private long seed;
+
+    /**
+     * micro-batch index -> finished, read by the calling thread
+     */
+    private final SpscQueue done;
+
+    private volatile Thread waiter;
+
+    private volatile boolean waiterParked;
+
+    private Workspace[] slots;
+
+    /**
+     * number of samples and index of the first sample in each slot
+     */
+    private final int[] sizes, starts;
+
+    /**
+     * true while training, otherwise the last stage hands micro-batches straight back
+     */
+    private volatile boolean training;
+
+    private volatile boolean running = true;
+
+    private volatile Throwable failure;
+
+    /**
+     * wall time spent in {@link #computeGradients} and {@link #predict} since the last reset
+     */
+    private long runNanos;
+
+    /**
+     * @param layers
+     * @param stageStarts - index of the first layer of every stage, the first stage has to start at layer 1
+     * @param microBatches - number of micro-batches a batch is split into
+     * @param seed
+     */
+    Pipeline(final List<AbstractLayer> layers, final int[] stageStarts, final int microBatches, final long seed) {
+        this.layers = layers;
+        this.microBatches = microBatches;
+        this.seed = seed;
+
+        this.done = new SpscQueue(microBatches);
+        this.sizes = new int[microBatches];
+        this.starts = new int[microBatches];
+
+        stages = new Stage[stageStarts.length];
+
+        for (int i = 0; i < stages.length; i++) {
+            final int end = i == stages.length - 1 ? layers.size() : stageStarts[i + 1];
+
+            stages[i] = new Stage(i, stageStarts[i], end);
+        }
+
+        for (final Stage stage : stages) {
+            stage.thread.setDaemon(true);
+            stage.thread.start();
+        }
+    }
+
+    /**
+     * split the layers after the input layer into stages with about the same number of weights each
+     * @param layers
+     * @param stages
+     * @return index of the first layer of every stage
+     */
+    static int[] partition(final List<AbstractLayer> layers, final int stages) {
+        if (stages < 1 || stages > layers.size() - 1)
+            throw new IllegalArgumentException("can't split " + (layers.size() - 1) + " layers into " + stages + " stages");
+
+        final long[] costs = new long[layers.size()];
+
+        long total = 0;
+
+        for (int i = 1; i < layers.size(); i++) {
+            //dropout layers cost next to nothing
+            if (!(layers.get(i) instanceof DropoutLayer))
+                costs[i] = layers.get(i).getPrevLayer().getParameterStore().getWeights().length;
+
+            total += costs[i];
+        }
+
+        final int[] starts = new int[stages];
+        starts[0] = 1;
+
+        long sum = 0;
+        int stage = 1;
+
+        for (int i = 1; i < layers.size() - 1 && stage < stages; i++) {
+            sum += costs[i];
+
+            //cut once this stage has its share, or when every stage after it needs one of the layers left
+            if (sum * stages >= total * stage || layers.size() - 1 - i == stages - stage)
+                starts[stage++] = i + 1;
+        }
+
+        return starts;
+    }
+
+    /**
+     * turn a number of layers per stage into the index of the first layer of every stage
+     * @param layers
+     * @param layersPerStage - number of layers (not counting the input layer) in each stage
+     * @return
+     */
+    static int[] partition(final List<AbstractLayer> layers, final int[] layersPerStage) {
+        final int[] starts = new int[layersPerStage.length];
+
+        int start = 1;
+
+        for (int i = 0; i < layersPerStage.length; i++) {
+            if (layersPerStage[i] < 1)
+                throw new IllegalArgumentException("every stage needs at least one layer");
+
+            starts[i] = start;
+            start += layersPerStage[i];
+        }
+
+        if (start != layers.size())
+            throw new IllegalArgumentException("stages hold " + (start - 1) + " layers but the network has " + (layers.size() - 1) + " after the input layer");
+
+        return starts;
+    }
+
+    /**
+     * work out the gradients of samples [start, start + batchSize) of the data set and add them to the parameter stores
+     * <p>
+     * blocks until every micro-batch has gone through the whole pipeline and back
+     * @param dataSet
+     * @param start
+     * @param batchSize
+     * @param step - number of the batch, used to seed the randomness
+     */
+    void computeGradients(final DataSet dataSet, final int start, final int batchSize, final long step) {
+        checkFailure();
+
+        final int micro = Math.min(microBatches, batchSize);
+
+        ensureCapacity((batchSize + micro - 1) / micro);
+
+        final long begin = System.nanoTime();
+
+        training = true;
+        waiter = Thread.currentThread();
+
+        for (int m = 0; m < micro; m++) {
+            //micro-batches differ in size by at most one sample
+            final int from = start + (int) ((long) batchSize * m / micro);
+            final int to = start + (int) ((long) batchSize * (m + 1) / micro);
+
+            final Workspace slot = slots[m];
+
+            dataSet.copyInputs(from, to - from, slot.outputs[0], 0);
+            dataSet.copyOutputs(from, to - from, slot.desired, 0);
+
+            sizes[m] = to - from;
+            slot.random.setSeed(Workspace.mix(seed + step * microBatches + m));
+
+            stages[0].send(stages[0].forward, m);
+        }
+
+        for (int finished = 0; finished < micro; finished++)
+            awaitDone();
+
+        runNanos += System.nanoTime() - begin;
+    }
+
+    /**
+     * predict the outputs of a data set, each micro-batch holds up to microBatchSize samples
+     * @param input
+     * @param output - written to, shape of [size of input][size of the output layer]
+     * @param microBatchSize
+     */
+    void predict(final DataSet input, final double[] output, final int microBatchSize) {
+        checkFailure();
+
+        ensureCapacity(microBatchSize);
+
+        final long begin = System.nanoTime();
+
+        training = false;
+        waiter = Thread.currentThread();
+
+        int next = 0, inFlight = 0;
+
+        //fill every slot first, then refill a slot whenever its micro-batch comes out
+        for (int m = 0; m < microBatches && next < input.size(); m++) {
+            next = load(input, m, next, microBatchSize);
+            inFlight++;
+        }
+
+        while (inFlight > 0) {
+            final int m = awaitDone();
+
+            collect(output, m);
+            inFlight--;
+
+            if (next < input.size()) {
+                next = load(input, m, next, microBatchSize);
+                inFlight++;
+            }
+        }
+
+        runNanos += System.nanoTime() - begin;
+    }
+
+    private int load(final DataSet input, final int m, final int start, final int microBatchSize) {
+        final int end = Math.min(start + microBatchSize, input.size());
+
+        input.copyInputs(start, end - start, slots[m].outputs[0], 0);
+
+        starts[m] = start;
+        sizes[m] = end - start;
+
+        stages[0].send(stages[0].forward, m);
+
+        return end;
+    }
+
+    private void collect(final double[] output, final int m) {
+        final int numOutput = layers.get(layers.size() - 1).getSize();
+
+        final double[] predicted = slots[m].outputs[layers.size() - 1];
+
+        System.arraycopy(predicted, 0, output, starts[m] * numOutput, sizes[m] * numOutput);
+    }
+
+    /**
+     * wait until a micro-batch comes out of the pipeline
+     * @return index of the micro-batch
+     */
+    private int awaitDone() {
+        int spins = 0;
+
+        while (true) {
+            final int m = done.poll();
+
+            if (m != SpscQueue.EMPTY)
+                return m;
+
+            checkFailure();
+
+            if (++spins < SPINS) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            //has to be set before checking the queue again, the stage checks it after adding to the queue
+            waiterParked = true;
+
+            if (done.isEmpty() && failure == null)
+                LockSupport.park(this);
+
+            waiterParked = false;
+            spins = 0;
+        }
+    }
+
+    private void finish(final int m) {
+        done.offer(m);
+
+        if (waiterParked)
+            LockSupport.unpark(waiter);
+    }
+
+    /**
+     * make sure every slot can hold capacity samples, only called between runs
+     * @param capacity
+     */
+    private void ensureCapacity(final int capacity) {
+        if (slots != null && slots[0].getCapacity() >= capacity)
+            return;
+
+        slots = new Workspace[microBatches];
+
+        //gradients go straight into the parameter stores, every layer is only ever run by one stage
+        for (int i = 0; i < microBatches; i++)
+            slots[i] = new Workspace(layers, capacity, false);
+    }
+
+    private void checkFailure() {
+        if (failure != null)
+            throw new IllegalStateException("pipeline stage failed", failure);
+    }
+
+    /**
+     * stop the stage threads
+     */
+    public final void close() {
+        running = false;
+
+        for (final Stage stage : stages)
+            LockSupport.unpark(stage.thread);
+    }
+
+    /**
+     * change the seed the randomness of every batch is derived from (e.g. when resuming from a checkpoint)
+     * @param seed
+     */
+    final void setSeed(final long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * zero the timings
+     */
+    public final void resetTimings() {
+        runNanos = 0;
+
+        for (final Stage stage : stages)
+            stage.busyNanos = 0;
+    }
+
+    public final int getStages() {
+        return stages.length;
+    }
+
+    public final int getMicroBatches() {
+        return microBatches;
+    }
+
+    /**
+     * get the index of the first layer of a stage
+     * @param stage
+     * @return
+     */
+    public final int getStageStart(final int stage) {
+        return stages[stage].start;
+    }
+
+    /**
+     * get the index after the last layer of a stage
+     * @param stage
+     * @return
+     */
+    public final int getStageEnd(final int stage) {
+        return stages[stage].end;
+    }
+
+    /**
+     * get the time a stage spent working since the last reset
+     * @param stage
+     * @return nanoseconds
+     */
+    public final long getBusyNanos(final int stage) {
+        return stages[stage].busyNanos;
+    }
+
+    /**
+     * get the time a stage spent waiting for work while the pipeline was running since the last reset
+     * @param stage
+     * @return nanoseconds
+     */
+    public final long getIdleNanos(final int stage) {
+        return Math.max(0, runNanos - stages[stage].busyNanos);
+    }
+
+    /**
+     * get the part of the running time a stage was idle, the stage with the lowest one is the bottleneck
+     * @param stage
+     * @return between 0 and 1
+     */
+    public final double getBubbleFraction(final int stage) {
+        return runNanos == 0 ? 0 : (double) getIdleNanos(stage) / runNanos;
+    }
+
+    /**
+     * print the layers, busy and idle time of every stage
+     */
+    public final void printTimings() {
+        System.out.println("Pipeline: " + stages.length + " stages, " + microBatches + " micro-batches, " + runNanos / 1_000_000 + " ms");
+
+        for (int i = 0; i < stages.length; i++) {
+            System.out.printf("\tstage %d: layers %d-%d busy %d ms idle %d ms bubble %.1f%%%n", i, stages[i].start, stages[i].end - 1,
+                    getBusyNanos(i) / 1_000_000, getIdleNanos(i) / 1_000_000, getBubbleFraction(i) * 100);
+        }
+    }
+
+    /**
+     * layers [start, end) and the thread running them
+     */
+    private final class Stage implements Runnable {
+
+        private final int index, start, end;
+
+        private final Thread thread;
+
+        /**
+         * micro-batches coming from the stage before (forward) and the stage after (backward)
+         */
+        private final SpscQueue forward, backward;
+
+        private volatile boolean parked;
+
+        /**
+         * only written by the stage thread
+         */
+        private volatile long busyNanos;
+
+        private Stage(final int index, final int start, final int end) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+
+            this.forward = new SpscQueue(microBatches);
+            this.backward = new SpscQueue(microBatches);
+
+            this.thread = new Thread(this, "pipeline-stage-" + index);
+        }
+
+        /**
+         * add a micro-batch to one of the queues of this stage and wake it up if it is asleep
+         * @param queue
+         * @param m
+         */
+        private void send(final SpscQueue queue, final int m) {
+            //every micro-batch is in at most one queue so this can't fail
+            queue.offer(m);
+
+            if (parked)
+                LockSupport.unpark(thread);
+        }
+
+        @Override
+        public final void run() {
+            int spins = 0;
+
+            while (running) {
+                //backward first so finished micro-batches leave the pipeline as early as possible
+                int m = backward.poll();
+
+                final boolean isBackward = m != SpscQueue.EMPTY;
+
+                if (!isBackward)
+                    m = forward.poll();
+
+                if (m == SpscQueue.EMPTY) {
+                    if (++spins < SPINS) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+
+                    //has to be set before checking the queues again, senders check it after adding to a queue
+                    parked = true;
+
+                    if (forward.isEmpty() && backward.isEmpty() && running)
+                        LockSupport.park(this);
+
+                    parked = false;
+                    spins = 0;
+                    continue;
+                }
+
+                spins = 0;
+
+                try {
+                    process(m, isBackward);
+                } catch (Throwable throwable) {
+                    failure = throwable;
+
+                    LockSupport.unpark(waiter);
+                }
+            }
+        }
+
+        private void process(final int m, final boolean isBackward) {
+            final long begin = System.nanoTime();
+
+            if (isBackward) {
+                backward(m);
+            } else {
+                forward(m);
+
+                //last stage turns the micro-batch around straight away
+                if (training && index == stages.length - 1)
+                    backward(m);
+            }
+
+            busyNanos += System.nanoTime() - begin;
+
+            if (isBackward || (training && index == stages.length - 1)) {
+                if (index == 0)
+                    finish(m);
+                else
+                    stages[index - 1].send(stages[index - 1].backward, m);
+            } else {
+                if (index == stages.length - 1)
+                    finish(m);
+                else
+                    stages[index + 1].send(stages[index + 1].forward, m);
+            }
+        }
+
+        private void forward(final int m) {
+            final Workspace slot = slots[m];
+
+            for (int i = start; i < end; i++) {
+                final AbstractLayer layer = layers.get(i);
+
+                //dropout layers keep their mask for the backward pass
+                if (layer instanceof final DropoutLayer dropLayer)
+                    dropLayer.computeForward(slot.outputs[i - 1], slot.masks[i], slot.outputs[i], sizes[m], slot.random);
+                else
+                    layer.computeForward(slot.outputs[i - 1], slot.preActivations[i], slot.outputs[i], layer.getPrevLayer().getParameterStore(), sizes[m], slot.random);
+            }
+        }
+
+        private void backward(final int m) {
+            final Workspace slot = slots[m];
+
+            final int batchSize = sizes[m];
+
+            final double[][] preActivations = slot.preActivations;
+            final double[][] outputs = slot.outputs;
+            final double[][] errors = slot.errors;
+            final double[][] deltas = slot.deltas;
+
+            for (int i = end - 1; i >= start; i--) {
+                //weights into layer i belong to the layer before it (or the one before a dropout layer)
+                final double[] weightGradients = slot.weightGradients[slot.owners[i - 1]];
+
+                switch (layers.get(i)) {
+                    case final OutputLayer outLayer -> {
+                        outLayer.computeBackprop(preActivations[i], outputs[i], slot.desired, errors[i], deltas[i], batchSize);
+
+                        outLayer.accumulateGradients(outputs[i - 1], deltas[i], batchSize, weightGradients, slot.biasGradients[i]);
+
+                        //input layer doesn't need its errors
+                        if (i > 1)
+                            outLayer.computeInputErrors(deltas[i], errors[i - 1], batchSize);
+                    }
+                    case final DenseHiddenLayer hidLayer -> {
+                        hidLayer.computeBackprop(errors[i], preActivations[i], outputs[i], deltas[i], batchSize);
+
+                        hidLayer.accumulateGradients(outputs[i - 1], deltas[i], batchSize, weightGradients, slot.biasGradients[i]);
+
+                        if (i > 1)
+                            hidLayer.computeInputErrors(deltas[i], errors[i - 1], batchSize);
+                    }
+                    case final DropoutLayer dropLayer -> {
+                        dropLayer.computeBackprop(errors[i], slot.masks[i], errors[i - 1], batchSize);
+                    }
+                    default -> throw new IllegalStateException("Unexpected value: " + layers.get(i));
+                }
+            }
+        }
+    }
+
+}
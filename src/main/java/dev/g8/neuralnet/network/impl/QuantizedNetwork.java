@@ -0,0 +1,404 @@
+package dev.g8.neuralnet.network.impl;
+
+import dev.g8.neuralnet.functions.activation.ActivationFunction;
+import dev.g8.neuralnet.layers.api.AbstractLayer;
+import dev.g8.neuralnet.layers.impl.DenseHiddenLayer;
+import dev.g8.neuralnet.layers.impl.DropoutLayer;
+import dev.g8.neuralnet.layers.impl.InputLayer;
+import dev.g8.neuralnet.layers.impl.OutputLayer;
+import dev.g8.neuralnet.math.Gemm;
+import dev.g8.neuralnet.utils.objects.DataSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * read-only int8 copy of a trained network for fast predictions on the cpu
+ * <p>
+ * every row of a weight matrix (the weights into one neuron) is scaled so its biggest weight becomes 127 and rounded
+ * to a byte, the inputs of every layer are scaled the same way with a scale found by running a calibration data set
+ * through the network (the biggest value seen becomes 127, bigger values are clipped)
+ * <p>
+ * the products are added up exactly in ints and only turned back into doubles (input scale * row scale) right before
+ * the bias and activation function, so the weights take an eighth of the memory of a {@link CompiledNetwork}
+ * <p>
+ * like a compiled network nothing is written during a prediction except scratch buffers of the calling thread
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public final class QuantizedNetwork {
+
+    private static final int MAX_QUANTIZED = 127;
+
+    private final Stage[] stages;
+
+    private final int numInput, numOutput;
+
+    /**
+     * widest layer, the size of the scratch buffers per sample
+     */
+    private final int width;
+
+    private final ThreadLocal<Scratch> threadScratch;
+
+    /**
+     * @param layers - trained layers, they are copied
+     * @param calibration - samples that look like the ones that will be predicted
+     */
+    QuantizedNetwork(final List<AbstractLayer> layers, final DataSet calibration) {
+        if (calibration.size() == 0)
+            throw new IllegalArgumentException("calibration data set is empty");
+
+        final List<Stage> stages = new ArrayList<>();
+
+        int width = 0;
+
+        for (final AbstractLayer layer : layers) {
+            width = Math.max(width, layer.getSize());
+
+            switch (layer) {
+                case final DenseHiddenLayer hidLayer -> stages.add(new Stage(hidLayer, hidLayer.getActivationFunction()));
+                case final OutputLayer outLayer -> stages.add(new Stage(outLayer, outLayer.getActivationFunction()));
+                case final InputLayer ignored -> {
+                }
+                case final DropoutLayer ignored -> {
+                }
+                default -> throw new IllegalStateException("Unexpected value: " + layer);
+            }
+        }
+
+        this.stages = stages.toArray(new Stage[0]);
+        this.numInput = layers.get(0).getSize();
+        this.numOutput = layers.get(layers.size() - 1).getSize();
+        this.width = width;
+
+        calibrate(layers, calibration);
+
+        this.threadScratch = ThreadLocal.withInitial(() -> new Scratch(1, this.width));
+    }
+
+    /**
+     * find the biggest input of every stage with the double precision weights
+     */
+    private void calibrate(final List<AbstractLayer> layers, final DataSet calibration) {
+        final double[] max = new double[stages.length];
+
+        double[] current = new double[width];
+        double[] next = new double[width];
+
+        for (int sample = 0; sample < calibration.size(); sample++) {
+            calibration.copyInputs(sample, 1, current, 0);
+
+            int stage = 0;
+
+            for (final AbstractLayer layer : layers) {
+                if (layer instanceof InputLayer || layer instanceof DropoutLayer)
+                    continue;
+
+                final Stage s = stages[stage];
+
+                for (int i = 0; i < s.numInput; i++)
+                    max[stage] = Math.max(max[stage], Math.abs(current[i]));
+
+                Gemm.multiplyVector(layer.getPrevLayer().getParameterStore().getWeights(), current, next, s.size, s.numInput);
+
+                for (int i = 0; i < s.size; i++)
+                    next[i] += s.bias[i];
+
+                s.activate(next, s.size);
+
+                final double[] swap = current;
+                current = next;
+                next = swap;
+
+                stage++;
+            }
+        }
+
+        for (int i = 0; i < stages.length; i++)
+            stages[i].inputScale = max[i] > 0 ? max[i] / MAX_QUANTIZED : 1;
+    }
+
+    /**
+     * predict the output of one sample
+     * @param input
+     * @return a new array holding the output
+     */
+    public final double[] predict(final double[] input) {
+        final double[] output = new double[numOutput];
+
+        predict(input, output, 1);
+
+        return output;
+    }
+
+    /**
+     * predict the outputs of a batch using the scratch buffers of the calling thread (they grow to fit the biggest batch)
+     * @param inputs - shape of [batchSize][size of the input layer]
+     * @param outputs - shape of [batchSize][size of the output layer], written to
+     * @param batchSize
+     */
+    public final void predict(final double[] inputs, final double[] outputs, final int batchSize) {
+        Scratch scratch = threadScratch.get();
+
+        if (scratch.capacity < batchSize) {
+            scratch = new Scratch(batchSize, width);
+            threadScratch.set(scratch);
+        }
+
+        double[] current = inputs;
+
+        for (int i = 0; i < stages.length; i++) {
+            final double[] next = i == stages.length - 1 ? outputs : current == scratch.first ? scratch.second : scratch.first;
+
+            stages[i].forward(current, next, batchSize, scratch);
+
+            current = next;
+        }
+    }
+
+    /**
+     * compare the predictions with the ones of the double precision network
+     * @param reference - e.g. from {@link FeedForwardNeuralNetwork#compile()}
+     * @param dataSet
+     * @return
+     */
+    public final Report evaluate(final CompiledNetwork reference, final DataSet dataSet) {
+        double maxError = 0, totalError = 0;
+
+        int sameArgMax = 0;
+
+        for (int sample = 0; sample < dataSet.size(); sample++) {
+            final double[] expected = reference.predict(dataSet.getInput(sample));
+            final double[] actual = predict(dataSet.getInput(sample));
+
+            for (int i = 0; i < numOutput; i++) {
+                final double error = Math.abs(expected[i] - actual[i]);
+
+                maxError = Math.max(maxError, error);
+                totalError += error;
+            }
+
+            if (argMax(expected) == argMax(actual))
+                sameArgMax++;
+        }
+
+        return new Report(maxError, totalError / ((long) dataSet.size() * numOutput), (double) sameArgMax / dataSet.size(),
+                getWeightBytes(), 8L * getWeightCount());
+    }
+
+    private static int argMax(final double[] values) {
+        int best = 0;
+
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[best])
+                best = i;
+        }
+
+        return best;
+    }
+
+    /**
+     * get the number of weights
+     * @return
+     */
+    public final long getWeightCount() {
+        long count = 0;
+
+        for (final Stage stage : stages)
+            count += stage.weights.length;
+
+        return count;
+    }
+
+    /**
+     * get the memory used by the weights and their scales
+     * @return
+     */
+    public final long getWeightBytes() {
+        long bytes = 0;
+
+        for (final Stage stage : stages)
+            bytes += stage.weights.length + 8L * stage.rowScales.length;
+
+        return bytes;
+    }
+
+    public final int getNumInput() {
+        return numInput;
+    }
+
+    public final int getNumOutput() {
+        return numOutput;
+    }
+
+    /**
+     * int8 weights into a layer, with the scales to turn them back into doubles
+     */
+    private static final class Stage {
+
+        /**
+         * shape of [size][size of the previous layer]
+         */
+        private final byte[] weights;
+
+        /**
+         * weight = quantized weight * rowScales[row]
+         */
+        private final double[] rowScales;
+
+        private final double[] bias;
+
+        private final int size, numInput;
+
+        private final ActivationFunction activationFunction;
+
+        private final boolean fastMath;
+
+        /**
+         * input = quantized input * inputScale, set by the calibration
+         */
+        private double inputScale;
+
+        private Stage(final AbstractLayer layer, final ActivationFunction activationFunction) {
+            final double[] weights = layer.getPrevLayer().getParameterStore().getWeights();
+
+            this.size = layer.getSize();
+            this.numInput = layer.getPrevLayer().getParameterStore().getColumns();
+            this.bias = layer.getParameterStore().getBias().clone();
+            this.activationFunction = activationFunction;
+            this.fastMath = layer.isFastMath();
+
+            this.weights = new byte[size * numInput];
+            this.rowScales = new double[size];
+
+            //symmetric per row so one big weight only costs precision in its own row
+            for (int row = 0; row < size; row++) {
+                double max = 0;
+
+                for (int i = 0; i < numInput; i++)
+                    max = Math.max(max, Math.abs(weights[row * numInput + i]));
+
+                rowScales[row] = max > 0 ? max / MAX_QUANTIZED : 1;
+
+                quantize(weights, row * numInput, this.weights, row * numInput, numInput, 1 / rowScales[row]);
+            }
+        }
+
+        private void forward(final double[] input, final double[] output, final int batchSize, final Scratch scratch) {
+            quantize(input, 0, scratch.quantized, 0, batchSize * numInput, 1 / inputScale);
+
+            Gemm.multiplyTransposed(scratch.quantized, weights, scratch.sums, batchSize, size, numInput);
+
+            //back to doubles only here
+            for (int b = 0; b < batchSize; b++) {
+                final int offset = b * size;
+
+                for (int i = 0; i < size; i++)
+                    output[offset + i] = scratch.sums[offset + i] * (rowScales[i] * inputScale) + bias[i];
+            }
+
+            activate(output, batchSize * size);
+        }
+
+        private void activate(final double[] values, final int length) {
+            if (fastMath)
+                activationFunction.activateApproximate(values, values, 0, length);
+            else
+                activationFunction.activate(values, values, 0, length);
+        }
+    }
+
+    /**
+     * round values * inverseScale to bytes, clipping to [-127, 127]
+     */
+    private static void quantize(final double[] values, final int offset, final byte[] quantized, final int quantizedOffset,
+                                 final int length, final double inverseScale) {
+        for (int i = 0; i < length; i++) {
+            final long value = Math.round(values[offset + i] * inverseScale);
+
+            quantized[quantizedOffset + i] = (byte) Math.max(-MAX_QUANTIZED, Math.min(MAX_QUANTIZED, value));
+        }
+    }
+
+    /**
+     * buffers a forward pass writes to
+     */
+    private static final class Scratch {
+
+        private final int capacity;
+
+        private final double[] first, second;
+
+        private final byte[] quantized;
+
+        private final int[] sums;
+
+        private Scratch(final int capacity, final int width) {
+            this.capacity = capacity;
+
+            this.first = new double[capacity * width];
+            this.second = new double[capacity * width];
+            this.quantized = new byte[capacity * width];
+            this.sums = new int[capacity * width];
+        }
+    }
+
+    /**
+     * how far the quantized predictions are from the double precision ones
+     */
+    public static final class Report {
+
+        private final double maxError, meanError, argMaxAgreement;
+
+        private final long weightBytes, doubleWeightBytes;
+
+        private Report(final double maxError, final double meanError, final double argMaxAgreement, final long weightBytes, final long doubleWeightBytes) {
+            this.maxError = maxError;
+            this.meanError = meanError;
+            this.argMaxAgreement = argMaxAgreement;
+            this.weightBytes = weightBytes;
+            this.doubleWeightBytes = doubleWeightBytes;
+        }
+
+        /**
+         * get the biggest absolute difference of any output
+         * @return
+         */
+        public final double getMaxError() {
+            return maxError;
+        }
+
+        /**
+         * get the mean absolute difference of the outputs
+         * @return
+         */
+        public final double getMeanError() {
+            return meanError;
+        }
+
+        /**
+         * get the fraction of samples where both networks pick the same biggest output (same class)
+         * @return
+         */
+        public final double getArgMaxAgreement() {
+            return argMaxAgreement;
+        }
+
+        /**
+         * get how many times smaller the quantized weights are
+         * @return
+         */
+        public final double getCompression() {
+            return (double) doubleWeightBytes / weightBytes;
+        }
+
+        @Override
+        public final String toString() {
+            return String.format("max error: %.6f mean error: %.6f same argmax: %.2f%% weights: %d -> %d bytes (%.1fx smaller)",
+                    maxError, meanError, argMaxAgreement * 100, doubleWeightBytes, weightBytes, getCompression());
+        }
+    }
+
+}
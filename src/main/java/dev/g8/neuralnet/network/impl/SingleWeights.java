@@ -0,0 +1,73 @@
+package dev.g8.neuralnet.network.impl;
+
+import dev.g8.neuralnet.components.ParameterStore;
+import dev.g8.neuralnet.layers.api.AbstractLayer;
+import dev.g8.neuralnet.layers.impl.DropoutLayer;
+
+import java.util.List;
+
+/**
+ * float copy of the weights and biases of a network, used by single precision forward passes
+ * <p>
+ * taken once when the weights change instead of on every prediction, and never written afterwards so predictions
+ * running at the same time (or while the network trains) can share it
+ *
+ * @author G8LOL
+ * @since 4/16/2023
+ */
+final class SingleWeights {
+
+    /**
+     * weights into each layer in shape of [size][size of the previous layer], null for the input and dropout layers
+     */
+    private final float[][] weights;
+
+    /**
+     * biases of each layer, null for the input and dropout layers
+     */
+    private final float[][] bias;
+
+    SingleWeights(final List<AbstractLayer> layers) {
+        this.weights = new float[layers.size()][];
+        this.bias = new float[layers.size()][];
+
+        for (int i = 1; i < layers.size(); i++) {
+            final AbstractLayer layer = layers.get(i);
+
+            //dropout layer shares the parameters of the previous layer
+            if (layer instanceof DropoutLayer)
+                continue;
+
+            weights[i] = toFloat(layer.getPrevLayer().getParameterStore().getWeights());
+            bias[i] = toFloat(layer.getParameterStore().getBias());
+        }
+    }
+
+    private static float[] toFloat(final double[] values) {
+        final float[] copy = new float[values.length];
+
+        for (int i = 0; i < values.length; i++)
+            copy[i] = (float) values[i];
+
+        return copy;
+    }
+
+    /**
+     * get the weights into a layer, same shape as {@link ParameterStore#getWeights()} of the previous layer
+     * @param layer - index of the layer
+     * @return
+     */
+    float[] getWeights(final int layer) {
+        return weights[layer];
+    }
+
+    /**
+     * get the biases of a layer
+     * @param layer - index of the layer
+     * @return
+     */
+    float[] getBias(final int layer) {
+        return bias[layer];
+    }
+
+}
@@ -0,0 +1,79 @@
+package dev.g8.neuralnet.network.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * bounded lock-free queue of ints for exactly one producer thread and one consumer thread
+ * <p>
+ * everything the producer wrote before {@link #offer(int)} is visible to the consumer after {@link #poll()} returns the value
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+final class SpscQueue {
+
+    /**
+     * returned by {@link #poll()} when the queue is empty
+     */
+    static final int EMPTY = -1;
+
+    private final int[] buffer;
+
+    private final int mask;
+
+    /**
+     * head is only written by the consumer, tail only by the producer
+     */
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+
+    /**
+     * @param capacity - rounded up to a power of two
+     */
+    SpscQueue(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+
+        this.buffer = new int[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * add a value to the back of the queue
+     * @param value - must not be {@link #EMPTY}
+     * @return false if the queue is full
+     */
+    boolean offer(final int value) {
+        final long tail = this.tail.get();
+
+        if (tail - head.get() == buffer.length)
+            return false;
+
+        buffer[(int) tail & mask] = value;
+
+        //full volatile write so a consumer going to sleep can't miss it (see Pipeline)
+        this.tail.set(tail + 1);
+
+        return true;
+    }
+
+    /**
+     * take the value at the front of the queue
+     * @return the value or {@link #EMPTY}
+     */
+    int poll() {
+        final long head = this.head.get();
+
+        if (head == tail.get())
+            return EMPTY;
+
+        final int value = buffer[(int) head & mask];
+
+        this.head.lazySet(head + 1);
+
+        return value;
+    }
+
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+}
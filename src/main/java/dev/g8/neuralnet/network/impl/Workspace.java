@@ -0,0 +1,124 @@
+package dev.g8.neuralnet.network.impl;
+
+import dev.g8.neuralnet.components.ParameterStore;
+import dev.g8.neuralnet.layers.api.AbstractLayer;
+import dev.g8.neuralnet.layers.impl.DropoutLayer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * buffers one thread needs to push a batch through the network and back
+ * <p>
+ * all arrays are indexed by layer and hold [capacity][layer size] values row-major
+ * <p>
+ * gradients are either the ones of the parameter stores (single thread) or private copies that get added
+ * into the parameter stores afterwards (one workspace per thread)
+ *
+ * @author G8LOL
+ * @since 4/18/2023
+ */
+final class Workspace {
+
+    private final int capacity;
+
+    /**
+     * errors is with respect to the output of a layer, deltas is the errors of the layer itself
+     */
+    final double[][] preActivations, outputs, errors, deltas;
+
+    final double[] desired;
+
+    /**
+     * which neurons each dropout layer kept in the last forward pass, null for other layers
+     */
+    final byte[][] masks;
+
+    /**
+     * gradients of the parameter store owned by each layer, null for dropout layers
+     */
+    final double[][] weightGradients, biasGradients;
+
+    /**
+     * index of the layer that owns the parameter store of each layer (dropout layers use the one before them)
+     */
+    final int[] owners;
+
+    final Random random = new Random();
+
+    Workspace(final List<AbstractLayer> layers, final int capacity, final boolean privateGradients) {
+        this.capacity = capacity;
+
+        preActivations = new double[layers.size()][];
+        outputs = new double[layers.size()][];
+        errors = new double[layers.size()][];
+        deltas = new double[layers.size()][];
+
+        weightGradients = new double[layers.size()][];
+        biasGradients = new double[layers.size()][];
+
+        masks = new byte[layers.size()][];
+
+        owners = new int[layers.size()];
+
+        for (int i = 0; i < layers.size(); i++) {
+            final AbstractLayer layer = layers.get(i);
+            final int size = capacity * layer.getSize();
+
+            preActivations[i] = new double[size];
+            outputs[i] = new double[size];
+            errors[i] = new double[size];
+            deltas[i] = new double[size];
+
+            if (layer instanceof DropoutLayer) {
+                masks[i] = new byte[size];
+                owners[i] = owners[i - 1];
+                continue;
+            }
+
+            owners[i] = i;
+
+            final ParameterStore store = layer.getParameterStore();
+
+            weightGradients[i] = privateGradients ? new double[store.getWeightGradients().length] : store.getWeightGradients();
+            biasGradients[i] = privateGradients ? new double[store.getBiasGradients().length] : store.getBiasGradients();
+        }
+
+        desired = new double[capacity * layers.get(layers.size() - 1).getSize()];
+    }
+
+    /**
+     * get the number of samples the buffers can hold
+     * @return
+     */
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * spread the bits of a seed so seeds next to each other give unrelated randoms (splitmix64 finalizer)
+     * @param seed
+     * @return
+     */
+    static long mix(long seed) {
+        seed = (seed ^ (seed >>> 30)) * 0xBF58476D1CE4E5B9L;
+        seed = (seed ^ (seed >>> 27)) * 0x94D049BB133111EBL;
+
+        return seed ^ (seed >>> 31);
+    }
+
+    /**
+     * zero the gradients
+     */
+    void clearGradients() {
+        for (int i = 0; i < weightGradients.length; i++) {
+            if (weightGradients[i] == null)
+                continue;
+
+            Arrays.fill(weightGradients[i], 0);
+            Arrays.fill(biasGradients[i], 0);
+        }
+    }
+
+}
@@ -7,5 +7,10 @@ package dev.g8.neuralnet.optimizations;
 public enum OptimizationAlgorithm {
     GRADIENT_DESCENT,
     STOCHASTIC_GRADIENT_DESCENT,
-    MINI_BATCH_GRADIENT_DESCENT
+    MINI_BATCH_GRADIENT_DESCENT,
+    /**
+     * asynchronous stochastic gradient descent, every thread updates the shared weights without locking
+     * (updates can be based on slightly stale weights)
+     */
+    HOGWILD
 }
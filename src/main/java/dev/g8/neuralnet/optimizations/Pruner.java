@@ -0,0 +1,332 @@
+package dev.g8.neuralnet.optimizations;
+
+import dev.g8.neuralnet.components.ParameterStore;
+import dev.g8.neuralnet.layers.api.AbstractLayer;
+import dev.g8.neuralnet.layers.impl.DropoutLayer;
+import dev.g8.neuralnet.math.SparseMatrix;
+import dev.g8.neuralnet.network.api.AbstractNetwork;
+import dev.g8.neuralnet.utils.objects.DataSet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * magnitude pruning, sets the smallest weights of a trained network to 0
+ * <p>
+ * pruned weights stay 0 so a compiled network can store sparse layers in CSR format
+ * (see {@link dev.g8.neuralnet.network.impl.CompiledNetwork#SPARSE_DENSITY})
+ * <p>
+ * with fine-tuning the sparsity goes up over a number of rounds (s * (1 - (1 - round / rounds)^3), so most of the
+ * weights go early while the network can still recover) and the network is trained between rounds,
+ * pruned weights are set back to 0 after every update (see {@link ParameterStore#setMask(int[])})
+ * <p>
+ * biases are never pruned
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public final class Pruner {
+
+    private final PruningScope scope;
+
+    private final double sparsity;
+
+    /**
+     * sparsity of single layers, overrides the scope
+     */
+    private final Map<Integer, Double> layerSparsity;
+
+    private final DataSet fineTuneData;
+
+    private final int rounds, epochsPerRound, batchSize;
+
+    private Pruner(final PruningScope scope, final double sparsity, final Map<Integer, Double> layerSparsity,
+                   final DataSet fineTuneData, final int rounds, final int epochsPerRound, final int batchSize) {
+        this.scope = scope;
+        this.sparsity = sparsity;
+        this.layerSparsity = layerSparsity;
+        this.fineTuneData = fineTuneData;
+        this.rounds = rounds;
+        this.epochsPerRound = epochsPerRound;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * prune (and fine-tune) a trained network in place, it has to be set up already
+     * @param network
+     * @return density of every layer afterwards
+     */
+    public final Report prune(final AbstractNetwork network) {
+        final AbstractLayer[] layers = network.getLayers().toArray(new AbstractLayer[0]);
+
+        //the weights out of the last layer aren't used
+        final double[][] weights = new double[layers.length - 1][];
+
+        for (int i = 0; i < layers.length - 1; i++) {
+            if (!(layers[i] instanceof DropoutLayer))
+                weights[i] = layers[i].getParameterStore().getWeights();
+        }
+
+        final boolean[][] masks = new boolean[weights.length][];
+
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] != null)
+                masks[i] = new boolean[weights[i].length];
+        }
+
+        final int rounds = fineTuneData != null ? this.rounds : 1;
+
+        for (int round = 1; round <= rounds; round++) {
+            final double progress = 1 - Math.pow(1 - (double) round / rounds, 3);
+
+            pruneRound(weights, masks, progress);
+
+            if (fineTuneData == null)
+                continue;
+
+            //the stores zero the pruned weights after every update so fine-tuning never sees them
+            for (int i = 0; i < weights.length; i++) {
+                if (weights[i] != null)
+                    layers[i].getParameterStore().setMask(indices(masks[i]));
+            }
+
+            network.train(fineTuneData, epochsPerRound, batchSize);
+        }
+
+        //pruned weights stay 0 but later training may move them again
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] != null)
+                layers[i].getParameterStore().setMask(null);
+        }
+
+        network.weightsChanged();
+
+        final double[] density = new double[layers.length];
+
+        Arrays.fill(density, Double.NaN);
+
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] != null)
+                density[i] = (double) SparseMatrix.countNonZeros(weights[i], weights[i].length) / weights[i].length;
+        }
+
+        return new Report(density);
+    }
+
+    /**
+     * prune every layer to progress * its target sparsity
+     */
+    private void pruneRound(final double[][] weights, final boolean[][] masks, final double progress) {
+        int globalCount = 0;
+
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] == null)
+                continue;
+
+            if (scope == PruningScope.PER_LAYER || layerSparsity.containsKey(i))
+                prune(weights[i], masks[i], threshold(new double[][]{weights[i]}, progress * layerSparsity.getOrDefault(i, sparsity)));
+            else
+                globalCount++;
+        }
+
+        if (globalCount == 0)
+            return;
+
+        //one threshold over every layer without its own sparsity
+        final double[][] global = new double[globalCount][];
+
+        for (int i = 0, next = 0; i < weights.length; i++) {
+            if (weights[i] != null && scope == PruningScope.GLOBAL && !layerSparsity.containsKey(i))
+                global[next++] = weights[i];
+        }
+
+        final double threshold = threshold(global, progress * sparsity);
+
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] != null && scope == PruningScope.GLOBAL && !layerSparsity.containsKey(i))
+                prune(weights[i], masks[i], threshold);
+        }
+    }
+
+    /**
+     * magnitude below which the given fraction of the weights lies
+     * @return -1 if nothing should be pruned
+     */
+    private static double threshold(final double[][] weights, final double sparsity) {
+        int length = 0;
+
+        for (final double[] layer : weights)
+            length += layer.length;
+
+        final int count = (int) Math.round(sparsity * length);
+
+        if (count == 0)
+            return -1;
+
+        final double[] magnitudes = new double[length];
+
+        int next = 0;
+
+        for (final double[] layer : weights) {
+            for (final double weight : layer)
+                magnitudes[next++] = Math.abs(weight);
+        }
+
+        Arrays.sort(magnitudes);
+
+        return magnitudes[count - 1];
+    }
+
+    private static void prune(final double[] weights, final boolean[] mask, final double threshold) {
+        for (int i = 0; i < weights.length; i++) {
+            if (Math.abs(weights[i]) <= threshold)
+                mask[i] = true;
+        }
+
+        applyMasks(new double[][]{weights}, new boolean[][]{mask});
+    }
+
+    /**
+     * indices of the pruned weights
+     */
+    private static int[] indices(final boolean[] mask) {
+        int count = 0;
+
+        for (final boolean pruned : mask) {
+            if (pruned)
+                count++;
+        }
+
+        final int[] indices = new int[count];
+
+        for (int i = 0, next = 0; i < mask.length; i++) {
+            if (mask[i])
+                indices[next++] = i;
+        }
+
+        return indices;
+    }
+
+    /**
+     * set the pruned weights back to 0 (training moves them again)
+     */
+    private static void applyMasks(final double[][] weights, final boolean[][] masks) {
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] == null)
+                continue;
+
+            for (int j = 0; j < weights[i].length; j++) {
+                if (masks[i][j])
+                    weights[i][j] = 0;
+            }
+        }
+    }
+
+    /**
+     * fraction of non-zero weights out of every layer after pruning
+     */
+    public static final class Report {
+
+        private final double[] density;
+
+        private Report(final double[] density) {
+            this.density = density;
+        }
+
+        /**
+         * get the fraction of the weights out of a layer that are still non-zero
+         * @param layer - index in the network
+         * @return NaN for layers without weights (dropout and output layers)
+         */
+        public final double getDensity(final int layer) {
+            return density[layer];
+        }
+
+        @Override
+        public final String toString() {
+            final StringBuilder builder = new StringBuilder();
+
+            for (int i = 0; i < density.length; i++) {
+                if (Double.isNaN(density[i]))
+                    continue;
+
+                if (builder.length() > 0)
+                    builder.append('\n');
+
+                builder.append(String.format("layer %d: %.1f%% of weights left", i, density[i] * 100));
+            }
+
+            return builder.toString();
+        }
+    }
+
+    public final static class PrunerBuilder {
+        private PruningScope scope = PruningScope.GLOBAL;
+        private double sparsity = 0.5;
+        private final Map<Integer, Double> layerSparsity = new HashMap<>();
+        private DataSet fineTuneData;
+        private int rounds = 1, epochsPerRound, batchSize = 1;
+
+        public final PrunerBuilder withScope(final PruningScope scope) {
+            this.scope = scope;
+
+            return this;
+        }
+
+        /**
+         * fraction of the weights to prune
+         * @param sparsity - in [0, 1]
+         * @return
+         */
+        public final PrunerBuilder withSparsity(final double sparsity) {
+            this.sparsity = checkSparsity(sparsity);
+
+            return this;
+        }
+
+        /**
+         * prune the weights out of one layer to its own sparsity, whatever the scope
+         * @param layer - index in the network
+         * @param sparsity - in [0, 1]
+         * @return
+         */
+        public final PrunerBuilder withLayerSparsity(final int layer, final double sparsity) {
+            this.layerSparsity.put(layer, checkSparsity(sparsity));
+
+            return this;
+        }
+
+        /**
+         * prune gradually and train between rounds
+         * @param dataSet
+         * @param rounds
+         * @param epochsPerRound
+         * @param batchSize - only used by mini-batch training
+         * @return
+         */
+        public final PrunerBuilder withFineTuning(final DataSet dataSet, final int rounds, final int epochsPerRound, final int batchSize) {
+            if (rounds < 1)
+                throw new IllegalArgumentException("rounds must be at least 1: " + rounds);
+
+            this.fineTuneData = dataSet;
+            this.rounds = rounds;
+            this.epochsPerRound = epochsPerRound;
+            this.batchSize = batchSize;
+
+            return this;
+        }
+
+        private static double checkSparsity(final double sparsity) {
+            if (sparsity < 0 || sparsity > 1)
+                throw new IllegalArgumentException("sparsity must be in [0, 1]: " + sparsity);
+
+            return sparsity;
+        }
+
+        public final Pruner build() {
+            return new Pruner(scope, sparsity, new HashMap<>(layerSparsity), fineTuneData, rounds, epochsPerRound, batchSize);
+        }
+    }
+
+}
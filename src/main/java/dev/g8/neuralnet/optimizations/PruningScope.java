@@ -0,0 +1,18 @@
+package dev.g8.neuralnet.optimizations;
+
+/**
+ * how the magnitude threshold of {@link Pruner} is picked
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public enum PruningScope {
+    /**
+     * one threshold for all layers, layers with many small weights lose more of them
+     */
+    GLOBAL,
+    /**
+     * every layer loses the same fraction of its weights
+     */
+    PER_LAYER
+}
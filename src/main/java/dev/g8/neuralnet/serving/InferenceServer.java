@@ -0,0 +1,460 @@
+package dev.g8.neuralnet.serving;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.g8.neuralnet.network.impl.CompiledNetwork;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * serves single sample predictions, requests that arrive close together are put into one batch
+ * <p>
+ * a batch is run once it has maxBatchSize requests or the oldest request in it has waited maxQueueDelay,
+ * whichever comes first, then every request gets its row of the output
+ * <p>
+ * requests can come from {@link #submit(double[])} or from a POST to /predict on localhost with the input as
+ * comma separated numbers (the output is sent back the same way)
+ * <p>
+ * when the queue is full requests are rejected straight away (RejectedExecutionException, or 503 over http)
+ * instead of piling up
+ *
+ * @author G8LOL
+ * @since 4/20/2023
+ */
+public final class InferenceServer implements AutoCloseable {
+
+    private final CompiledNetwork network;
+
+    private final int maxBatchSize;
+
+    private final long maxQueueDelay;
+
+    private final BlockingQueue<Request> queue;
+
+    private final int port;
+
+    /**
+     * runs the http handlers, null to use a pool owned by the server
+     */
+    private final Executor executor;
+
+    /**
+     * default handler pool, created by {@link #start()} and shut down by {@link #close()}
+     */
+    private ExecutorService ownedExecutor;
+
+    /**
+     * inputs and outputs of the batch being run, only used by the batching thread
+     */
+    private final double[] inputs, outputs;
+
+    private final Request[] batch;
+
+    private final CompiledNetwork.Scratch scratch;
+
+    private final AtomicLong batches = new AtomicLong(), requests = new AtomicLong();
+
+    private Thread batcher;
+
+    private HttpServer httpServer;
+
+    private volatile boolean running;
+
+    private InferenceServer(final CompiledNetwork network, final int maxBatchSize, final long maxQueueDelay, final int queueCapacity, final int port, final Executor executor) {
+        this.network = network;
+        this.maxBatchSize = maxBatchSize;
+        this.maxQueueDelay = maxQueueDelay;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.port = port;
+        this.executor = executor;
+
+        this.inputs = new double[maxBatchSize * network.getNumInput()];
+        this.outputs = new double[maxBatchSize * network.getNumOutput()];
+        this.batch = new Request[maxBatchSize];
+        this.scratch = network.newScratch(maxBatchSize);
+    }
+
+    /**
+     * start the batching thread and the http endpoint (if a port was set)
+     * @throws IOException if the port can't be bound
+     */
+    public final synchronized void start() throws IOException {
+        if (running)
+            return;
+
+        running = true;
+
+        batcher = new Thread(this::runBatches, "inference-batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+
+        if (port >= 0) {
+            httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            httpServer.createContext("/predict", this::handle);
+            if (executor == null) {
+                ownedExecutor = Executors.newCachedThreadPool(runnable -> {
+                    final Thread thread = new Thread(runnable, "inference-http");
+                    thread.setDaemon(true);
+
+                    return thread;
+                });
+            }
+
+            httpServer.setExecutor(executor != null ? executor : ownedExecutor);
+            httpServer.start();
+        }
+    }
+
+    /**
+     * stop serving, requests still in the queue are cancelled
+     */
+    @Override
+    public final synchronized void close() {
+        if (!running)
+            return;
+
+        running = false;
+
+        if (httpServer != null)
+            httpServer.stop(0);
+
+        batcher.interrupt();
+
+        try {
+            batcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Request request;
+
+        while ((request = queue.poll()) != null)
+            request.result.cancel(false);
+
+        //handlers still running answer their cancelled requests and finish, a passed in executor is left to its owner
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+            ownedExecutor = null;
+        }
+    }
+
+    /**
+     * queue one sample to be predicted with the next batch
+     * @param input - size of the input layer
+     * @return the output once its batch has run
+     * @throws RejectedExecutionException if the queue is full or the server isn't running
+     */
+    public final CompletableFuture<double[]> submit(final double[] input) {
+        if (input.length != network.getNumInput())
+            throw new IllegalArgumentException("expected " + network.getNumInput() + " inputs but got " + input.length);
+
+        if (!running)
+            throw new RejectedExecutionException("server is not running");
+
+        final Request request = new Request(input);
+
+        if (!queue.offer(request))
+            throw new RejectedExecutionException("queue is full");
+
+        //close() may have emptied the queue between the check above and the offer
+        if (!running && queue.remove(request))
+            request.result.cancel(false);
+
+        return request.result;
+    }
+
+    /**
+     * predict one sample, waiting for its batch to run
+     * @param input
+     * @return
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public final double[] predict(final double[] input) throws InterruptedException, ExecutionException {
+        return submit(input).get();
+    }
+
+    /**
+     * get the port of the http endpoint, -1 if there is none
+     * @return
+     */
+    public final int getPort() {
+        return httpServer == null ? -1 : httpServer.getAddress().getPort();
+    }
+
+    /**
+     * get the number of batches run so far
+     * @return
+     */
+    public final long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * get the average number of requests per batch so far
+     * @return
+     */
+    public final double getAverageBatchSize() {
+        final long batches = this.batches.get();
+
+        return batches == 0 ? 0 : (double) requests.get() / batches;
+    }
+
+    private void runBatches() {
+        while (running) {
+            final int size;
+
+            try {
+                size = collectBatch();
+            } catch (InterruptedException e) {
+                //close() was called
+                return;
+            }
+
+            if (size > 0)
+                runBatch(size);
+        }
+    }
+
+    /**
+     * wait for a request, then keep taking requests until the batch is full or the first one has waited long enough
+     * @return number of requests in the batch
+     * @throws InterruptedException
+     */
+    private int collectBatch() throws InterruptedException {
+        final Request first = queue.take();
+
+        batch[0] = first;
+
+        int size = 1;
+
+        final long deadline = first.enqueued + maxQueueDelay;
+
+        while (size < maxBatchSize) {
+            Request next = queue.poll();
+
+            if (next == null) {
+                final long wait = deadline - System.nanoTime();
+
+                if (wait <= 0)
+                    break;
+
+                try {
+                    next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    //close() was called, still answer the requests already taken
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+
+                if (next == null)
+                    break;
+            }
+
+            batch[size++] = next;
+        }
+
+        return size;
+    }
+
+    private void runBatch(final int size) {
+        final int numInput = network.getNumInput();
+        final int numOutput = network.getNumOutput();
+
+        //counted before the results are handed out so a caller that saw its result also sees its batch counted
+        batches.incrementAndGet();
+        requests.addAndGet(size);
+
+        try {
+            for (int i = 0; i < size; i++)
+                System.arraycopy(batch[i].input, 0, inputs, i * numInput, numInput);
+
+            network.predict(inputs, outputs, size, scratch);
+
+            for (int i = 0; i < size; i++)
+                batch[i].result.complete(Arrays.copyOfRange(outputs, i * numOutput, (i + 1) * numOutput));
+        } catch (RuntimeException e) {
+            for (int i = 0; i < size; i++)
+                batch[i].result.completeExceptionally(e);
+        }
+
+        //don't keep finished requests alive
+        Arrays.fill(batch, 0, size, null);
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "use POST");
+                return;
+            }
+
+            final double[] input;
+
+            try {
+                input = parse(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            } catch (NumberFormatException e) {
+                send(exchange, 400, "bad number: " + e.getMessage());
+                return;
+            }
+
+            final double[] output;
+
+            try {
+                output = submit(input).get();
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, e.getMessage());
+                return;
+            } catch (RejectedExecutionException | CancellationException e) {
+                send(exchange, 503, e.getMessage());
+                return;
+            } catch (ExecutionException e) {
+                send(exchange, 500, String.valueOf(e.getCause()));
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                send(exchange, 503, "interrupted");
+                return;
+            }
+
+            final StringBuilder builder = new StringBuilder();
+
+            for (int i = 0; i < output.length; i++) {
+                if (i > 0)
+                    builder.append(',');
+
+                builder.append(output[i]);
+            }
+
+            send(exchange, 200, builder.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static double[] parse(final String body) {
+        final String trimmed = body.trim();
+
+        if (trimmed.isEmpty())
+            return new double[0];
+
+        final String[] values = trimmed.split("[,\\s]+");
+        final double[] input = new double[values.length];
+
+        for (int i = 0; i < values.length; i++)
+            input[i] = Double.parseDouble(values[i]);
+
+        return input;
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (final OutputStream stream = exchange.getResponseBody()) {
+            stream.write(bytes);
+        }
+    }
+
+    private static final class Request {
+
+        private final double[] input;
+
+        private final CompletableFuture<double[]> result = new CompletableFuture<>();
+
+        private final long enqueued = System.nanoTime();
+
+        private Request(final double[] input) {
+            this.input = input;
+        }
+    }
+
+    public final static class ServerBuilder {
+        private final CompiledNetwork network;
+        private int maxBatchSize = 64;
+        private long maxQueueDelay = TimeUnit.MILLISECONDS.toNanos(2);
+        private int queueCapacity = 1024;
+        private int port = -1;
+        private Executor executor;
+
+        public ServerBuilder(final CompiledNetwork network) {
+            this.network = network;
+        }
+
+        public final ServerBuilder withMaxBatchSize(final int maxBatchSize) {
+            if (maxBatchSize < 1)
+                throw new IllegalArgumentException("maxBatchSize must be at least 1: " + maxBatchSize);
+
+            this.maxBatchSize = maxBatchSize;
+
+            return this;
+        }
+
+        /**
+         * longest time a request waits for others to join its batch
+         * @param delay
+         * @param unit
+         * @return
+         */
+        public final ServerBuilder withMaxQueueDelay(final long delay, final TimeUnit unit) {
+            if (delay < 0)
+                throw new IllegalArgumentException("maxQueueDelay can't be negative: " + delay);
+
+            this.maxQueueDelay = unit.toNanos(delay);
+
+            return this;
+        }
+
+        /**
+         * number of requests that can wait at once, more than that are rejected
+         * @param queueCapacity
+         * @return
+         */
+        public final ServerBuilder withQueueCapacity(final int queueCapacity) {
+            if (queueCapacity < 1)
+                throw new IllegalArgumentException("queueCapacity must be at least 1: " + queueCapacity);
+
+            this.queueCapacity = queueCapacity;
+
+            return this;
+        }
+
+        /**
+         * serve http on localhost at this port, 0 picks a free one
+         * @param port
+         * @return
+         */
+        public final ServerBuilder withPort(final int port) {
+            this.port = port;
+
+            return this;
+        }
+
+        /**
+         * executor that runs the http handlers, each one blocks until its batch has run
+         * <p>
+         * defaults to a cached pool of daemon threads that is shut down on close, on java 21+ a virtual thread per task executor fits best
+         * @param executor
+         * @return
+         */
+        public final ServerBuilder withExecutor(final Executor executor) {
+            this.executor = executor;
+
+            return this;
+        }
+
+        public final InferenceServer build() {
+            return new InferenceServer(network, maxBatchSize, maxQueueDelay, queueCapacity, port, executor);
+        }
+    }
+
+}
@@ -0,0 +1,18 @@
+package dev.g8.neuralnet.utils.objects;
+
+/**
+ * file formats a {@link DataLoader} can stream
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public enum DataFormat {
+    /**
+     * one sample per line, the inputs then the outputs separated by commas or whitespace
+     */
+    CSV,
+    /**
+     * rows of doubles as written by {@link DataSetFile}, the sizes come from its header
+     */
+    BINARY
+}
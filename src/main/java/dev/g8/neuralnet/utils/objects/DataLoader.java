@@ -0,0 +1,468 @@
+package dev.g8.neuralnet.utils.objects;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * streams batches out of a csv or binary file while the network trains on the previous ones
+ * <p>
+ * a reader thread cuts the file into chunks of whole batches (lines or rows) and hands them to parser threads, the
+ * chunks being parsed wait in a bounded queue in file order, so at most prefetch chunks are in memory and the reader
+ * stops when the trainer falls behind
+ * <p>
+ * batches are views of a parsed chunk (see {@link DataSet#subList(int, int)}), they come in the order of the file
+ * <p>
+ * {@link #getWaitNanos()} is the time the trainer spent waiting for a chunk, if it is a big part of an epoch
+ * more parser threads or a bigger prefetch help
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public final class DataLoader implements AutoCloseable {
+
+    /**
+     * marks the end of a pass
+     */
+    private static final Future<DataSet> END = CompletableFuture.completedFuture(null);
+
+    private final Path path;
+
+    private final DataFormat format;
+
+    private final boolean header;
+
+    private final int numInput, numOutput;
+
+    private final int batchSize, chunkSize, prefetch;
+
+    private final ExecutorService reader, parsers;
+
+    /**
+     * chunks of the current pass in file order, a new queue every pass so a cancelled reader can't mix in old chunks
+     */
+    private BlockingQueue<Future<DataSet>> queue;
+
+    private Future<?> pass;
+
+    private DataSet chunk;
+
+    private int position;
+
+    private long waitNanos, chunks;
+
+    private DataLoader(final Path path, final DataFormat format, final boolean header, final int numInput, final int numOutput,
+                       final int batchSize, final int chunkSize, final int prefetch, final int threads) {
+        this.path = path;
+        this.format = format;
+        this.header = header;
+        this.numInput = numInput;
+        this.numOutput = numOutput;
+        this.batchSize = batchSize;
+        this.chunkSize = chunkSize;
+        this.prefetch = prefetch;
+
+        this.reader = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "data-loader-reader"));
+
+        final AtomicInteger next = new AtomicInteger();
+
+        this.parsers = Executors.newFixedThreadPool(threads, runnable -> daemon(runnable, "data-loader-parser-" + next.getAndIncrement()));
+    }
+
+    private static Thread daemon(final Runnable runnable, final String name) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+
+        return thread;
+    }
+
+    /**
+     * start reading the file from the beginning, a pass that is still running is stopped
+     */
+    public final void rewind() {
+        if (pass != null)
+            pass.cancel(true);
+
+        final BlockingQueue<Future<DataSet>> queue = new ArrayBlockingQueue<>(prefetch);
+
+        this.queue = queue;
+        this.chunk = null;
+        this.position = 0;
+        this.pass = reader.submit(() -> read(queue));
+    }
+
+    /**
+     * get the next batch of the current pass, it is only valid until the next call
+     * <p>
+     * a batch only comes out smaller than the batch size at the end of the file (or if blank csv lines were skipped)
+     * @return null once the whole file has been read
+     * @throws UncheckedIOException if the file can't be read or parsed
+     */
+    public final DataSet nextBatch() {
+        if (queue == null)
+            rewind();
+
+        if (!nextChunk())
+            return null;
+
+        //whole batch in this chunk, nothing is copied
+        if (chunk.size() - position >= batchSize) {
+            final DataSet batch = chunk.subList(position, position + batchSize);
+            position += batchSize;
+
+            return batch;
+        }
+
+        final DataSet batch = new DataSet(numInput, numOutput, batchSize);
+
+        while (batch.size() < batchSize && nextChunk()) {
+            batch.add(chunk.getInput(position), chunk.getOutput(position));
+            position++;
+        }
+
+        return batch;
+    }
+
+    /**
+     * make sure the current chunk has samples left, waiting for the next one if needed
+     * @return false at the end of the pass
+     */
+    private boolean nextChunk() {
+        while (chunk == null || position == chunk.size()) {
+            if (chunk == null && pass == null)
+                return false;
+
+            final long start = System.nanoTime();
+
+            final DataSet next;
+
+            try {
+                next = queue.take().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new IllegalStateException("interrupted while waiting for data", e);
+            } catch (ExecutionException e) {
+                //the reader may be blocked on a full queue, stop it or the next rewind waits behind it forever
+                pass.cancel(true);
+                pass = null;
+                chunk = null;
+
+                throw e.getCause() instanceof IOException io
+                        ? new UncheckedIOException(io)
+                        : new IllegalStateException("failed to load " + path, e.getCause());
+            } finally {
+                waitNanos += System.nanoTime() - start;
+            }
+
+            if (next == null) {
+                //end of the pass, keep returning null until the next rewind
+                pass = null;
+                chunk = null;
+
+                return false;
+            }
+
+            chunk = next;
+            position = 0;
+            chunks++;
+        }
+
+        return true;
+    }
+
+    /**
+     * reader thread, queues one parse task per chunk and then the end marker
+     */
+    private void read(final BlockingQueue<Future<DataSet>> queue) {
+        try {
+            switch (format) {
+                case CSV -> readCsv(queue);
+                case BINARY -> readBinary(queue);
+            }
+
+            queue.put(END);
+        } catch (InterruptedException e) {
+            //rewound or closed
+        } catch (IOException e) {
+            try {
+                queue.put(CompletableFuture.failedFuture(e));
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    private void readCsv(final BlockingQueue<Future<DataSet>> queue) throws IOException, InterruptedException {
+        try (final BufferedReader reader = Files.newBufferedReader(path)) {
+            long line = 0;
+
+            if (header) {
+                reader.readLine();
+                line++;
+            }
+
+            while (!Thread.currentThread().isInterrupted()) {
+                final String[] lines = new String[chunkSize];
+
+                int count = 0;
+
+                for (String text; count < chunkSize && (text = reader.readLine()) != null; )
+                    lines[count++] = text;
+
+                if (count == 0)
+                    return;
+
+                final long firstLine = line + 1;
+                final int lineCount = count;
+
+                line += count;
+
+                queue.put(parsers.submit(() -> parseCsv(lines, lineCount, firstLine)));
+            }
+
+            throw new InterruptedException();
+        }
+    }
+
+    private DataSet parseCsv(final String[] lines, final int count, final long firstLine) throws IOException {
+        final DataSet dataSet = new DataSet(numInput, numOutput, count);
+
+        final double[] row = new double[numInput + numOutput];
+        final double[] input = new double[numInput];
+        final double[] output = new double[numOutput];
+
+        for (int i = 0; i < count; i++) {
+            if (!DataSetFile.parseLine(lines[i], row, path, firstLine + i))
+                continue;
+
+            System.arraycopy(row, 0, input, 0, numInput);
+            System.arraycopy(row, numInput, output, 0, numOutput);
+
+            dataSet.add(input, output);
+        }
+
+        return dataSet;
+    }
+
+    private void readBinary(final BlockingQueue<Future<DataSet>> queue) throws IOException, InterruptedException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long rows = DataSetFile.readHeader(channel).rows;
+            final int rowBytes = (numInput + numOutput) << 3;
+
+            for (long first = 0; first < rows; first += chunkSize) {
+                if (Thread.currentThread().isInterrupted())
+                    throw new InterruptedException();
+
+                final int count = (int) Math.min(chunkSize, rows - first);
+
+                //only read here, decoding is left to the parsers
+                final ByteBuffer bytes = ByteBuffer.allocate(count * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+
+                long position = DataSetFile.HEADER_SIZE + first * rowBytes;
+
+                while (bytes.hasRemaining()) {
+                    final int read = channel.read(bytes, position);
+
+                    if (read < 0)
+                        throw new IOException("corrupt data set file: unexpected end of file");
+
+                    position += read;
+                }
+
+                bytes.flip();
+
+                queue.put(parsers.submit(() -> decode(bytes, count)));
+            }
+        }
+    }
+
+    private DataSet decode(final ByteBuffer bytes, final int count) {
+        final double[] inputs = new double[count * numInput];
+        final double[] outputs = new double[count * numOutput];
+
+        final DoubleBuffer values = bytes.asDoubleBuffer();
+
+        for (int i = 0; i < count; i++) {
+            values.get(inputs, i * numInput, numInput);
+            values.get(outputs, i * numOutput, numOutput);
+        }
+
+        return new DataSet(inputs, numInput, outputs, numOutput);
+    }
+
+    public final int getBatchSize() {
+        return batchSize;
+    }
+
+    public final int getNumInput() {
+        return numInput;
+    }
+
+    public final int getNumOutput() {
+        return numOutput;
+    }
+
+    /**
+     * get the time the trainer spent waiting for data since the last reset
+     * @return
+     */
+    public final long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * get the number of chunks handed out since the last reset
+     * @return
+     */
+    public final long getChunks() {
+        return chunks;
+    }
+
+    /**
+     * zero the wait time and chunk count
+     */
+    public final void resetTimings() {
+        waitNanos = 0;
+        chunks = 0;
+    }
+
+    /**
+     * stop the current pass and the loader threads
+     */
+    @Override
+    public final void close() {
+        if (pass != null)
+            pass.cancel(true);
+
+        reader.shutdownNow();
+        parsers.shutdownNow();
+    }
+
+    public final static class LoaderBuilder {
+        private final Path path;
+        private final DataFormat format;
+        private boolean header;
+        private int numInput = -1, numOutput = -1;
+        private int batchSize = 32;
+        private int chunkSize = 4096;
+        private int prefetch = 4;
+        private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+        public LoaderBuilder(final Path path, final DataFormat format) {
+            this.path = path;
+            this.format = format;
+        }
+
+        /**
+         * number of inputs and outputs of a sample, needed for csv (binary files have them in their header)
+         * @param numInput
+         * @param numOutput
+         * @return
+         */
+        public final LoaderBuilder withSizes(final int numInput, final int numOutput) {
+            if (numInput < 0 || numOutput < 0 || numInput + numOutput == 0)
+                throw new IllegalArgumentException("bad sizes: " + numInput + ", " + numOutput);
+
+            this.numInput = numInput;
+            this.numOutput = numOutput;
+
+            return this;
+        }
+
+        /**
+         * skip the first line of a csv file
+         * @param header
+         * @return
+         */
+        public final LoaderBuilder withHeader(final boolean header) {
+            this.header = header;
+
+            return this;
+        }
+
+        public final LoaderBuilder withBatchSize(final int batchSize) {
+            this.batchSize = checkPositive("batch size", batchSize);
+
+            return this;
+        }
+
+        /**
+         * samples per chunk handed to a parser thread, rounded up to whole batches
+         * @param chunkSize
+         * @return
+         */
+        public final LoaderBuilder withChunkSize(final int chunkSize) {
+            this.chunkSize = checkPositive("chunk size", chunkSize);
+
+            return this;
+        }
+
+        /**
+         * number of chunks read ahead of the trainer
+         * @param prefetch
+         * @return
+         */
+        public final LoaderBuilder withPrefetch(final int prefetch) {
+            this.prefetch = checkPositive("prefetch", prefetch);
+
+            return this;
+        }
+
+        /**
+         * number of parser threads
+         * @param threads
+         * @return
+         */
+        public final LoaderBuilder withThreads(final int threads) {
+            this.threads = checkPositive("threads", threads);
+
+            return this;
+        }
+
+        private static int checkPositive(final String name, final int value) {
+            if (value < 1)
+                throw new IllegalArgumentException(name + " must be at least 1: " + value);
+
+            return value;
+        }
+
+        /**
+         * @return
+         * @throws IOException if a binary file has no valid header
+         */
+        public final DataLoader build() throws IOException {
+            int numInput = this.numInput, numOutput = this.numOutput;
+
+            if (format == DataFormat.BINARY) {
+                try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    final DataSetFile.Header header = DataSetFile.readHeader(channel);
+
+                    numInput = header.numInput;
+                    numOutput = header.numOutput;
+                }
+            } else if (numInput < 0) {
+                throw new IllegalStateException("the sizes of a csv sample have to be set");
+            }
+
+            final int chunkSize = (int) Math.min(Integer.MAX_VALUE / 2, ((long) this.chunkSize + batchSize - 1) / batchSize * batchSize);
+
+            return new DataLoader(path, format, header, numInput, numOutput, batchSize, chunkSize, prefetch, threads);
+        }
+    }
+
+}
@@ -1,27 +1,120 @@
 package dev.g8.neuralnet.utils.objects;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * data set object
+ * <p>
+ * the inputs are stored row after row in one double array and the outputs in another (stride = number of inputs or
+ * outputs), so a sample is an offset into them and a batch of samples is one contiguous range that can be copied
+ * straight into the buffers of the layers
+ * <p>
+ * the number of inputs and outputs is set by the first sample, every sample after it must have the same sizes
+ * <p>
+ * shuffling doesn't move any rows, sample i is row order[i] of the arrays
+ * <p>
+ * a data set can also be read-only and backed by a memory-mapped file instead of arrays (see {@link DataSetFile})
  *
  * @author G8LOL
  * @since 3/31/2023
  */
 public final class DataSet {
 
-    private List<double[]> inputs = new ArrayList<>();
-    private List<double[]> outputs = new ArrayList<>();
+    private double[] inputs;
+    private double[] outputs;
+
+    /**
+     * rows of a mapped file, null if the samples are in the arrays
+     */
+    private DataSetFile.Rows file;
+
+    private int numInput = -1, numOutput = -1;
+
+    /**
+     * first row of this data set in the arrays, only not 0 for a view
+     */
+    private int first;
+
+    private int size, capacity;
+
+    /**
+     * a view is a sub list sharing the arrays of another data set, it copies them before it changes anything
+     */
+    private boolean view;
+
+    /**
+     * row of every sample, null until the data set is shuffled
+     */
+    private int[] order;
+
+    /**
+     * rows per block when shuffling, 0 shuffles all rows
+     */
+    private int shuffleBlockSize;
 
     public DataSet() {
+        this.inputs = new double[0];
+        this.outputs = new double[0];
     }
 
     public DataSet(final double[][] input, final double[][] output) {
-        for (int i = 0; i < input.length; i++) {
-            inputs.add(input[i]);
-            outputs.add(output[i]);
-        }
+        this();
+
+        add(input, output);
+    }
+
+    /**
+     * empty data set with room for capacity samples, so adding them doesn't have to grow the arrays
+     * @param numInput
+     * @param numOutput
+     * @param capacity
+     */
+    public DataSet(final int numInput, final int numOutput, final int capacity) {
+        if (numInput < 0 || numOutput < 0 || capacity < 0)
+            throw new IllegalArgumentException("sizes must not be negative: " + numInput + ", " + numOutput + ", " + capacity);
+
+        this.numInput = numInput;
+        this.numOutput = numOutput;
+        this.inputs = new double[checkLength(capacity, numInput)];
+        this.outputs = new double[checkLength(capacity, numOutput)];
+        this.capacity = capacity;
+    }
+
+    /**
+     * wrap arrays that already hold samples row after row, nothing is copied
+     * @param inputs - shape of [size][numInput]
+     * @param numInput
+     * @param outputs - shape of [size][numOutput]
+     * @param numOutput
+     */
+    public DataSet(final double[] inputs, final int numInput, final double[] outputs, final int numOutput) {
+        if (numInput <= 0 && numOutput <= 0)
+            throw new IllegalArgumentException("number of inputs or outputs must be positive: " + numInput + ", " + numOutput);
+
+        final int size = numInput > 0 ? inputs.length / numInput : outputs.length / numOutput;
+
+        if ((long) size * numInput != inputs.length || (long) size * numOutput != outputs.length)
+            throw new IllegalArgumentException("arrays don't hold the same number of samples: " + inputs.length + " / " + numInput
+                    + ", " + outputs.length + " / " + numOutput);
+
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.numInput = numInput;
+        this.numOutput = numOutput;
+        this.size = size;
+        this.capacity = size;
+    }
+
+    /**
+     * read-only data set over the rows of a mapped file
+     */
+    DataSet(final DataSetFile.Rows file, final int numInput, final int numOutput, final int size) {
+        this.file = file;
+        this.numInput = numInput;
+        this.numOutput = numOutput;
+        this.size = size;
+        this.capacity = size;
     }
 
     /**
@@ -30,8 +123,29 @@ public final class DataSet {
      * @param output
      */
     public final void add(final double[] input, final double[] output) {
-        inputs.add(input);
-        outputs.add(output);
+        if (numInput < 0) {
+            numInput = input.length;
+            numOutput = output.length;
+        }
+
+        if (input.length != numInput || output.length != numOutput)
+            throw new IllegalArgumentException("sample has " + input.length + " inputs and " + output.length + " outputs, expected "
+                    + numInput + " and " + numOutput);
+
+        ensureCapacity(size + 1);
+
+        //not a view here, so the new row goes right after the others
+        System.arraycopy(input, 0, inputs, size * numInput, numInput);
+        System.arraycopy(output, 0, outputs, size * numOutput, numOutput);
+
+        if (order != null) {
+            if (order.length == size)
+                order = Arrays.copyOf(order, Math.max(capacity, size + 1));
+
+            order[size] = size;
+        }
+
+        size++;
     }
 
     /**
@@ -40,28 +154,198 @@ public final class DataSet {
      * @param output
      */
     public final void add(final double[][] input, final double[][] output) {
-        for (int i = 0; i < input.length; i++) {
-            inputs.add(input[i]);
-            outputs.add(output[i]);
+        if (input.length > 0 && numInput < 0) {
+            numInput = input[0].length;
+            numOutput = output[0].length;
         }
+
+        ensureCapacity(size + input.length);
+
+        for (int i = 0; i < input.length; i++)
+            add(input[i], output[i]);
+    }
+
+    /**
+     * make room for at least minCapacity samples, growing by half like an ArrayList
+     */
+    private void ensureCapacity(final int minCapacity) {
+        if (file != null)
+            throw new UnsupportedOperationException("a mapped data set is read-only");
+
+        //a view can't write into the arrays of the data set it came from
+        if (view)
+            detach(Math.max(minCapacity, size));
+
+        if (minCapacity <= capacity)
+            return;
+
+        detach(Math.max(minCapacity, capacity + (capacity >> 1)));
+    }
+
+    /**
+     * copy the samples into new arrays of the given capacity, in their current order
+     */
+    private void detach(final int capacity) {
+        final double[] inputs = new double[checkLength(capacity, numInput)];
+        final double[] outputs = new double[checkLength(capacity, numOutput)];
+
+        copyInputs(0, size, inputs, 0);
+        copyOutputs(0, size, outputs, 0);
+
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.first = 0;
+        this.capacity = capacity;
+        this.view = false;
+        this.order = null;
+    }
+
+    private static int checkLength(final int rows, final int stride) {
+        final long length = (long) rows * Math.max(stride, 0);
+
+        if (length > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("data set doesn't fit in an array: " + rows + " samples of " + stride + " values");
+
+        return (int) length;
     }
 
     /**
-     * Returns the number of inputs
+     * Returns a copy of the input at the specified index, use {@link #getInputData()} to read it without copying
      * @param index
      * @return input
      */
     public final double[] getInput(final int index) {
-        return inputs.get(index);
+        final double[] input = new double[getNumInput()];
+
+        copyInputs(index, 1, input, 0);
+
+        return input;
     }
 
     /**
-     * Returns the output at the specified index
+     * Returns a copy of the output at the specified index, use {@link #getOutputData()} to read it without copying
      * @param index
      * @return output
      */
     public final double[] getOutput(final int index) {
-        return outputs.get(index);
+        final double[] output = new double[getNumOutput()];
+
+        copyOutputs(index, 1, output, 0);
+
+        return output;
+    }
+
+    /**
+     * Returns the array holding the inputs row after row, sample i starts at {@link #getInputOffset(int)}
+     * <p>
+     * it is not a copy and is shared with views of this data set, so it shouldn't be written to
+     * @return inputs
+     * @throws UnsupportedOperationException if the data set is mapped, use {@link #copyInputs} instead
+     */
+    public final double[] getInputData() {
+        if (file != null)
+            throw new UnsupportedOperationException("a mapped data set has no arrays");
+
+        return inputs;
+    }
+
+    /**
+     * Returns the array holding the outputs row after row, sample i starts at {@link #getOutputOffset(int)}
+     * <p>
+     * it is not a copy and is shared with views of this data set, so it shouldn't be written to
+     * @return outputs
+     * @throws UnsupportedOperationException if the data set is mapped, use {@link #copyOutputs} instead
+     */
+    public final double[] getOutputData() {
+        if (file != null)
+            throw new UnsupportedOperationException("a mapped data set has no arrays");
+
+        return outputs;
+    }
+
+    /**
+     * Returns where the input of a sample starts in {@link #getInputData()}
+     * @param index
+     * @return offset
+     */
+    public final int getInputOffset(final int index) {
+        return row(index) * getNumInput();
+    }
+
+    /**
+     * Returns where the output of a sample starts in {@link #getOutputData()}
+     * @param index
+     * @return offset
+     */
+    public final int getOutputOffset(final int index) {
+        return row(index) * getNumOutput();
+    }
+
+    private int row(final int index) {
+        return first + (order != null ? order[index] : index);
+    }
+
+    /**
+     * Copies the inputs of count samples from start on into dest row after row, one copy if the data set isn't shuffled
+     * @param start
+     * @param count
+     * @param dest
+     * @param destOffset
+     */
+    public final void copyInputs(final int start, final int count, final double[] dest, final int destOffset) {
+        copyRows(inputs, 0, getNumInput(), start, count, dest, destOffset);
+    }
+
+    /**
+     * Copies the outputs of count samples from start on into dest row after row
+     * @param start
+     * @param count
+     * @param dest
+     * @param destOffset
+     */
+    public final void copyOutputs(final int start, final int count, final double[] dest, final int destOffset) {
+        copyRows(outputs, getNumInput(), getNumOutput(), start, count, dest, destOffset);
+    }
+
+    /**
+     * @param column - where the values start in a row of the file
+     */
+    private void copyRows(final double[] data, final int column, final int stride, final int start, final int count,
+                          final double[] dest, final int destOffset) {
+        if (file != null) {
+            if (order == null)
+                file.copy(first + start, count, column, stride, dest, destOffset);
+            else {
+                for (int i = 0; i < count; i++)
+                    file.copy(row(start + i), column, stride, dest, destOffset + i * stride);
+            }
+
+            return;
+        }
+
+        if (order == null) {
+            System.arraycopy(data, (first + start) * stride, dest, destOffset, count * stride);
+            return;
+        }
+
+        for (int i = 0; i < count; i++)
+            System.arraycopy(data, row(start + i) * stride, dest, destOffset + i * stride, stride);
+    }
+
+    /**
+     * Returns the number of inputs of every sample, 0 if nothing was added yet
+     * @return stride of the inputs
+     */
+    public final int getNumInput() {
+        return Math.max(numInput, 0);
+    }
+
+    /**
+     * Returns the number of outputs of every sample, 0 if nothing was added yet
+     * @return stride of the outputs
+     */
+    public final int getNumOutput() {
+        return Math.max(numOutput, 0);
     }
 
     /**
@@ -69,13 +353,14 @@ public final class DataSet {
      * @return dataset
      */
     public final DataSet getInputs() {
-        final DataSet inputs = new DataSet();
+        if (size == 0)
+            return new DataSet();
 
-        for (final double[] input : this.inputs) {
-            inputs.add(input, new double[0]);
-        }
+        final double[] inputs = new double[size * getNumInput()];
 
-        return inputs;
+        copyInputs(0, size, inputs, 0);
+
+        return new DataSet(inputs, getNumInput(), new double[0], 0);
     }
 
     /**
@@ -83,11 +368,10 @@ public final class DataSet {
      * @return array
      */
     public final double[][] getInputsArray() {
-        final double[][] inputs = new double[this.inputs.size()][this.inputs.get(0).length];
+        final double[][] inputs = new double[size][];
 
-        for (int i = 0; i < this.inputs.size(); i++) {
-            inputs[i] = this.inputs.get(i);
-        }
+        for (int i = 0; i < size; i++)
+            inputs[i] = getInput(i);
 
         return inputs;
     }
@@ -97,13 +381,14 @@ public final class DataSet {
      * @return dataset
      */
     public final DataSet getOutputs() {
-        final DataSet outputs = new DataSet();
+        if (size == 0)
+            return new DataSet();
 
-        for (final double[] output : this.outputs) {
-            outputs.add(new double[0], output);
-        }
+        final double[] outputs = new double[size * getNumOutput()];
 
-        return outputs;
+        copyOutputs(0, size, outputs, 0);
+
+        return new DataSet(new double[0], 0, outputs, getNumOutput());
     }
 
     /**
@@ -111,15 +396,28 @@ public final class DataSet {
      * @return array
      */
     public final double[][] getOutputsArray() {
-        final double[][] outputs = new double[this.outputs.size()][this.outputs.get(0).length];
+        final double[][] outputs = new double[size][];
 
-        for (int i = 0; i < this.outputs.size(); i++) {
-            outputs[i] = this.outputs.get(i);
-        }
+        for (int i = 0; i < size; i++)
+            outputs[i] = getOutput(i);
 
         return outputs;
     }
 
+    /**
+     * Returns a copy of the inputs with the given outputs, e.g. the predictions of a network
+     * @param outputs - shape of [size][numOutput], not copied
+     * @param numOutput
+     * @return dataset
+     */
+    public final DataSet withOutputs(final double[] outputs, final int numOutput) {
+        final double[] inputs = new double[size * getNumInput()];
+
+        copyInputs(0, size, inputs, 0);
+
+        return new DataSet(inputs, getNumInput(), outputs, numOutput);
+    }
+
     /**
      * Randomly shuffles the dataset
      *
@@ -127,17 +425,93 @@ public final class DataSet {
      * @see dev.g8.neuralnet.optimizations.OptimizationAlgorithm
      */
     public final void shuffle() {
-        final List<double[]> shuffledInputs = new ArrayList<>();
-        final List<double[]> shuffledOutputs = new ArrayList<>();
+        shuffle(new Random());
+    }
+
+    /**
+     * Randomly shuffles the dataset using the given random, the same seed gives the same order
+     * <p>
+     * only the order of the samples changes (Fisher-Yates on the row indices), no rows are moved, and it only depends
+     * on the random, not on earlier shuffles
+     * @param random
+     */
+    public final void shuffle(final Random random) {
+        shuffle(random, shuffleBlockSize);
+    }
+
+    /**
+     * Randomly shuffles the dataset block by block, the blocks of blockSize rows come in a random order and the
+     * samples are shuffled within their block, so an epoch reads the rows of one block after the other instead of
+     * jumping around all of them
+     * @param random
+     * @param blockSize - rows per block, 0 shuffles all rows
+     */
+    public final void shuffle(final Random random, final int blockSize) {
+        if (blockSize < 0)
+            throw new IllegalArgumentException("block size must not be negative: " + blockSize);
+
+        if (view && order != null) {
+            //a view of a shuffled data set keeps its own rows, blocks are made of them in the order they are stored
+            Arrays.sort(order, 0, size);
+        } else {
+            if (order == null)
+                order = new int[Math.max(size, capacity)];
+
+            for (int i = 0; i < size; i++)
+                order[i] = i;
+        }
 
-        while (inputs.size() > 0) {
-            final int index = (int) (Math.random() * inputs.size());
-            shuffledInputs.add(inputs.remove(index));
-            shuffledOutputs.add(outputs.remove(index));
+        if (blockSize == 0 || blockSize >= size) {
+            shuffle(random, order, 0, size);
+            return;
         }
 
-        inputs = shuffledInputs;
-        outputs = shuffledOutputs;
+        final int[] rows = Arrays.copyOf(order, size);
+
+        final int blocks = (size + blockSize - 1) / blockSize;
+
+        final int[] blockOrder = new int[blocks];
+
+        for (int i = 0; i < blocks; i++)
+            blockOrder[i] = i;
+
+        shuffle(random, blockOrder, 0, blocks);
+
+        int next = 0;
+
+        for (final int block : blockOrder) {
+            final int start = next;
+
+            for (int i = block * blockSize; i < Math.min(size, (block + 1) * blockSize); i++)
+                order[next++] = rows[i];
+
+            shuffle(random, order, start, next);
+        }
+    }
+
+    /**
+     * Fisher-Yates shuffle of values[from .. to)
+     */
+    private static void shuffle(final Random random, final int[] values, final int from, final int to) {
+        for (int i = to - 1; i > from; i--) {
+            final int j = from + random.nextInt(i - from + 1);
+
+            final int swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+    }
+
+    /**
+     * Sets the rows per block used by {@link #shuffle(Random)}, e.g. so training reads data that doesn't fit in the
+     * page cache mostly in order
+     * @param blockSize - 0 shuffles all rows
+     */
+    public final void setShuffleBlockSize(final int blockSize) {
+        if (blockSize < 0)
+            throw new IllegalArgumentException("block size must not be negative: " + blockSize);
+
+        this.shuffleBlockSize = blockSize;
     }
 
     /**
@@ -145,20 +519,39 @@ public final class DataSet {
      * @return size
      */
     public final int size() {
-        return inputs.size();
+        return size;
     }
 
     /**
      * Returns a sub list of the dataset
+     * <p>
+     * the sub list is a view of the same arrays, they are only copied if samples are added to it
      * @param start
      * @param end
      * @return dataset
      */
     public final DataSet subList(final int start, final int end) {
+        if (start < 0 || end > size || start > end)
+            throw new IndexOutOfBoundsException("sub list " + start + " to " + end + " of " + size);
+
         final DataSet subList = new DataSet();
 
-        for (int i = start; i < end; i++)
-            subList.add(inputs.get(i), outputs.get(i));
+        subList.inputs = inputs;
+        subList.outputs = outputs;
+        subList.file = file;
+        subList.numInput = numInput;
+        subList.numOutput = numOutput;
+        subList.first = first;
+        subList.size = end - start;
+        subList.capacity = end - start;
+        subList.view = true;
+        subList.shuffleBlockSize = shuffleBlockSize;
+
+        //the view keeps the order the samples had when it was made
+        if (order != null)
+            subList.order = Arrays.copyOfRange(order, start, end);
+        else
+            subList.first = first + start;
 
         return subList;
     }
@@ -173,12 +566,12 @@ public final class DataSet {
         final DataSet[] sets = new DataSet[ratios.length];
 
         for (int i = 0; i < ratios.length; i++)
-            sets[i] = new DataSet();
+            sets[i] = size == 0 ? new DataSet() : new DataSet(numInput, numOutput, (size + ratios.length - 1) / ratios.length);
 
         int index = 0;
 
-        for (int i = 0; i < inputs.size(); i++) {
-            sets[index].add(inputs.get(i), outputs.get(i));
+        for (int i = 0; i < size; i++) {
+            sets[index].add(getInput(i), getOutput(i));
 
             index++;
             if (index >= sets.length)
@@ -192,14 +585,17 @@ public final class DataSet {
      * Prints the dataset
      */
     public final void print() {
-        for (int i = 0; i < inputs.size(); i++) {
+        for (int i = 0; i < size; i++) {
+            final double[] input = getInput(i);
+            final double[] output = getOutput(i);
+
             System.out.print("Input: ");
-            for (int j = 0; j < inputs.get(i).length; j++)
-                System.out.print(inputs.get(i)[j] + " ");
+            for (final double value : input)
+                System.out.print(value + " ");
 
             System.out.print("Output: ");
-            for (int j = 0; j < outputs.get(i).length; j++)
-                System.out.print(outputs.get(i)[j] + " ");
+            for (final double value : output)
+                System.out.print(value + " ");
 
             System.out.println();
         }
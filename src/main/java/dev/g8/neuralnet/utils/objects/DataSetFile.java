@@ -0,0 +1,363 @@
+package dev.g8.neuralnet.utils.objects;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Pattern;
+
+/**
+ * binary file holding the samples of a data set row after row, so a data set bigger than the heap can be trained on
+ * <p>
+ * layout (everything little-endian):
+ * <pre>
+ * header  magic "G8DS", version, number of inputs, number of outputs, number of rows, padded to 32 bytes
+ * rows    inputs then outputs of every sample as doubles
+ * </pre>
+ * {@link #map(Path)} memory-maps the rows into a read-only {@link DataSet}, the page cache holds whatever fits in
+ * memory so the heap doesn't grow with the file (apart from 4 bytes a sample once it is shuffled)
+ * <p>
+ * files can be bigger than 2 GB, they are mapped in chunks of whole rows
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public final class DataSetFile {
+
+    /**
+     * bumped whenever the layout changes, files with a newer version are refused
+     */
+    public static final int VERSION = 1;
+
+    //"G8DS" read as a little-endian int
+    private static final int MAGIC = 0x53443847;
+
+    static final int HEADER_SIZE = 32;
+
+    /**
+     * biggest chunk mapped at once, a mapped buffer can't be bigger than 2 GB
+     */
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    private static final Pattern SEPARATOR = Pattern.compile("[,\\s]+");
+
+    private DataSetFile() {
+    }
+
+    /**
+     * write a data set to a file, the file is replaced in one step so readers never see half of it
+     * @param dataSet
+     * @param path
+     * @throws IOException
+     */
+    public static void save(final DataSet dataSet, final Path path) throws IOException {
+        final int numInput = dataSet.getNumInput();
+        final int numOutput = dataSet.getNumOutput();
+
+        try (final RowWriter writer = new RowWriter(path, numInput, numOutput)) {
+            final double[] row = new double[numInput + numOutput];
+
+            for (int i = 0; i < dataSet.size(); i++) {
+                dataSet.copyInputs(i, 1, row, 0);
+                dataSet.copyOutputs(i, 1, row, numInput);
+
+                writer.write(row);
+            }
+
+            writer.commit();
+        }
+    }
+
+    /**
+     * convert a csv file to a data set file a line at a time, so it can be bigger than the heap
+     * <p>
+     * every line holds the inputs then the outputs of a sample, separated by commas or whitespace, blank lines are skipped
+     * @param csv
+     * @param path
+     * @param numInput
+     * @param numOutput
+     * @param header - skip the first line
+     * @return number of samples written
+     * @throws IOException if a line can't be parsed
+     */
+    public static long convertCsv(final Path csv, final Path path, final int numInput, final int numOutput, final boolean header) throws IOException {
+        try (final BufferedReader reader = Files.newBufferedReader(csv);
+             final RowWriter writer = new RowWriter(path, numInput, numOutput)) {
+            final double[] row = new double[numInput + numOutput];
+
+            long line = 0;
+
+            if (header) {
+                reader.readLine();
+                line++;
+            }
+
+            for (String text = reader.readLine(); text != null; text = reader.readLine()) {
+                line++;
+
+                if (parseLine(text, row, csv, line))
+                    writer.write(row);
+            }
+
+            writer.commit();
+
+            return writer.rows;
+        }
+    }
+
+    /**
+     * parse one line of a csv file into row
+     * @param text
+     * @param row - holds the inputs then the outputs
+     * @param csv - for the error message
+     * @param line - for the error message
+     * @return false if the line is blank
+     * @throws IOException if it doesn't hold one number per value of row
+     */
+    static boolean parseLine(final String text, final double[] row, final Path csv, final long line) throws IOException {
+        final String trimmed = text.trim();
+
+        if (trimmed.isEmpty())
+            return false;
+
+        final String[] values = SEPARATOR.split(trimmed);
+
+        if (values.length != row.length)
+            throw new IOException(csv + " line " + line + ": expected " + row.length + " values, got " + values.length);
+
+        try {
+            for (int i = 0; i < row.length; i++)
+                row[i] = Double.parseDouble(values[i]);
+        } catch (NumberFormatException e) {
+            throw new IOException(csv + " line " + line + ": " + e.getMessage(), e);
+        }
+
+        return true;
+    }
+
+    /**
+     * memory-map a data set file
+     * <p>
+     * the data set is read-only, it can be shuffled and split into sub lists but nothing can be added to it
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static DataSet map(final Path path) throws IOException {
+        return map(path, CHUNK_SIZE);
+    }
+
+    /**
+     * memory-map a data set file in chunks of at most chunkSize bytes (rounded down to whole rows)
+     * @param path
+     * @param chunkSize - smaller than {@link #CHUNK_SIZE} so tests can cross chunks without a huge file
+     * @return
+     * @throws IOException
+     */
+    static DataSet map(final Path path, final long chunkSize) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final Header header = readHeader(channel);
+
+            final int numInput = header.numInput, numOutput = header.numOutput, stride = numInput + numOutput;
+            final long rows = header.rows, rowBytes = (long) stride << 3;
+
+            if (rowBytes > chunkSize)
+                throw new IOException("rows too big to map: " + rowBytes + " bytes");
+
+            final int rowsPerChunk = (int) (chunkSize / rowBytes);
+
+            final DoubleBuffer[] chunks = new DoubleBuffer[(int) ((rows + rowsPerChunk - 1) / rowsPerChunk)];
+
+            for (int i = 0; i < chunks.length; i++) {
+                final long first = (long) i * rowsPerChunk;
+                final long count = Math.min(rowsPerChunk, rows - first);
+
+                //mappings stay valid after the channel is closed
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * rowBytes, count * rowBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN)
+                        .asDoubleBuffer();
+            }
+
+            return new DataSet(new Rows(chunks, rowsPerChunk, stride), numInput, numOutput, (int) rows);
+        }
+    }
+
+    /**
+     * read and check the header of a data set file
+     * @param channel
+     * @return
+     * @throws IOException if it isn't a data set file or the rows don't fit in it
+     */
+    static Header readHeader(final FileChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0)
+                throw new IOException("not a data set file");
+        }
+
+        header.flip();
+
+        if (header.getInt() != MAGIC)
+            throw new IOException("not a data set file");
+
+        final int version = header.getInt();
+
+        if (version < 1 || version > VERSION)
+            throw new IOException("unsupported data set file version: " + version);
+
+        final int numInput = header.getInt();
+        final int numOutput = header.getInt();
+        final long rows = header.getLong();
+
+        if (numInput < 0 || numOutput < 0 || numInput + numOutput == 0 || rows < 0 || rows > Integer.MAX_VALUE)
+            throw new IOException("corrupt data set file: bad header");
+
+        if (HEADER_SIZE + rows * ((long) (numInput + numOutput) << 3) > channel.size())
+            throw new IOException("corrupt data set file: " + rows + " rows don't fit in " + channel.size() + " bytes");
+
+        return new Header(numInput, numOutput, rows);
+    }
+
+    static final class Header {
+
+        final int numInput, numOutput;
+
+        final long rows;
+
+        private Header(final int numInput, final int numOutput, final long rows) {
+            this.numInput = numInput;
+            this.numOutput = numOutput;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * mapped rows of a data set file
+     */
+    static final class Rows {
+
+        private final DoubleBuffer[] chunks;
+
+        private final int rowsPerChunk, stride;
+
+        private Rows(final DoubleBuffer[] chunks, final int rowsPerChunk, final int stride) {
+            this.chunks = chunks;
+            this.rowsPerChunk = rowsPerChunk;
+            this.stride = stride;
+        }
+
+        /**
+         * copy length values of a row from column on, absolute reads so any number of threads can copy at once
+         */
+        final void copy(final int row, final int column, final int length, final double[] dest, final int destOffset) {
+            chunks[row / rowsPerChunk].get((row % rowsPerChunk) * stride + column, dest, destOffset, length);
+        }
+
+        /**
+         * copy count consecutive rows
+         */
+        final void copy(final int row, final int count, final int column, final int length, final double[] dest, final int destOffset) {
+            for (int i = 0; i < count; i++)
+                copy(row + i, column, length, dest, destOffset + i * length);
+        }
+    }
+
+    /**
+     * writes rows to a temporary file through a buffer, the header goes in last once the number of rows is known
+     */
+    private static final class RowWriter implements AutoCloseable {
+
+        private final Path path, temp;
+
+        private final int numInput, numOutput;
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+        private long rows;
+
+        private boolean committed;
+
+        private RowWriter(final Path path, final int numInput, final int numOutput) throws IOException {
+            if (numInput + numOutput == 0)
+                throw new IllegalArgumentException("a sample needs inputs or outputs");
+
+            this.path = path;
+            this.temp = path.resolveSibling(path.getFileName() + ".tmp");
+            this.numInput = numInput;
+            this.numOutput = numOutput;
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+            channel.position(HEADER_SIZE);
+        }
+
+        private void write(final double[] row) throws IOException {
+            if (buffer.remaining() < row.length << 3)
+                flush();
+
+            //bigger than the buffer, write it on its own
+            if (buffer.remaining() < row.length << 3) {
+                final ByteBuffer single = ByteBuffer.allocate(row.length << 3).order(ByteOrder.LITTLE_ENDIAN);
+                single.asDoubleBuffer().put(row);
+
+                writeFully(single);
+            } else {
+                for (final double value : row)
+                    buffer.putDouble(value);
+            }
+
+            rows++;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(final ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+
+        /**
+         * write the header and move the file into place
+         */
+        private void commit() throws IOException {
+            flush();
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            header.putInt(MAGIC).putInt(VERSION).putInt(numInput).putInt(numOutput).putLong(rows);
+            header.clear();
+
+            channel.position(0);
+            writeFully(header);
+
+            channel.force(true);
+            channel.close();
+
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            committed = true;
+        }
+
+        @Override
+        public final void close() throws IOException {
+            channel.close();
+
+            //failed half way, don't leave the temporary file behind
+            if (!committed)
+                Files.deleteIfExists(temp);
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+package dev.g8.neuralnet.functions.activation;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public class ActivationFunctionTest {
+
+    private static final int LENGTH = 1 << 14;
+
+    @Test
+    public void floatBulkMatchesDouble() {
+        final Random random = new Random(1);
+
+        final float[] src = new float[LENGTH];
+
+        for (int i = 0; i < LENGTH; i++)
+            src[i] = (float) (random.nextGaussian() * 8);
+
+        final float[] dst = new float[LENGTH];
+
+        for (final ActivationFunction function : ActivationFunction.values()) {
+            function.activate(src, dst, 0, LENGTH);
+
+            for (int i = 0; i < LENGTH; i++) {
+                final float expected = (float) function.calculateActivation(src[i]);
+
+                //at most one rounding apart
+                assertEquals(function + " at " + src[i], expected, dst[i], Math.ulp(expected));
+            }
+
+            function.activateApproximate(src, dst, 0, LENGTH);
+
+            for (int i = 0; i < LENGTH; i++) {
+                final float expected = (float) function.calculateApproximateActivation(src[i]);
+
+                assertEquals(function + " approximate at " + src[i], expected, dst[i], Math.ulp(expected));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package dev.g8.neuralnet.functions.activation;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * checks the fast math activations against the exact ones and the max errors documented in {@link LookupTables}
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public class LookupTablesTest {
+
+    //same range and step as the errors in the docs of LookupTables
+    private static final double FROM = -20, TO = 20, STEP = 1e-4;
+
+    private static final Map<ActivationFunction, Double> DOCUMENTED = new EnumMap<>(ActivationFunction.class);
+
+    static {
+        DOCUMENTED.put(ActivationFunction.LOGISTIC_SIGMOID, 2.9e-6);
+        DOCUMENTED.put(ActivationFunction.TANH, 5.9e-6);
+        DOCUMENTED.put(ActivationFunction.BIPOLAR_SIGMOID, 5.9e-6);
+        DOCUMENTED.put(ActivationFunction.SOFTPLUS, 7.6e-6);
+        DOCUMENTED.put(ActivationFunction.SELU, 3.2e-6);
+    }
+
+    @Test
+    public void maxErrorsMatchTheDocs() {
+        for (final ActivationFunction function : ActivationFunction.values()) {
+            final double error = maxError(function);
+
+            if (DOCUMENTED.containsKey(function)) {
+                //the docs give 2 significant digits
+                assertEquals(function + " error " + error, DOCUMENTED.get(function), Double.parseDouble(String.format(Locale.ROOT, "%.1e", error)), 0);
+            } else {
+                //no lookup table, the approximation is the exact function
+                assertEquals(function.toString(), 0, error, 0);
+            }
+        }
+    }
+
+    @Test
+    public void bulkMatchesScalar() {
+        final int length = (int) ((TO - FROM) / STEP) + 1;
+
+        final double[] src = new double[length];
+        final double[] dst = new double[length];
+
+        for (int i = 0; i < length; i++)
+            src[i] = FROM + i * STEP;
+
+        for (final ActivationFunction function : ActivationFunction.values()) {
+            function.activateApproximate(src, dst, 0, length);
+
+            for (int i = 0; i < length; i++)
+                assertEquals(function + " at " + src[i], function.calculateApproximateActivation(src[i]), dst[i], 0);
+        }
+    }
+
+    private static double maxError(final ActivationFunction function) {
+        double max = 0;
+
+        for (int i = 0; FROM + i * STEP <= TO; i++) {
+            final double x = FROM + i * STEP;
+
+            max = Math.max(max, Math.abs(function.calculateActivation(x) - function.calculateApproximateActivation(x)));
+        }
+
+        return max;
+    }
+
+}
@@ -0,0 +1,84 @@
+package dev.g8.neuralnet.layers.impl;
+
+import dev.g8.neuralnet.layers.api.Mode;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public class DropoutLayerTest {
+
+    private static final int SIZE = 64, BATCH_SIZE = 4;
+
+    @Test
+    public void backpropUsesTheMaskOfTheForwardPass() {
+        final DropoutLayer layer = new DropoutLayer(SIZE, 0.5);
+        layer.setMode(Mode.TRAINING);
+
+        //half of the inputs are exactly 0 so kept neurons output 0 too
+        final double[] input = new double[BATCH_SIZE * SIZE];
+
+        for (int i = 0; i < input.length; i += 2)
+            input[i] = 1;
+
+        final byte[] mask = new byte[input.length];
+        final double[] output = new double[input.length];
+
+        layer.computeForward(input, mask, output, BATCH_SIZE, new Random(1));
+
+        final double[] outputErrors = new double[input.length];
+        final double[] inputErrors = new double[input.length];
+
+        Arrays.fill(outputErrors, 1);
+
+        layer.computeBackprop(outputErrors, mask, inputErrors, BATCH_SIZE);
+
+        int keptZeros = 0;
+
+        for (int i = 0; i < input.length; i++) {
+            assertEquals(mask[i] == 0 ? 0 : input[i] * 2, output[i], 0);
+            assertEquals(mask[i] == 0 ? 0 : 2, inputErrors[i], 0);
+
+            if (mask[i] == 1 && output[i] == 0)
+                keptZeros++;
+        }
+
+        //kept neurons with an output of 0 still pass their errors back
+        assertTrue(keptZeros > 0);
+    }
+
+    @Test
+    public void unmaskedForwardDropsTheSameNeurons() {
+        final DropoutLayer layer = new DropoutLayer(SIZE, 0.3);
+        layer.setMode(Mode.TRAINING);
+
+        final double[] input = new double[BATCH_SIZE * SIZE];
+
+        Arrays.fill(input, 1);
+
+        final double[] expected = new double[input.length];
+        final double[] actual = new double[input.length];
+
+        layer.computeForward(input, null, expected, null, BATCH_SIZE, new Random(7));
+        layer.computeForward(input, new byte[input.length], actual, BATCH_SIZE, new Random(7));
+
+        for (int i = 0; i < input.length; i++)
+            assertEquals(expected[i], actual[i], 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void forwardWithoutRandomCantTrain() {
+        final DropoutLayer layer = new DropoutLayer(SIZE, 0.3);
+        layer.setMode(Mode.TRAINING);
+
+        layer.computeForward(new double[SIZE], new double[SIZE], null, 1);
+    }
+
+}
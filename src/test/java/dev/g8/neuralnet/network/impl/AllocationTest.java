@@ -0,0 +1,110 @@
+package dev.g8.neuralnet.network.impl;
+
+import dev.g8.neuralnet.functions.activation.ActivationFunction;
+import dev.g8.neuralnet.functions.loss.LossFunction;
+import dev.g8.neuralnet.initializations.WeightInitialization;
+import dev.g8.neuralnet.layers.impl.DenseHiddenLayer;
+import dev.g8.neuralnet.layers.impl.DropoutLayer;
+import dev.g8.neuralnet.layers.impl.InputLayer;
+import dev.g8.neuralnet.layers.impl.OutputLayer;
+import dev.g8.neuralnet.optimizations.OptimizationAlgorithm;
+import dev.g8.neuralnet.utils.objects.DataSet;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * training steps reuse the buffers of the workspaces, once warmed up they shouldn't allocate at all
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public class AllocationTest {
+
+	private static final int SAMPLES = 256, INPUTS = 16, OUTPUTS = 4, BATCH_SIZE = 16;
+
+	//allocations stop once the jit has compiled the training loops
+	private static final int WARMUP = 50000, STEPS = 5000;
+
+	private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private FeedForwardNeuralNetwork network;
+
+	private double[][] inputs, outputs;
+
+	@Before
+	public void setUp() {
+		network = (FeedForwardNeuralNetwork) new FeedForwardNeuralNetwork.NetworkBuilder(FeedForwardNeuralNetwork.class)
+				.withLearningRate(0.01)
+				.withOptimizationAlgorithm(OptimizationAlgorithm.MINI_BATCH_GRADIENT_DESCENT)
+				.withSeed(1)
+				.withLayers(
+						new InputLayer(INPUTS, 32, WeightInitialization.XAVIER),
+						new DenseHiddenLayer(32, 16, ActivationFunction.TANH, WeightInitialization.XAVIER),
+						new DropoutLayer(32, 0.2),
+						new DenseHiddenLayer(16, OUTPUTS, ActivationFunction.RELU, WeightInitialization.XAVIER),
+						new OutputLayer(OUTPUTS, OUTPUTS, ActivationFunction.LOGISTIC_SIGMOID, LossFunction.MEAN_SQUARED_ERROR, WeightInitialization.XAVIER)
+				)
+				.build();
+
+		network.setup();
+
+		final Random random = new Random(1);
+
+		inputs = new double[SAMPLES][INPUTS];
+		outputs = new double[SAMPLES][OUTPUTS];
+
+		for (int i = 0; i < SAMPLES; i++) {
+			for (int j = 0; j < INPUTS; j++)
+				inputs[i][j] = random.nextGaussian();
+
+			outputs[i][random.nextInt(OUTPUTS)] = 1;
+		}
+	}
+
+	@Test
+	public void perSampleIterateDoesNotAllocate() {
+		assertEquals("bytes allocated by " + STEPS + " steps", 0, allocatedBytes(this::sampleSteps));
+	}
+
+	@Test
+	public void miniBatchIterateDoesNotAllocate() {
+		final DataSet dataSet = new DataSet(inputs, outputs);
+
+		assertEquals("bytes allocated by " + STEPS + " batches", 0, allocatedBytes(() -> batchSteps(dataSet)));
+	}
+
+	private void sampleSteps() {
+		for (int i = 0; i < STEPS; i++)
+			network.iterate(inputs[i % SAMPLES], outputs[i % SAMPLES]);
+	}
+
+	private void batchSteps(final DataSet dataSet) {
+		for (int i = 0; i < STEPS; i++)
+			network.iterate(dataSet, (i % (SAMPLES / BATCH_SIZE)) * BATCH_SIZE, BATCH_SIZE);
+	}
+
+	/**
+	 * bytes allocated by this thread during one run of steps, after warming it up
+	 * <p>
+	 * the steps are warmed up through the same call as the measured run, a loop compiled on stack can deoptimize when
+	 * it exits and put back the objects escape analysis removed
+	 * @param steps
+	 * @return
+	 */
+	private long allocatedBytes(final Runnable steps) {
+		for (int i = 0; i < WARMUP / STEPS; i++)
+			steps.run();
+
+		final long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+
+		steps.run();
+
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+	}
+
+}
@@ -0,0 +1,125 @@
+package dev.g8.neuralnet.network.impl;
+
+import dev.g8.neuralnet.components.ParameterStore;
+import dev.g8.neuralnet.functions.activation.ActivationFunction;
+import dev.g8.neuralnet.functions.loss.LossFunction;
+import dev.g8.neuralnet.initializations.WeightInitialization;
+import dev.g8.neuralnet.layers.impl.DenseHiddenLayer;
+import dev.g8.neuralnet.layers.impl.DropoutLayer;
+import dev.g8.neuralnet.layers.impl.InputLayer;
+import dev.g8.neuralnet.layers.impl.OutputLayer;
+import dev.g8.neuralnet.optimizations.OptimizationAlgorithm;
+import dev.g8.neuralnet.utils.objects.DataSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public class CheckpointerTest {
+
+	private static final int EPOCHS = 4, BATCH_SIZE = 2;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void resumedRunEndsWithTheWeightsOfAnUninterruptedOne() throws IOException {
+		final Path directory = folder.getRoot().toPath();
+
+		final FeedForwardNeuralNetwork uninterrupted = network();
+		uninterrupted.train(data(), EPOCHS, BATCH_SIZE);
+
+		//killed half way, only the checkpoints are left
+		final FeedForwardNeuralNetwork killed = network();
+
+		try (final Checkpointer checkpointer = new Checkpointer.CheckpointBuilder(directory).build()) {
+			killed.setCheckpointer(checkpointer);
+			killed.train(data(), EPOCHS / 2, BATCH_SIZE);
+		}
+
+		final Path latest = Checkpointer.latest(directory);
+
+		assertNotNull(latest);
+
+		final FeedForwardNeuralNetwork resumed = network();
+		resumed.resume(latest);
+		resumed.train(data(), EPOCHS, BATCH_SIZE);
+
+		for (int i = 0; i < uninterrupted.getLayers().size(); i++) {
+			final ParameterStore expected = uninterrupted.getLayers().get(i).getParameterStore();
+			final ParameterStore actual = resumed.getLayers().get(i).getParameterStore();
+
+			assertArrayEquals("weights of layer " + i, expected.getWeights(), actual.getWeights(), 0);
+			assertArrayEquals("bias of layer " + i, expected.getBias(), actual.getBias(), 0);
+		}
+	}
+
+	@Test
+	public void onlyTheNewestCheckpointsAreKept() throws IOException {
+		final Path directory = folder.getRoot().toPath();
+
+		final FeedForwardNeuralNetwork network = network();
+
+		final Checkpointer.CheckpointBuilder builder = new Checkpointer.CheckpointBuilder(directory).withKeep(2);
+
+		//closing waits for the write and the clean up, so every epoch gets its checkpoint
+		for (int epoch = 1; epoch <= 5; epoch++) {
+			try (final Checkpointer checkpointer = builder.build()) {
+				checkpointer.onProgress(network, epoch, 0, epoch, 7, true);
+			}
+		}
+
+		final List<String> checkpoints;
+
+		try (final Stream<Path> files = Files.list(directory)) {
+			checkpoints = files.map(file -> file.getFileName().toString()).sorted().toList();
+		}
+
+		assertEquals(List.of("checkpoint-000004-0000000000.g8nn", "checkpoint-000005-0000000000.g8nn"), checkpoints);
+		assertEquals(directory.resolve(checkpoints.get(1)), Checkpointer.latest(directory));
+	}
+
+	private static FeedForwardNeuralNetwork network() {
+		final FeedForwardNeuralNetwork network = (FeedForwardNeuralNetwork) new FeedForwardNeuralNetwork.NetworkBuilder(FeedForwardNeuralNetwork.class)
+				.withLearningRate(0.1)
+				.withOptimizationAlgorithm(OptimizationAlgorithm.MINI_BATCH_GRADIENT_DESCENT)
+				.withSeed(7)
+				.withLayers(
+						new InputLayer(2, 4, WeightInitialization.XAVIER),
+						new DenseHiddenLayer(4, 1, ActivationFunction.TANH, WeightInitialization.XAVIER),
+						new DropoutLayer(4, 0.25),
+						new OutputLayer(1, 1, ActivationFunction.LOGISTIC_SIGMOID, LossFunction.MEAN_SQUARED_ERROR, WeightInitialization.XAVIER)
+				)
+				.build();
+
+		network.setup();
+
+		return network;
+	}
+
+	/**
+	 * a new data set every run, training shuffles it in place and a resumed run has to start from the original order
+	 */
+	private static DataSet data() {
+		final DataSet dataSet = new DataSet();
+
+		dataSet.add(new double[][] {{0, 0}, {0, 1}, {1, 0}, {1, 1}, {0.5, 0}, {0, 0.5}},
+				new double[][] {{0}, {1}, {1}, {0}, {1}, {1}});
+
+		return dataSet;
+	}
+
+}
@@ -0,0 +1,199 @@
+package dev.g8.neuralnet.network.impl;
+
+import dev.g8.neuralnet.components.ParameterStore;
+import dev.g8.neuralnet.functions.activation.ActivationFunction;
+import dev.g8.neuralnet.functions.loss.LossFunction;
+import dev.g8.neuralnet.initializations.WeightInitialization;
+import dev.g8.neuralnet.layers.impl.DenseHiddenLayer;
+import dev.g8.neuralnet.layers.impl.InputLayer;
+import dev.g8.neuralnet.layers.impl.OutputLayer;
+import dev.g8.neuralnet.math.Precision;
+import dev.g8.neuralnet.optimizations.OptimizationAlgorithm;
+import dev.g8.neuralnet.utils.objects.DataSet;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public class FeedForwardNeuralNetworkTest {
+
+	@Test
+	public void batchSizeOneTrainsTheSameOnAnyNumberOfThreads() {
+		final FeedForwardNeuralNetwork single = network(1, Precision.DOUBLE);
+		final FeedForwardNeuralNetwork parallel = network(2, Precision.DOUBLE);
+
+		//the seed draws the same starting weights
+		assertSameParameters(single, parallel, 0);
+
+		final double[] initial = single.getLayers().get(0).getParameterStore().getWeights().clone();
+
+		single.train(xor(), 5, 1);
+		parallel.train(xor(), 5, 1);
+
+		//every gradient used to end up in a private buffer of the only worker and the weights never moved
+		assertFalse(Arrays.equals(initial, parallel.getLayers().get(0).getParameterStore().getWeights()));
+
+		assertSameParameters(single, parallel, 1e-12);
+	}
+
+	@Test
+	public void singlePrecisionPredictsFromACopyTakenWhenTheWeightsChange() {
+		final FeedForwardNeuralNetwork reference = network(1, Precision.DOUBLE);
+		final FeedForwardNeuralNetwork single = network(1, Precision.SINGLE);
+
+		final double[] before = outputs(single);
+
+		assertArrayEquals(outputs(reference), before, 1e-5);
+
+		single.train(xor(), 3, 2);
+		reference.train(xor(), 3, 2);
+
+		assertArrayEquals(outputs(reference), outputs(single), 1e-5);
+
+		//editing the weights directly doesn't touch the copy until the network is told
+		final double[] weights = single.getLayers().get(1).getParameterStore().getWeights();
+		final double[] trained = outputs(single);
+
+		Arrays.fill(weights, 0);
+
+		assertArrayEquals(trained, outputs(single), 0);
+
+		single.weightsChanged();
+		Arrays.fill(reference.getLayers().get(1).getParameterStore().getWeights(), 0);
+
+		assertArrayEquals(outputs(reference), outputs(single), 1e-5);
+	}
+
+	@Test
+	public void maskedWeightsStayZeroAfterEveryUpdate() {
+		final int[] mask = {0, 3, 5};
+
+		//one thread applies the gradients of the store, two reduce straight into the weights
+		for (final int threads : new int[]{1, 2}) {
+			final FeedForwardNeuralNetwork network = network(threads, Precision.DOUBLE);
+			final ParameterStore store = network.getLayers().get(0).getParameterStore();
+
+			store.setMask(mask);
+			assertMasked(store, mask);
+
+			for (int start = 0; start < 4; start += 2) {
+				network.iterate(xor(), start, 2);
+				assertMasked(store, mask);
+			}
+
+			//a sample at a time updates the weights during the backward pass
+			network.iterate(new double[]{1, 0}, new double[]{1});
+			assertMasked(store, mask);
+
+			//without the mask they train again
+			store.setMask(null);
+			network.iterate(xor(), 0, 4);
+
+			assertNotEquals(0, store.getWeights()[0], 0);
+		}
+	}
+
+	@Test
+	public void closeStopsThePipelineThreads() throws InterruptedException {
+		final FeedForwardNeuralNetwork network = (FeedForwardNeuralNetwork) new FeedForwardNeuralNetwork.NetworkBuilder(FeedForwardNeuralNetwork.class)
+				.withOptimizationAlgorithm(OptimizationAlgorithm.MINI_BATCH_GRADIENT_DESCENT)
+				.withPipelineStages(2)
+				.withThreads(2)
+				.withLayers(
+						new InputLayer(2, 4, WeightInitialization.XAVIER),
+						new DenseHiddenLayer(4, 1, ActivationFunction.TANH, WeightInitialization.XAVIER),
+						new OutputLayer(1, 1, ActivationFunction.LOGISTIC_SIGMOID, LossFunction.MEAN_SQUARED_ERROR, WeightInitialization.XAVIER)
+				)
+				.build();
+
+		network.setup();
+		network.train(xor(), 2, 4);
+
+		final List<Thread> stages = threads("pipeline-stage-");
+
+		assertEquals(2, stages.size());
+
+		//idle stages sleep until they are sent work instead of waking up on a timer
+		for (final Thread stage : stages) {
+			while (stage.getState() == Thread.State.RUNNABLE)
+				Thread.sleep(1);
+
+			assertEquals(Thread.State.WAITING, stage.getState());
+		}
+
+		network.close();
+
+		for (final Thread stage : stages) {
+			stage.join(10_000);
+
+			assertFalse(stage.isAlive());
+		}
+	}
+
+	private static List<Thread> threads(final String prefix) {
+		return Thread.getAllStackTraces().keySet().stream()
+				.filter(thread -> thread.getName().startsWith(prefix) && thread.isAlive())
+				.toList();
+	}
+
+	private static FeedForwardNeuralNetwork network(final int threads, final Precision precision) {
+		final FeedForwardNeuralNetwork network = (FeedForwardNeuralNetwork) new FeedForwardNeuralNetwork.NetworkBuilder(FeedForwardNeuralNetwork.class)
+				.withLearningRate(0.1)
+				.withOptimizationAlgorithm(OptimizationAlgorithm.MINI_BATCH_GRADIENT_DESCENT)
+				.withPrecision(precision)
+				.withThreads(threads)
+				.withSeed(42)
+				.withLayers(
+						new InputLayer(2, 4, WeightInitialization.XAVIER),
+						new DenseHiddenLayer(4, 1, ActivationFunction.TANH, WeightInitialization.XAVIER),
+						new OutputLayer(1, 1, ActivationFunction.LOGISTIC_SIGMOID, LossFunction.MEAN_SQUARED_ERROR, WeightInitialization.XAVIER)
+				)
+				.build();
+
+		network.setup();
+
+		return network;
+	}
+
+	private static void assertMasked(final ParameterStore store, final int[] mask) {
+		for (final int index : mask)
+			assertEquals("weight " + index, 0, store.getWeights()[index], 0);
+	}
+
+	private static void assertSameParameters(final FeedForwardNeuralNetwork expected, final FeedForwardNeuralNetwork actual, final double delta) {
+		for (int i = 0; i < expected.getLayers().size(); i++) {
+			final ParameterStore source = expected.getLayers().get(i).getParameterStore();
+			final ParameterStore dest = actual.getLayers().get(i).getParameterStore();
+
+			assertArrayEquals(source.getWeights(), dest.getWeights(), delta);
+			assertArrayEquals(source.getBias(), dest.getBias(), delta);
+		}
+	}
+
+	private static double[] outputs(final FeedForwardNeuralNetwork network) {
+		final DataSet predicted = network.predict(xor());
+		final double[] outputs = new double[predicted.size()];
+
+		predicted.copyOutputs(0, predicted.size(), outputs, 0);
+
+		return outputs;
+	}
+
+	private static DataSet xor() {
+		final DataSet dataSet = new DataSet();
+
+		dataSet.add(new double[][] {{0, 0}, {0, 1}, {1, 0}, {1, 1}}, new double[][] {{0}, {1}, {1}, {0}});
+
+		return dataSet;
+	}
+
+}
@@ -0,0 +1,182 @@
+package dev.g8.neuralnet.network.impl;
+
+import dev.g8.neuralnet.functions.activation.ActivationFunction;
+import dev.g8.neuralnet.functions.loss.LossFunction;
+import dev.g8.neuralnet.initializations.WeightInitialization;
+import dev.g8.neuralnet.layers.api.AbstractLayer;
+import dev.g8.neuralnet.layers.impl.DenseHiddenLayer;
+import dev.g8.neuralnet.layers.impl.DropoutLayer;
+import dev.g8.neuralnet.layers.impl.InputLayer;
+import dev.g8.neuralnet.layers.impl.OutputLayer;
+import dev.g8.neuralnet.network.api.AbstractNetwork;
+import dev.g8.neuralnet.optimizations.OptimizationAlgorithm;
+import dev.g8.neuralnet.utils.objects.DataSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public class ModelFileTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void loadGivesBackTheSavedNetwork() throws IOException {
+		final FeedForwardNeuralNetwork network = trained();
+		final Path path = folder.getRoot().toPath().resolve("model.nn");
+
+		ModelFile.save(network, path);
+
+		final AbstractNetwork loaded = ModelFile.load(path);
+		loaded.setup();
+
+		final List<AbstractLayer> expected = network.getLayers();
+		final List<AbstractLayer> actual = loaded.getLayers();
+
+		assertEquals(expected.size(), actual.size());
+
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getClass(), actual.get(i).getClass());
+
+			if (expected.get(i) instanceof DropoutLayer) {
+				assertEquals(((DropoutLayer) expected.get(i)).getDropoutRate(), ((DropoutLayer) actual.get(i)).getDropoutRate(), 0);
+				continue;
+			}
+
+			assertArrayEquals(expected.get(i).getParameterStore().getWeights(), actual.get(i).getParameterStore().getWeights(), 0);
+			assertArrayEquals(expected.get(i).getParameterStore().getBias(), actual.get(i).getParameterStore().getBias(), 0);
+		}
+
+		assertEquals(network.getLearningRate(), loaded.getLearningRate(), 0);
+		assertEquals(network.getOptimizationAlgorithm(), loaded.getOptimizationAlgorithm());
+		assertArrayEquals(outputs(network.predict(xor())), outputs(loaded.predict(xor())), 0);
+	}
+
+	@Test
+	public void mappedNetworkPredictsLikeTheLoadedOne() throws IOException {
+		final Path path = folder.getRoot().toPath().resolve("model.nn");
+
+		ModelFile.save(trained(), path);
+
+		final FeedForwardNeuralNetwork network = (FeedForwardNeuralNetwork) ModelFile.load(path);
+		network.setup();
+
+		final CompiledNetwork loaded = network.compile();
+		final CompiledNetwork mapped = ModelFile.map(path);
+
+		final DataSet xor = xor();
+
+		final double[] inputs = new double[xor.size() * 2];
+		final double[] expected = new double[xor.size()];
+		final double[] actual = new double[xor.size()];
+
+		xor.copyInputs(0, xor.size(), inputs, 0);
+
+		loaded.predict(inputs, expected, xor.size());
+		mapped.predict(inputs, actual, xor.size());
+
+		assertArrayEquals(expected, actual, 1e-12);
+
+		for (int i = 0; i < xor.size(); i++)
+			assertArrayEquals(loaded.predict(xor.getInput(i)), mapped.predict(xor.getInput(i)), 1e-12);
+	}
+
+	@Test
+	public void refusesANewerVersion() throws IOException {
+		final Path path = folder.getRoot().toPath().resolve("model.nn");
+
+		ModelFile.save(trained(), path);
+
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			final ByteBuffer version = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, ModelFile.VERSION + 1);
+
+			channel.write(version, 4);
+		}
+
+		try {
+			ModelFile.load(path);
+			fail("loaded a file with version " + (ModelFile.VERSION + 1));
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("version"));
+		}
+
+		try {
+			ModelFile.map(path);
+			fail("mapped a file with version " + (ModelFile.VERSION + 1));
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("version"));
+		}
+	}
+
+	@Test
+	public void failedSaveLeavesNoTemporaryFile() throws IOException {
+		//a non-empty directory can't be replaced so the final move fails after the whole file was written
+		final Path path = folder.newFolder("model.nn").toPath();
+
+		Files.createFile(path.resolve("keep"));
+
+		try {
+			ModelFile.save(trained(), path);
+			fail("replaced a directory");
+		} catch (IOException expected) {
+		}
+
+		assertFalse(Files.exists(path.resolveSibling("model.nn.tmp")));
+		assertTrue(Files.isDirectory(path));
+	}
+
+	private static FeedForwardNeuralNetwork trained() {
+		final FeedForwardNeuralNetwork network = (FeedForwardNeuralNetwork) new FeedForwardNeuralNetwork.NetworkBuilder(FeedForwardNeuralNetwork.class)
+				.withLearningRate(0.1)
+				.withOptimizationAlgorithm(OptimizationAlgorithm.MINI_BATCH_GRADIENT_DESCENT)
+				.withSeed(42)
+				.withLayers(
+						new InputLayer(2, 4, WeightInitialization.XAVIER),
+						new DenseHiddenLayer(4, 1, ActivationFunction.TANH, WeightInitialization.XAVIER),
+						new DropoutLayer(4, 0.25),
+						new OutputLayer(1, 1, ActivationFunction.LOGISTIC_SIGMOID, LossFunction.MEAN_SQUARED_ERROR, WeightInitialization.XAVIER)
+				)
+				.build();
+
+		network.setup();
+		network.train(xor(), 3, 2);
+
+		return network;
+	}
+
+	private static double[] outputs(final DataSet predicted) {
+		final double[] outputs = new double[predicted.size() * predicted.getNumOutput()];
+
+		predicted.copyOutputs(0, predicted.size(), outputs, 0);
+
+		return outputs;
+	}
+
+	private static DataSet xor() {
+		final DataSet dataSet = new DataSet();
+
+		dataSet.add(new double[][] {{0, 0}, {0, 1}, {1, 0}, {1, 1}}, new double[][] {{0}, {1}, {1}, {0}});
+
+		return dataSet;
+	}
+
+}
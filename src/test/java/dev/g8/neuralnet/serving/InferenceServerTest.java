@@ -0,0 +1,274 @@
+package dev.g8.neuralnet.serving;
+
+import dev.g8.neuralnet.functions.activation.ActivationFunction;
+import dev.g8.neuralnet.functions.loss.LossFunction;
+import dev.g8.neuralnet.initializations.WeightInitialization;
+import dev.g8.neuralnet.layers.impl.DenseHiddenLayer;
+import dev.g8.neuralnet.layers.impl.InputLayer;
+import dev.g8.neuralnet.layers.impl.OutputLayer;
+import dev.g8.neuralnet.network.impl.CompiledNetwork;
+import dev.g8.neuralnet.network.impl.FeedForwardNeuralNetwork;
+import dev.g8.neuralnet.optimizations.OptimizationAlgorithm;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * runs the server on localhost (port 0) and sends it requests in-process and over http
+ *
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public class InferenceServerTest {
+
+    private static final int NUM_INPUT = 8, NUM_OUTPUT = 3;
+
+    //batched predictions can differ from single ones in the last bits
+    private static final double DELTA = 1e-9;
+
+    private static CompiledNetwork network;
+
+    private static double[][] inputs;
+
+    @BeforeClass
+    public static void setUp() {
+        final FeedForwardNeuralNetwork feedForward = (FeedForwardNeuralNetwork) new FeedForwardNeuralNetwork.NetworkBuilder(FeedForwardNeuralNetwork.class)
+                .withOptimizationAlgorithm(OptimizationAlgorithm.MINI_BATCH_GRADIENT_DESCENT)
+                .withLayers(
+                        new InputLayer(NUM_INPUT, 16, WeightInitialization.XAVIER),
+                        new DenseHiddenLayer(16, NUM_OUTPUT, ActivationFunction.TANH, WeightInitialization.XAVIER),
+                        new OutputLayer(NUM_OUTPUT, NUM_OUTPUT, ActivationFunction.LOGISTIC_SIGMOID, LossFunction.MEAN_SQUARED_ERROR, WeightInitialization.XAVIER)
+                )
+                .build();
+
+        feedForward.setup();
+
+        network = feedForward.compile();
+
+        final Random random = new Random(1);
+
+        inputs = new double[64][NUM_INPUT];
+
+        for (final double[] input : inputs) {
+            for (int i = 0; i < NUM_INPUT; i++)
+                input[i] = random.nextGaussian();
+        }
+    }
+
+    @Test
+    public void batchesConcurrentRequests() throws Exception {
+        //a long delay so every batch fills up before it runs
+        try (final InferenceServer server = new InferenceServer.ServerBuilder(network)
+                .withMaxBatchSize(16)
+                .withMaxQueueDelay(5, TimeUnit.SECONDS)
+                .build()) {
+            server.start();
+
+            final List<CompletableFuture<double[]>> results = new ArrayList<>();
+
+            final Thread[] clients = new Thread[4];
+
+            for (int c = 0; c < clients.length; c++) {
+                final int client = c;
+
+                clients[c] = new Thread(() -> {
+                    for (int i = client; i < inputs.length; i += clients.length) {
+                        final CompletableFuture<double[]> result = server.submit(inputs[i]);
+
+                        synchronized (results) {
+                            results.add(result);
+                        }
+                    }
+                });
+
+                clients[c].start();
+            }
+
+            for (final Thread client : clients)
+                client.join();
+
+            assertEquals(inputs.length, results.size());
+
+            for (final CompletableFuture<double[]> result : results)
+                result.get(10, TimeUnit.SECONDS);
+
+            assertEquals(inputs.length / 16, server.getBatches());
+            assertEquals(16, server.getAverageBatchSize(), 0);
+        }
+    }
+
+    @Test
+    public void answersInProcessRequests() throws Exception {
+        try (final InferenceServer server = new InferenceServer.ServerBuilder(network).build()) {
+            server.start();
+
+            final List<CompletableFuture<double[]>> results = new ArrayList<>();
+
+            for (final double[] input : inputs)
+                results.add(server.submit(input));
+
+            for (int i = 0; i < inputs.length; i++)
+                assertArrayEquals(network.predict(inputs[i]), results.get(i).get(10, TimeUnit.SECONDS), DELTA);
+        }
+    }
+
+    @Test
+    public void answersConcurrentHttpRequests() throws Exception {
+        final int requests = 8;
+
+        try (final InferenceServer server = new InferenceServer.ServerBuilder(network)
+                .withMaxBatchSize(requests)
+                .withMaxQueueDelay(5, TimeUnit.SECONDS)
+                .withPort(0)
+                .build()) {
+            server.start();
+
+            assertTrue(server.getPort() > 0);
+
+            final HttpClient client = HttpClient.newHttpClient();
+
+            final List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+
+            for (int i = 0; i < requests; i++)
+                responses.add(client.sendAsync(post(server, body(inputs[i])), HttpResponse.BodyHandlers.ofString()));
+
+            for (int i = 0; i < requests; i++) {
+                final HttpResponse<String> response = responses.get(i).get(10, TimeUnit.SECONDS);
+
+                assertEquals(response.body(), 200, response.statusCode());
+                assertArrayEquals(network.predict(inputs[i]), parse(response.body()), DELTA);
+            }
+
+            //all of them waited in the same batch
+            assertEquals(1, server.getBatches());
+
+            assertEquals(400, client.send(post(server, "1,2"), HttpResponse.BodyHandlers.ofString()).statusCode());
+            assertEquals(400, client.send(post(server, "1,x"), HttpResponse.BodyHandlers.ofString()).statusCode());
+        }
+
+        //the default handler pool is shut down with the server
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while (handlerThreads() > 0 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+
+        assertEquals(0, handlerThreads());
+    }
+
+    @Test
+    public void rejectsRequestsWhenTheQueueIsFull() throws Exception {
+        try (final InferenceServer server = new InferenceServer.ServerBuilder(network)
+                .withMaxBatchSize(2)
+                .withMaxQueueDelay(5, TimeUnit.SECONDS)
+                .withQueueCapacity(4)
+                .withPort(0)
+                .build()) {
+            server.start();
+
+            final CountDownLatch blocked = new CountDownLatch(1), release = new CountDownLatch(1);
+
+            //the first request waits for a second one to fill its batch, hold the batching thread while it completes it
+            final CompletableFuture<double[]> first = server.submit(inputs[0]);
+
+            first.thenRun(() -> {
+                blocked.countDown();
+
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+
+            final CompletableFuture<double[]> second = server.submit(inputs[1]);
+
+            assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+            final List<CompletableFuture<double[]>> queued = new ArrayList<>();
+
+            for (int i = 0; i < 4; i++)
+                queued.add(server.submit(inputs[2 + i]));
+
+            try {
+                server.submit(inputs[6]);
+                fail("queue should be full");
+            } catch (RejectedExecutionException e) {
+                //expected
+            }
+
+            final HttpResponse<String> response = HttpClient.newHttpClient().send(post(server, body(inputs[6])), HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(503, response.statusCode());
+
+            release.countDown();
+
+            assertArrayEquals(network.predict(inputs[0]), first.get(10, TimeUnit.SECONDS), DELTA);
+            assertArrayEquals(network.predict(inputs[1]), second.get(10, TimeUnit.SECONDS), DELTA);
+
+            for (int i = 0; i < queued.size(); i++)
+                assertArrayEquals(network.predict(inputs[2 + i]), queued.get(i).get(10, TimeUnit.SECONDS), DELTA);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyQueue() {
+        new InferenceServer.ServerBuilder(network).withQueueCapacity(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeQueueDelay() {
+        new InferenceServer.ServerBuilder(network).withMaxQueueDelay(-1, TimeUnit.MILLISECONDS);
+    }
+
+    private static HttpRequest post(final InferenceServer server, final String body) {
+        return HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + "/predict"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static String body(final double[] input) {
+        final StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < input.length; i++) {
+            if (i > 0)
+                builder.append(',');
+
+            builder.append(input[i]);
+        }
+
+        return builder.toString();
+    }
+
+    private static double[] parse(final String body) {
+        final String[] values = body.split(",");
+        final double[] output = new double[values.length];
+
+        for (int i = 0; i < values.length; i++)
+            output[i] = Double.parseDouble(values[i]);
+
+        return output;
+    }
+
+    private static long handlerThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("inference-http") && thread.isAlive())
+                .count();
+    }
+
+}
@@ -0,0 +1,156 @@
+package dev.g8.neuralnet.utils.objects;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static dev.g8.neuralnet.utils.objects.DataSetFileTest.NUM_INPUT;
+import static dev.g8.neuralnet.utils.objects.DataSetFileTest.NUM_OUTPUT;
+import static dev.g8.neuralnet.utils.objects.DataSetFileTest.SIZE;
+import static dev.g8.neuralnet.utils.objects.DataSetFileTest.assertSameSamples;
+import static dev.g8.neuralnet.utils.objects.DataSetFileTest.csv;
+import static dev.g8.neuralnet.utils.objects.DataSetFileTest.samples;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public class DataLoaderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 10_000)
+    public void csvBatchesComeInFileOrder() throws IOException {
+        final DataSet expected = samples();
+        final Path csv = csv(folder.getRoot().toPath().resolve("samples.csv"), expected);
+
+        try (final DataLoader loader = new DataLoader.LoaderBuilder(csv, DataFormat.CSV)
+                .withSizes(NUM_INPUT, NUM_OUTPUT)
+                .withHeader(true)
+                .withBatchSize(4)
+                .withChunkSize(8)
+                .withPrefetch(2)
+                .withThreads(2)
+                .build()) {
+            assertSameSamples(expected, pass(loader, 4));
+
+            //stays at the end until rewound
+            assertNull(loader.nextBatch());
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void binaryBatchesComeInFileOrderEveryPass() throws IOException {
+        final DataSet expected = samples();
+        final Path file = folder.getRoot().toPath().resolve("samples.ds");
+
+        DataSetFile.save(expected, file);
+
+        try (final DataLoader loader = new DataLoader.LoaderBuilder(file, DataFormat.BINARY)
+                .withBatchSize(6)
+                .withChunkSize(12)
+                .withPrefetch(1)
+                .withThreads(2)
+                .build()) {
+            assertEquals(NUM_INPUT, loader.getNumInput());
+            assertEquals(NUM_OUTPUT, loader.getNumOutput());
+
+            assertSameSamples(expected, pass(loader, 6));
+
+            //rewinding half way starts over from the first sample
+            loader.rewind();
+            loader.nextBatch();
+            loader.nextBatch();
+            loader.rewind();
+
+            assertSameSamples(expected, pass(loader, 6));
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void malformedCsvLineFailsTheBatchItIsIn() throws IOException {
+        final Path csv = folder.getRoot().toPath().resolve("bad.csv");
+
+        final StringBuilder text = new StringBuilder();
+
+        for (int i = 1; i <= SIZE; i++)
+            text.append(i == 30 ? "1,2,x,4,5" : "1,2,3,4,5").append('\n');
+
+        Files.writeString(csv, text);
+
+        try (final DataLoader loader = new DataLoader.LoaderBuilder(csv, DataFormat.CSV)
+                .withSizes(NUM_INPUT, NUM_OUTPUT)
+                .withBatchSize(4)
+                .withChunkSize(4)
+                .withPrefetch(1)
+                .withThreads(1)
+                .build()) {
+            //twice, a failed pass must not leave the reader stuck behind the next rewind
+            for (int pass = 0; pass < 2; pass++) {
+                loader.rewind();
+
+                int samples = 0;
+
+                try {
+                    for (DataSet batch = loader.nextBatch(); batch != null; batch = loader.nextBatch())
+                        samples += batch.size();
+
+                    fail("read past a line with a non-number");
+                } catch (UncheckedIOException e) {
+                    assertTrue(e.getMessage(), e.getMessage().contains("line 30"));
+                }
+
+                //every chunk before the one holding line 30
+                assertEquals(28, samples);
+                assertNull(loader.nextBatch());
+            }
+        }
+    }
+
+    @Test
+    public void truncatedBinaryFileIsRefused() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("samples.ds");
+
+        DataSetFile.save(samples(), file);
+
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 8);
+        }
+
+        try {
+            new DataLoader.LoaderBuilder(file, DataFormat.BINARY).build().close();
+            fail("loaded a truncated file");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("don't fit"));
+        }
+    }
+
+    /**
+     * read batches until the end of the pass, copying them since they are only valid until the next call
+     */
+    private static DataSet pass(final DataLoader loader, final int batchSize) {
+        final DataSet samples = new DataSet(loader.getNumInput(), loader.getNumOutput(), SIZE);
+
+        for (DataSet batch = loader.nextBatch(); batch != null; batch = loader.nextBatch()) {
+            assertTrue(batch.size() <= batchSize);
+
+            for (int i = 0; i < batch.size(); i++)
+                samples.add(batch.getInput(i), batch.getOutput(i));
+        }
+
+        return samples;
+    }
+
+}
@@ -0,0 +1,161 @@
+package dev.g8.neuralnet.utils.objects;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public class DataSetFileTest {
+
+    static final int NUM_INPUT = 3, NUM_OUTPUT = 2, SIZE = 50;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void convertedCsvMapsToTheSameSamples() throws IOException {
+        final DataSet expected = samples();
+        final Path csv = csv(folder.getRoot().toPath().resolve("samples.csv"), expected);
+        final Path file = folder.getRoot().toPath().resolve("samples.ds");
+
+        assertEquals(SIZE, DataSetFile.convertCsv(csv, file, NUM_INPUT, NUM_OUTPUT, true));
+
+        assertSameSamples(expected, DataSetFile.map(file));
+    }
+
+    @Test
+    public void savedDataSetMapsAcrossChunks() throws IOException {
+        final DataSet expected = samples();
+        final Path file = folder.getRoot().toPath().resolve("samples.ds");
+
+        DataSetFile.save(expected, file);
+
+        //7 rows a chunk, so most ranges cross a chunk boundary
+        final DataSet mapped = DataSetFile.map(file, 7L * (NUM_INPUT + NUM_OUTPUT) << 3);
+
+        assertSameSamples(expected, mapped);
+
+        final double[] expectedInputs = new double[20 * NUM_INPUT];
+        final double[] actualInputs = new double[20 * NUM_INPUT];
+
+        expected.copyInputs(5, 20, expectedInputs, 0);
+        mapped.copyInputs(5, 20, actualInputs, 0);
+
+        assertArrayEquals(expectedInputs, actualInputs, 0);
+    }
+
+    @Test
+    public void malformedCsvLineIsReportedWithItsLineNumber() throws IOException {
+        final Path csv = folder.getRoot().toPath().resolve("bad.csv");
+        final Path file = folder.getRoot().toPath().resolve("bad.ds");
+
+        Files.writeString(csv, "a,b,c,d,e\n1,2,3,4,5\n1,2,x,4,5\n");
+
+        try {
+            DataSetFile.convertCsv(csv, file, NUM_INPUT, NUM_OUTPUT, true);
+            fail("converted a line with a non-number");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 3"));
+        }
+
+        Files.writeString(csv, "1,2,3,4,5\n1,2,3,4\n");
+
+        try {
+            DataSetFile.convertCsv(csv, file, NUM_INPUT, NUM_OUTPUT, false);
+            fail("converted a line with too few values");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 2: expected 5 values, got 4"));
+        }
+
+        //nothing half written is left behind
+        assertFalse(Files.exists(file));
+        assertFalse(Files.exists(file.resolveSibling("bad.ds.tmp")));
+    }
+
+    @Test
+    public void truncatedFileIsRefused() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("samples.ds");
+
+        DataSetFile.save(samples(), file);
+
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 8);
+        }
+
+        try {
+            DataSetFile.map(file);
+            fail("mapped a truncated file");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("don't fit"));
+        }
+    }
+
+    static DataSet samples() {
+        final Random random = new Random(1);
+
+        final DataSet dataSet = new DataSet(NUM_INPUT, NUM_OUTPUT, SIZE);
+
+        for (int i = 0; i < SIZE; i++) {
+            final double[] input = new double[NUM_INPUT];
+            final double[] output = new double[NUM_OUTPUT];
+
+            for (int j = 0; j < NUM_INPUT; j++)
+                input[j] = random.nextGaussian();
+
+            for (int j = 0; j < NUM_OUTPUT; j++)
+                output[j] = random.nextInt(2);
+
+            dataSet.add(input, output);
+        }
+
+        return dataSet;
+    }
+
+    /**
+     * write a data set as csv with a header line, a blank line and mixed separators
+     */
+    static Path csv(final Path path, final DataSet dataSet) throws IOException {
+        final StringBuilder text = new StringBuilder("x0,x1,x2,y0,y1\n");
+
+        for (int i = 0; i < dataSet.size(); i++) {
+            final double[] input = dataSet.getInput(i);
+            final double[] output = dataSet.getOutput(i);
+
+            text.append(input[0]).append(',').append(input[1]).append(", ").append(input[2])
+                    .append(' ').append(output[0]).append(',').append(output[1]).append('\n');
+
+            if (i == SIZE / 2)
+                text.append('\n');
+        }
+
+        return Files.writeString(path, text);
+    }
+
+    static void assertSameSamples(final DataSet expected, final DataSet actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getNumInput(), actual.getNumInput());
+        assertEquals(expected.getNumOutput(), actual.getNumOutput());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("input " + i, expected.getInput(i), actual.getInput(i), 0);
+            assertArrayEquals("output " + i, expected.getOutput(i), actual.getOutput(i), 0);
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+package dev.g8.neuralnet.utils.objects;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author G8LOL
+ * @since 4/21/2023
+ */
+public class DataSetTest {
+
+    private static final int SIZE = 103;
+
+    @Test
+    public void sameSeedGivesTheSameOrder() {
+        final DataSet first = rows(SIZE);
+        final DataSet second = rows(SIZE);
+
+        first.shuffle(new Random(3));
+        second.shuffle(new Random(3));
+
+        assertArrayEquals(ids(first), ids(second));
+
+        //only the random decides the order, not the shuffles before it
+        second.shuffle(new Random(4));
+        second.shuffle(new Random(3));
+
+        assertArrayEquals(ids(first), ids(second));
+
+        second.shuffle(new Random(4));
+
+        assertFalse(Arrays.equals(ids(first), ids(second)));
+        assertPaired(second);
+    }
+
+    @Test
+    public void blockShuffleKeepsEveryRowOnceAndBlocksTogether() {
+        final int blockSize = 10;
+
+        final DataSet dataSet = rows(SIZE);
+        dataSet.shuffle(new Random(5), blockSize);
+
+        final int[] ids = ids(dataSet);
+
+        assertFalse(Arrays.equals(ids(rows(SIZE)), ids));
+        assertEveryRowOnce(ids, SIZE);
+        assertPaired(dataSet);
+
+        assertBlocksTogether(ids, blockSize);
+
+        //the block size set on the data set is what shuffle(Random) uses
+        final DataSet same = rows(SIZE);
+        same.setShuffleBlockSize(blockSize);
+        same.shuffle(new Random(5));
+
+        assertArrayEquals(ids, ids(same));
+    }
+
+    @Test
+    public void viewOfAShuffledDataSetShufflesItsOwnRows() {
+        final DataSet dataSet = rows(SIZE);
+        dataSet.shuffle(new Random(6));
+
+        final int[] parent = ids(dataSet);
+
+        final DataSet view = dataSet.subList(10, 40);
+
+        //the view keeps the order the samples had when it was made
+        assertArrayEquals(Arrays.copyOfRange(parent, 10, 40), ids(view));
+
+        final int[] rows = ids(view);
+        Arrays.sort(rows);
+
+        view.shuffle(new Random(7));
+
+        final int[] shuffled = ids(view);
+
+        //same rows, the parent keeps its order
+        final int[] sorted = shuffled.clone();
+        Arrays.sort(sorted);
+
+        assertArrayEquals(rows, sorted);
+        assertArrayEquals(parent, ids(dataSet));
+        assertPaired(view);
+
+        //the rows are sorted before every shuffle, so the seed alone decides the order
+        view.shuffle(new Random(8));
+        view.shuffle(new Random(7));
+
+        assertArrayEquals(shuffled, ids(view));
+
+        //blocks of a view are made of the rows in the order they are stored, not the order the parent shuffled them in
+        final DataSet all = dataSet.subList(0, SIZE);
+        all.shuffle(new Random(9), 4);
+
+        assertEveryRowOnce(ids(all), SIZE);
+        assertBlocksTogether(ids(all), 4);
+        assertPaired(all);
+    }
+
+    @Test
+    public void addAfterAShuffleGoesToTheEnd() {
+        final DataSet dataSet = rows(SIZE);
+        dataSet.shuffle(new Random(10));
+
+        final int[] before = ids(dataSet);
+
+        dataSet.add(new double[]{SIZE}, new double[]{-SIZE});
+
+        assertEquals(SIZE + 1, dataSet.size());
+        assertArrayEquals(before, Arrays.copyOf(ids(dataSet), SIZE));
+        assertEquals(SIZE, ids(dataSet)[SIZE]);
+        assertPaired(dataSet);
+
+        //the new row is shuffled like the others
+        dataSet.shuffle(new Random(11));
+
+        assertEveryRowOnce(ids(dataSet), SIZE + 1);
+        assertPaired(dataSet);
+    }
+
+    @Test
+    public void addToAViewLeavesTheDataSetAlone() {
+        final DataSet dataSet = rows(SIZE);
+        dataSet.shuffle(new Random(12));
+
+        final int[] parent = ids(dataSet);
+
+        final DataSet view = dataSet.subList(20, 30);
+        view.add(new double[]{SIZE}, new double[]{-SIZE});
+
+        //the view gets its own copy in the order it had, the data set doesn't see the new row
+        final int[] expected = Arrays.copyOf(Arrays.copyOfRange(parent, 20, 30), 11);
+        expected[10] = SIZE;
+
+        assertArrayEquals(expected, ids(view));
+        assertPaired(view);
+
+        assertEquals(SIZE, dataSet.size());
+        assertArrayEquals(parent, ids(dataSet));
+
+        //and shuffling the data set doesn't touch the copy
+        dataSet.shuffle(new Random(13));
+
+        assertArrayEquals(expected, ids(view));
+    }
+
+    /**
+     * row i has input i and output -i
+     */
+    private static DataSet rows(final int size) {
+        final DataSet dataSet = new DataSet(1, 1, size);
+
+        for (int i = 0; i < size; i++)
+            dataSet.add(new double[]{i}, new double[]{-i});
+
+        return dataSet;
+    }
+
+    /**
+     * the rows of the samples in their current order
+     */
+    private static int[] ids(final DataSet dataSet) {
+        final double[] inputs = new double[dataSet.size()];
+
+        dataSet.copyInputs(0, dataSet.size(), inputs, 0);
+
+        return Arrays.stream(inputs).mapToInt(input -> (int) input).toArray();
+    }
+
+    private static void assertEveryRowOnce(final int[] ids, final int size) {
+        assertEquals(size, ids.length);
+
+        final int[] sorted = ids.clone();
+        Arrays.sort(sorted);
+
+        for (int i = 0; i < size; i++)
+            assertEquals(i, sorted[i]);
+    }
+
+    /**
+     * the rows of a block come one after the other, the last block may be short
+     */
+    private static void assertBlocksTogether(final int[] ids, final int blockSize) {
+        final Set<Integer> seen = new HashSet<>();
+
+        for (int i = 0; i < ids.length; i++) {
+            final int block = ids[i] / blockSize;
+
+            if (i == 0 || ids[i - 1] / blockSize != block)
+                assertTrue("block " + block + " is split", seen.add(block));
+        }
+
+        assertEquals((ids.length + blockSize - 1) / blockSize, seen.size());
+    }
+
+    /**
+     * every input still comes with its own output
+     */
+    private static void assertPaired(final DataSet dataSet) {
+        for (int i = 0; i < dataSet.size(); i++)
+            assertEquals(-dataSet.getInput(i)[0], dataSet.getOutput(i)[0], 0);
+    }
+
+}